@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package CASL.Benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import CASL.Map.GameMap;
+import CASL.Map.MapFile;
+import VSQL.SQLGameMap;
+
+/**
+ * Assembles a CASL map from real VASL board archives the same way
+ * <code>CASLThread.initCaslMap()</code> does: each <code>bdXX.cmap</code> or
+ * <code>bdXX.map</code> is
+ * read with <code>Map.readMap(InputStream)</code> and inserted into a larger
+ * map with <code>insertGEOMap</code>.
+ * <p>
+ * Board archives are looked up in the directory given by the
+ * <code>vsql.boardDir</code> system property.
+ */
+public class BoardLayout {
+
+  public static final String BOARD_DIR_PROPERTY = "vsql.boardDir";
+
+  /**
+   * Builds a <code>columns</code> x <code>rows</code> layout, cycling through
+   * <code>boards</code> left to right, top to bottom.
+   *
+   * @param boards
+   *          board names (e.g. "1", "12", "r3")
+   * @param columns
+   *          boards across
+   * @param rows
+   *          boards down
+   * @param vsql
+   *          create a <code>SQLGameMap</code> rather than a plain
+   *          <code>GameMap</code>
+   * @return the assembled map
+   */
+  public static GameMap build(String[] boards, int columns, int rows, boolean vsql) throws IOException {
+
+    final File boardDir = getBoardDir();
+
+    // read the board maps
+    final GameMap[] boardMaps = new GameMap[columns * rows];
+    for (int i = 0; i < boardMaps.length; i++) {
+      boardMaps[i] = readBoard(boardDir, boards[i % boards.length]);
+    }
+
+    // all geomorphic boards share the same size; use the first to size the layout
+    final int boardWidth = boardMaps[0].getWidth() - 1;
+    final int boardHeight = boardMaps[0].getHeight();
+    final int w = columns * boardWidth + 1;
+    final int h = rows * boardHeight;
+    final GameMap map = vsql ? new SQLGameMap(w, h) : new GameMap(w, h);
+
+    for (int row = 0; row < rows; row++) {
+      for (int col = 0; col < columns; col++) {
+        final GameMap board = boardMaps[row * columns + col];
+        if (!map.insertGEOMap(board, map.getHex(col * boardWidth, row * boardHeight))) {
+          throw new IOException("Unable to insert board " + boards[(row * columns + col) % boards.length]);
+        }
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Reads <code>bd&lt;name&gt;.map</code> out of the board archive
+   * <code>bd&lt;name&gt;</code>.
+   */
+  public static GameMap readBoard(File boardDir, String name) throws IOException {
+
+    final File archive = new File(boardDir, "bd" + name);
+    try (ZipFile zip = new ZipFile(archive)) {
+      ZipEntry entry = zip.getEntry("bd" + name + MapFile.EXTENSION);
+      if (entry == null) {
+        entry = zip.getEntry("bd" + name + ".map");
+      }
+      if (entry == null) {
+        throw new IOException("No LOS data in " + archive);
+      }
+      try (InputStream in = zip.getInputStream(entry)) {
+        final GameMap map = CASL.Map.Map.readMap(in);
+        if (map == null) {
+          throw new IOException("Unable to read LOS data in " + archive);
+        }
+        return map;
+      }
+    }
+  }
+
+  public static File getBoardDir() throws IOException {
+
+    final String dir = System.getProperty(BOARD_DIR_PROPERTY);
+    if (dir == null) {
+      throw new IOException("Set -D" + BOARD_DIR_PROPERTY + " to the VASL boards directory");
+    }
+    final File boardDir = new File(dir);
+    if (!boardDir.isDirectory()) {
+      throw new IOException(boardDir + " is not a directory");
+    }
+    return boardDir;
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package CASL.Benchmark;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import CASL.Map.GameMap;
+import CASL.Map.Hex;
+import CASL.Map.LOSQuery;
+import CASL.Map.LOSQueryResults;
+import CASL.Map.LOSResult;
+import CASL.Map.Location;
+import CASL.Map.Smoke;
+import CASL.Scenario.Scenario;
+import CASL.Unit.Vehicle;
+import VSQL.SQLLOSResult;
+
+/**
+ * LOS throughput on real board data. Each invocation checks one LOS from a
+ * fixed, seeded list of source/target pairs chosen to exercise a particular
+ * kind of terrain. Run with <code>-prof gc</code> to report the allocation
+ * rate per LOS check alongside the throughput.
+ * <p>
+ * Parameters:
+ * <ul>
+ * <li><code>engine</code> - CASL uses <code>GameMap</code>/<code>LOSResult</code>,
+ * VSQL uses <code>SQLGameMap</code>/<code>SQLLOSResult</code></li>
+ * <li><code>layout</code> - boards across x boards down</li>
+ * <li><code>terrain</code> - which pairs to check: open ground, hills,
+ * buildings (upper levels where available), smoke or vehicles</li>
+ * <li><code>boards</code> - comma separated board names cycled through the
+ * layout</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class LOSBenchmark {
+
+  private static final int QUERIES = 1024;
+  private static final long SEED = 0x5EEDL;
+
+  @Param({"CASL", "VSQL"})
+  public String engine;
+
+  @Param({"1x1", "2x2"})
+  public String layout;
+
+  @Param({"open", "hills", "buildings", "smoke", "vehicles"})
+  public String terrain;
+
+  @Param({"1,2,3,4"})
+  public String boards;
+
+  private GameMap map;
+  private Scenario scenario;
+  private LOSResult result;
+  private Location[] sources;
+  private Location[] targets;
+  private ArrayList<LOSQuery> queries;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+
+    final int x = layout.indexOf('x');
+    final int columns = Integer.parseInt(layout.substring(0, x));
+    final int rows = Integer.parseInt(layout.substring(x + 1));
+    final boolean vsql = "VSQL".equals(engine);
+
+    map = BoardLayout.build(boards.split(","), columns, rows, vsql);
+    result = vsql ? new SQLLOSResult() : new LOSResult();
+    scenario = new Scenario();
+
+    final Random random = new Random(SEED);
+    final ArrayList<Hex> candidates = new ArrayList<Hex>();
+    for (int col = 0; col < map.getWidth(); col++) {
+      for (int row = 0; row < map.getHeight() + (col % 2); row++) {
+        final Hex h = map.getHex(col, row);
+        if (h != null && isCandidate(h)) {
+          candidates.add(h);
+        }
+      }
+    }
+    if (candidates.isEmpty()) {
+      throw new IllegalStateException("No " + terrain + " hexes on boards " + boards);
+    }
+
+    // scatter smoke or wrecks over roughly one hex in ten
+    if ("smoke".equals(terrain) || "vehicles".equals(terrain)) {
+      for (int col = 0; col < map.getWidth(); col++) {
+        for (int row = 0; row < map.getHeight() + (col % 2); row++) {
+          final Hex h = map.getHex(col, row);
+          if (h != null && random.nextInt(10) == 0) {
+            if ("smoke".equals(terrain)) {
+              map.addSmoke(new Smoke(Smoke.SMOKE, h.getCenterLocation()));
+            }
+            else {
+              scenario.addUnit(new Vehicle(h.getCenterLocation()), Scenario.ALLIES);
+            }
+          }
+        }
+      }
+    }
+
+    sources = new Location[QUERIES];
+    targets = new Location[QUERIES];
+    for (int i = 0; i < QUERIES; i++) {
+      final Hex source = candidates.get(random.nextInt(candidates.size()));
+      Hex target;
+      do {
+        target = map.getHex(random.nextInt(map.getWidth()), random.nextInt(map.getHeight()));
+      } while (target == null || target == source);
+      sources[i] = topLocation(source);
+      targets[i] = "hills".equals(terrain) || "buildings".equals(terrain) ? topLocation(target) : target.getCenterLocation();
+    }
+
+    queries = new ArrayList<LOSQuery>(QUERIES);
+    for (int i = 0; i < QUERIES; i++) {
+      queries.add(new LOSQuery(sources[i], false, targets[i], false));
+    }
+  }
+
+  private boolean isCandidate(Hex h) {
+
+    if ("hills".equals(terrain)) {
+      return h.getBaseHeight() > 0;
+    }
+    else if ("buildings".equals(terrain)) {
+      return h.getCenterLocation().getTerrain().isBuildingTerrain();
+    }
+    else {
+      return h.getBaseHeight() == 0 && h.getCenterLocation().getTerrain().isOpenTerrain();
+    }
+  }
+
+  private static Location topLocation(Hex h) {
+
+    Location l = h.getCenterLocation();
+    while (l.getUpLocation() != null) {
+      l = l.getUpLocation();
+    }
+    return l;
+  }
+
+  @Benchmark
+  public void los(Blackhole bh) {
+
+    final int i = next;
+    next = (i + 1) % QUERIES;
+
+    map.LOS(sources[i], false, targets[i], false, result, scenario);
+    bh.consume(result.isBlocked());
+    bh.consume(result.getHindrance());
+  }
+
+  // all pairs at once, spread over the fork-join pool
+  @Benchmark
+  @OperationsPerInvocation(QUERIES)
+  public void losBatch(Blackhole bh) {
+
+    final LOSQueryResults results = map.LOS(queries, scenario);
+    bh.consume(results.getValue(QUERIES - 1));
+  }
+}
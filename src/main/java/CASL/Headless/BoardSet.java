@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package CASL.Headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import CASL.Map.GameMap;
+import CASL.Map.MapFile;
+import CASL.Map.TerrainChanges;
+import VSQL.SQLGameMap;
+
+/**
+ * Assembles a CASL map from a directory of VASL board archives without a
+ * display, the way <code>CASLThread.initCaslMap()</code> does for the boards
+ * of a game: the boards are read in parallel, their terrain changes applied
+ * and reversed boards flipped, then they are inserted in layout order and the
+ * map is frozen.
+ * <p>
+ * A layout lists the boards of each row left to right, separated by commas,
+ * and the rows top to bottom, separated by slashes, e.g. <code>r3,4/12,b5</code>.
+ * A board name starting with <code>r</code> is reversed. A board name may be
+ * followed by a colon and the terrain changes of that board, separated by
+ * plus signs, e.g. <code>r3:NoWoodsRoads+OrchardsToShellholes,4</code>, as
+ * the SSRs of each board are applied in a game.
+ */
+public class BoardSet {
+
+  // most boards read at once
+  private static final int MAX_LOAD_THREADS = 4;
+
+  private BoardSet() {
+  }
+
+  /**
+   * Splits a layout into its rows of board names.
+   */
+  public static String[][] parseLayout(String layout) throws IOException {
+
+    final String[] rows = layout.trim().split("/");
+    final String[][] boards = new String[rows.length][];
+    for (int row = 0; row < rows.length; row++) {
+      boards[row] = rows[row].trim().split("\\s*,\\s*");
+      for (String entry : boards[row]) {
+        final String name = boardName(entry);
+        if (name.length() == 0 || "r".equals(name)) {
+          throw new IOException("Missing board name in layout " + layout);
+        }
+      }
+    }
+    return boards;
+  }
+
+  /**
+   * Returns the board name of a layout entry, e.g. <code>r3</code> for
+   * <code>r3:NoWoodsRoads+OrchardsToShellholes</code>.
+   */
+  public static String boardName(String entry) {
+
+    final int colon = entry.indexOf(':');
+    return colon < 0 ? entry : entry.substring(0, colon).trim();
+  }
+
+  /**
+   * Returns the tab separated terrain changes of a layout entry, or null if
+   * it has none.
+   */
+  public static String terrainChanges(String entry) {
+
+    final int colon = entry.indexOf(':');
+    return colon < 0 ? null : entry.substring(colon + 1).trim().replace('+', '\t');
+  }
+
+  /**
+   * Builds the map of a layout.
+   *
+   * @param boardDir
+   *          the directory holding the board archives
+   * @param layout
+   *          board names by row, see <code>parseLayout</code>
+   * @param terrainChanges
+   *          tab separated terrain changes applied to every board before the
+   *          board's own changes, or null
+   * @param sql
+   *          create a <code>SQLGameMap</code> rather than a plain
+   *          <code>GameMap</code>
+   * @return the frozen map
+   */
+  public static GameMap build(final File boardDir, String[][] layout, final String terrainChanges, boolean sql)
+      throws IOException {
+
+    final List<String> names = new ArrayList<String>();
+    int columns = 0;
+    for (String[] row : layout) {
+      columns = Math.max(columns, row.length);
+      for (String name : row) {
+        names.add(name);
+      }
+    }
+
+    // read the boards in parallel
+    final List<GameMap> boards = new ArrayList<GameMap>(names.size());
+    final ExecutorService loader = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(names.size(), Math.min(MAX_LOAD_THREADS, Runtime.getRuntime().availableProcessors()))));
+    try {
+      final List<Future<GameMap>> loads = new ArrayList<Future<GameMap>>(names.size());
+      for (final String entry : names) {
+        final String own = terrainChanges(entry);
+        final String changes = terrainChanges == null ? own
+            : own == null ? terrainChanges : terrainChanges + "\t" + own;
+        loads.add(loader.submit(new Callable<GameMap>() {
+          public GameMap call() throws IOException {
+            return loadBoard(boardDir, boardName(entry), changes);
+          }
+        }));
+      }
+      for (Future<GameMap> load : loads) {
+        try {
+          boards.add(load.get());
+        }
+        catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new IOException(e.getCause());
+        }
+        catch (InterruptedException e) {
+          throw new IOException("Interrupted while reading the boards", e);
+        }
+      }
+    }
+    finally {
+      loader.shutdownNow();
+    }
+
+    // all geomorphic boards share the same size; use the first to size the layout
+    final int boardWidth = boards.get(0).getWidth() - 1;
+    final int boardHeight = boards.get(0).getHeight();
+    final int w = columns * boardWidth + 1;
+    final int h = layout.length * boardHeight;
+    final GameMap map = sql ? new SQLGameMap(w, h) : new GameMap(w, h);
+
+    int i = 0;
+    for (int row = 0; row < layout.length; row++) {
+      for (int col = 0; col < layout[row].length; col++, i++) {
+        final GameMap board = boards.get(i);
+        final String error = map.getInsertGEOMapError(board, map.getHex(col * boardWidth, row * boardHeight));
+        if (error != null) {
+          throw new IOException("Unable to insert board " + boardName(names.get(i)) + ": " + error);
+        }
+        map.insertGEOMap(board, map.getHex(col * boardWidth, row * boardHeight));
+        boards.set(i, null);
+      }
+    }
+
+    map.freeze();
+    return map;
+  }
+
+  /**
+   * Reads the map of a board, applies the terrain changes and flips it if the
+   * board is reversed.
+   */
+  public static GameMap loadBoard(File boardDir, String name, String terrainChanges) throws IOException {
+
+    final boolean reversed = name.startsWith("r");
+    final String board = reversed ? name.substring(1) : name;
+
+    final GameMap map = readBoard(new File(boardDir, "bd" + board), board);
+    if (terrainChanges != null) {
+      TerrainChanges.apply(terrainChanges, map);
+    }
+    if (reversed) {
+      map.flip();
+    }
+    return map;
+  }
+
+  // prefers the binary map file, falling back to the serialized map
+  private static GameMap readBoard(File archive, String board) throws IOException {
+
+    if (!archive.isFile()) {
+      throw new IOException("No board archive " + archive);
+    }
+
+    try (ZipFile zip = new ZipFile(archive)) {
+
+      final ZipEntry binary = zip.getEntry("bd" + board + MapFile.EXTENSION);
+      if (binary != null) {
+        try (InputStream in = zip.getInputStream(binary)) {
+          final GameMap map = MapFile.read(in);
+          if (map != null) {
+            return map;
+          }
+        }
+        catch (IOException e) {
+          // no usable binary map file
+        }
+      }
+
+      final ZipEntry serialized = zip.getEntry("bd" + board + ".map");
+      if (serialized == null) {
+        throw new IOException("Board " + board + " does not support LOS checking");
+      }
+      try (InputStream in = zip.getInputStream(serialized)) {
+        final GameMap map = CASL.Map.Map.readMap(in);
+        if (map == null) {
+          throw new IOException("Could not read bd" + board + ".map");
+        }
+        return map;
+      }
+    }
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package CASL.Headless;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import CASL.Map.GameMap;
+import CASL.Map.Hex;
+import CASL.Map.LOSQuery;
+import CASL.Map.LOSQueryResults;
+import CASL.Map.Location;
+import CASL.Map.Smoke;
+import CASL.Map.Terrain;
+import CASL.Scenario.Scenario;
+import CASL.Unit.Vehicle;
+
+/**
+ * Checks LOS from the command line, without a display. The map is assembled
+ * from a directory of board archives (see <code>BoardSet</code>); queries are
+ * read from a file or standard input, one per line, and checked in batches
+ * spread over all cores. Results are written to standard output in the order
+ * of the queries, each batch as soon as it is done.
+ * <p>
+ * A query is a source and a target location. A location is a hex name
+ * preceded by the name of its board in the layout, a hex name alone if no
+ * other board has that hex, or <code>col,row</code>, optionally followed by
+ * <code>+n</code> or <code>-n</code> for the location n levels above or below
+ * the hex center, e.g. <code>3M5+2 4G7</code>. The first hex column of a board
+ * is shared with the board to its left and has the names of its own board.
+ * Results are written as the query followed by the range and the hindrance,
+ * or <code>blocked</code>.
+ * <p>
+ * Lines may also change the scenario for the queries that follow them:
+ * <code>smoke</code>, <code>dispersed-smoke</code>, <code>wp</code>,
+ * <code>wreck</code>, <code>stone-rubble</code> or <code>wood-rubble</code>
+ * followed by a location, and <code>clear</code> to start an empty scenario.
+ * Empty lines and lines starting with <code>#</code> are ignored.
+ * <p>
+ * The number of worker threads is that of the common fork-join pool, set with
+ * <code>-Djava.util.concurrent.ForkJoinPool.common.parallelism</code>.
+ */
+public class LOSRunner {
+
+  private static final int DEFAULT_BATCH_SIZE = 10000;
+
+  private static final String USAGE =
+      "Usage: LOSRunner [-sql] [-ssr <change>[,<change>...]] [-batch <queries>] <board dir> <layout> [<query file>|-]\n"
+      + "  <layout> lists the boards of each row separated by commas, and the rows separated by slashes;\n"
+      + "  a board may be followed by its own SSRs, e.g. r3:NoWoodsRoads+OrchardsToShellholes,4/12,b5.\n"
+      + "  -ssr changes are applied to every board, before its own.";
+
+  private final GameMap map;
+  private final int batchSize;
+  private final PrintWriter out;
+
+  // hexes by lower case name, with and without the board name; null for
+  // names used by more than one hex
+  private final HashMap<String, Hex> hexes = new HashMap<String, Hex>();
+
+  private Scenario scenario = new Scenario();
+
+  // queries and errors waiting for the batch to be checked
+  private final List<LOSQuery> queries = new ArrayList<LOSQuery>();
+  private final List<String> lines = new ArrayList<String>();
+  private final List<String> errors = new ArrayList<String>();
+
+  /**
+   * @param map
+   *          the map built by <code>BoardSet</code>
+   * @param layout
+   *          the layout the map was built from, to name hexes by board
+   */
+  public LOSRunner(GameMap map, String[][] layout, int batchSize, PrintWriter out) {
+
+    this.map = map;
+    this.batchSize = batchSize;
+    this.out = out;
+
+    int columns = 0;
+    for (String[] row : layout) {
+      columns = Math.max(columns, row.length);
+    }
+    final int boardWidth = (map.getWidth() - 1) / columns;
+    final int boardHeight = map.getHeight() / layout.length;
+
+    for (int col = 0; col < map.getWidth(); col++) {
+      for (int row = 0; row < map.getHeight() + (col % 2); row++) {
+        final Hex h = map.getHex(col, row);
+        if (h == null) {
+          continue;
+        }
+        final String name = h.getName().toLowerCase();
+        addName(name, h);
+
+        // the board the hex was copied from
+        final int boardRow = Math.min(row / boardHeight, layout.length - 1);
+        final int boardCol = Math.min(col / boardWidth, columns - 1);
+        if (boardCol < layout[boardRow].length) {
+          String board = BoardSet.boardName(layout[boardRow][boardCol]);
+          if (board.startsWith("r")) {
+            board = board.substring(1);
+          }
+          addName(board.toLowerCase() + name, h);
+        }
+      }
+    }
+  }
+
+  private void addName(String name, Hex h) {
+
+    hexes.put(name, hexes.containsKey(name) ? null : h);
+  }
+
+  /**
+   * Checks the queries read from <code>in</code> and writes their results.
+   */
+  public void run(BufferedReader in) throws IOException {
+
+    String line;
+    while ((line = in.readLine()) != null) {
+      line = line.trim();
+      if (line.length() == 0 || line.startsWith("#")) {
+        continue;
+      }
+
+      final String[] tokens = line.split("\\s+");
+      try {
+        if (tokens.length == 1 && "clear".equals(tokens[0])) {
+          flush();
+          scenario = new Scenario();
+        }
+        else if (tokens.length == 2 && isScenarioChange(tokens[0])) {
+          flush();
+          changeScenario(tokens[0], getLocation(tokens[1]));
+        }
+        else if (tokens.length == 2) {
+          add(line, new LOSQuery(getLocation(tokens[0]), false, getLocation(tokens[1]), false), null);
+        }
+        else {
+          throw new IllegalArgumentException("expected a source and a target location");
+        }
+      }
+      catch (IllegalArgumentException e) {
+        add(line, null, e.getMessage());
+      }
+    }
+    flush();
+  }
+
+  private void add(String line, LOSQuery query, String error) {
+
+    lines.add(line);
+    errors.add(error);
+    if (query != null) {
+      queries.add(query);
+    }
+    if (queries.size() >= batchSize) {
+      flush();
+    }
+  }
+
+  // checks the waiting queries and writes the results in order
+  private void flush() {
+
+    final LOSQueryResults results = map.LOS(queries, scenario);
+    int query = 0;
+    for (int i = 0; i < lines.size(); i++) {
+      if (errors.get(i) != null) {
+        out.println(lines.get(i) + " error " + errors.get(i));
+      }
+      else {
+        out.println(lines.get(i) + " " + results.getRange(query) + " "
+            + (results.isBlocked(query) ? "blocked" : Integer.toString(results.getHindrance(query))));
+        query++;
+      }
+    }
+    out.flush();
+    queries.clear();
+    lines.clear();
+    errors.clear();
+  }
+
+  private static boolean isScenarioChange(String s) {
+
+    return "smoke".equals(s) || "dispersed-smoke".equals(s) || "wp".equals(s) || "wreck".equals(s)
+        || "stone-rubble".equals(s) || "wood-rubble".equals(s);
+  }
+
+  private void changeScenario(String change, Location l) {
+
+    if ("smoke".equals(change)) {
+      scenario.addSmoke(new Smoke(Smoke.SMOKE, l));
+    }
+    else if ("dispersed-smoke".equals(change)) {
+      scenario.addSmoke(new Smoke(Smoke.SMOKE, l, true));
+    }
+    else if ("wp".equals(change)) {
+      scenario.addSmoke(new Smoke(Smoke.WHITE_PHOSPHORUS, l));
+    }
+    else if ("wreck".equals(change)) {
+      scenario.addUnit(new Vehicle(l), Scenario.ALLIES);
+    }
+    else if ("stone-rubble".equals(change)) {
+      scenario.setHexTerrain(l.getHex(), map.getTerrain(Terrain.STONE_RUBBLE));
+    }
+    else if ("wood-rubble".equals(change)) {
+      scenario.setHexTerrain(l.getHex(), map.getTerrain(Terrain.WOODEN_RUBBLE));
+    }
+  }
+
+  /**
+   * Returns the location named by <code>s</code>.
+   *
+   * @throws IllegalArgumentException if there is no such location
+   */
+  public Location getLocation(String s) {
+
+    // levels above or below the hex center
+    int levels = 0;
+    int sign = Math.max(s.lastIndexOf('+'), s.lastIndexOf('-'));
+    String hex = s;
+    if (sign > 0) {
+      try {
+        levels = Integer.parseInt(s.substring(sign));
+        hex = s.substring(0, sign);
+      }
+      catch (NumberFormatException e) {
+        // part of the hex name
+      }
+    }
+
+    Location l = getHex(hex).getCenterLocation();
+    for (; levels > 0 && l != null; levels--) {
+      l = l.getUpLocation();
+    }
+    for (; levels < 0 && l != null; levels++) {
+      l = l.getDownLocation();
+    }
+    if (l == null) {
+      throw new IllegalArgumentException("no location " + s);
+    }
+    return l;
+  }
+
+  private Hex getHex(String s) {
+
+    final int comma = s.indexOf(',');
+    if (comma > 0) {
+      try {
+        final int col = Integer.parseInt(s.substring(0, comma));
+        final int row = Integer.parseInt(s.substring(comma + 1));
+        if (col >= 0 && col < map.getWidth() && row >= 0 && row < map.getHeight() + (col % 2)) {
+          return map.getHex(col, row);
+        }
+      }
+      catch (NumberFormatException e) {
+        // reported below
+      }
+      throw new IllegalArgumentException("no hex " + s);
+    }
+
+    final String name = s.toLowerCase();
+    final Hex h = hexes.get(name);
+    if (h == null) {
+      throw new IllegalArgumentException(hexes.containsKey(name)
+          ? "hex " + s + " is on more than one board; add the board name or use col,row"
+          : "no hex " + s);
+    }
+    return h;
+  }
+
+  public static void main(String[] args) {
+
+    boolean sql = false;
+    String terrainChanges = null;
+    int batchSize = DEFAULT_BATCH_SIZE;
+    final List<String> files = new ArrayList<String>();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        if ("-sql".equals(args[i])) {
+          sql = true;
+        }
+        else if ("-ssr".equals(args[i]) && i + 1 < args.length) {
+          terrainChanges = args[++i].replace(',', '\t');
+        }
+        else if ("-batch".equals(args[i]) && i + 1 < args.length) {
+          batchSize = Math.max(1, Integer.parseInt(args[++i]));
+        }
+        else {
+          files.add(args[i]);
+        }
+      }
+    }
+    catch (NumberFormatException e) {
+      files.clear();
+    }
+    if (files.size() < 2 || files.size() > 3) {
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+
+    final String[][] layout;
+    final GameMap map;
+    try {
+      layout = BoardSet.parseLayout(files.get(1));
+      map = BoardSet.build(new File(files.get(0)), layout, terrainChanges, sql);
+    }
+    catch (IOException e) {
+      System.err.println("Cannot build the map: " + e.getMessage());
+      System.exit(1);
+      return;
+    }
+
+    final PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    try (InputStream in = files.size() < 3 || "-".equals(files.get(2)) ? System.in : new FileInputStream(files.get(2))) {
+      new LOSRunner(map, layout, batchSize, out).run(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+    }
+    catch (IOException e) {
+      System.err.println("Cannot read the queries: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+}
@@ -20,6 +20,7 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.Polygon;
@@ -30,14 +31,23 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Ellipse2D;
 import java.awt.image.BufferedImage;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.swing.JOptionPane;
 
 import CASL.MapBuilder.VASLMultilevelBuildings;
 import CASL.Scenario.Scenario;
+import CASL.Unit.Unit;
 import CASL.Unit.Vehicle;
 
 /**
@@ -61,6 +71,27 @@ public class GameMap extends Map implements Serializable {
   // serial ID: version 1.0.0
   static final long serialVersionUID = 000100L;
 
+  // pixel-to-hex lookup table (see gridToHex)
+  private transient volatile char[] hexLookup;
+  private transient Hex[] hexLookupHexes;
+  private transient boolean hexLookupDisabled;
+
+  // LOS result cache (see setLOSCacheSize)
+  private transient LOSCache losCache;
+
+  // obstacle heights by hex and pixel block (see Pt2PtLOS)
+  private transient volatile ObstacleSummary obstacleSummary;
+
+  // smoke by hex index (see getHexSmoke)
+  private static final List<Smoke> NO_SMOKE = Collections.emptyList();
+  private transient volatile ArrayList<Smoke>[] smokeIndex;
+
+  // results reused by the workers of batch LOS checks (see LOS(List, Scenario))
+  private transient volatile ConcurrentLinkedQueue<LOSResult> batchResults;
+
+  // terrain and smoke can no longer be changed (see freeze)
+  private transient volatile boolean frozen;
+
   /**
    * Constructs a new <code>GameMap</code> object. A standard geomorphic
    * mapboard is 10 x 33 hexes.
@@ -118,6 +149,30 @@ public class GameMap extends Map implements Serializable {
     return terrainList[(int) terrainGrid[x][y]];
   }
 
+  /**
+   * Returns the <code>Terrain</code> type for the pixel at x, y of the map
+   * image, as changed by the scenario.
+   * 
+   * @param x
+   *          the x coordinate of the map image pixel
+   * @param y
+   *          the y coordinate of the map image pixel
+   * @param scenario
+   *          the scenario, or null for the map terrain
+   * @return <code>Terrain</code> the terrain type at (col, row)
+   */
+  public Terrain getGridTerrain(int x, int y, Scenario scenario) {
+
+    if (scenario != null && scenario.hasTerrainChanges()) {
+
+      final Terrain terr = scenario.getGridTerrain(x, y);
+      if (terr != null) {
+        return terr;
+      }
+    }
+    return terrainList[(int) terrainGrid[x][y]];
+  }
+
   /**
    * Returns the ground level for the pixel at x, y of the map image.
    * 
@@ -134,7 +189,9 @@ public class GameMap extends Map implements Serializable {
   }
 
   public void setGridGroundLevel(int x, int y, byte level) {
+    checkNotFrozen();
     elevationGrid[x][y] = level;
+    terrainChanged(x, y);
   }
   
   /**
@@ -836,6 +893,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void setGridTerrain(Rectangle rect, Terrain terr) {
 
+    checkNotFrozen();
+
     int startx = (int) rect.getX();
     int starty = (int) rect.getY();
 
@@ -851,6 +910,8 @@ public class GameMap extends Map implements Serializable {
     if (terr.isFactoryTerrain()) {
       setFactoryWalls(rect, terr);
     }
+
+    terrainChanged(rect);
   }
 
   /**
@@ -864,7 +925,10 @@ public class GameMap extends Map implements Serializable {
    */
   public void setGridTerrainUnknown(int x, int y) {
 
+    checkNotFrozen();
+
     terrainGrid[x][y] = (char) Terrain.UNKNOWN;
+    terrainChanged(x, y);
   }
 
   /**
@@ -892,7 +956,10 @@ public class GameMap extends Map implements Serializable {
    */
   public void setRawTerrain(int x, int y, int terr) {
 
+    checkNotFrozen();
+
     terrainGrid[x][y] = (char) terr;
+    terrainChanged(x, y);
   }
 
   /**
@@ -919,6 +986,8 @@ public class GameMap extends Map implements Serializable {
   // set the grid terrain for an arbitrary shape
   public void setGridTerrain(Shape s, Terrain terr) {
 
+    checkNotFrozen();
+
     Rectangle rect = s.getBounds();
     int startx = (int) rect.getX();
     int starty = (int) rect.getY();
@@ -973,6 +1042,8 @@ public class GameMap extends Map implements Serializable {
     if (terr.isFactoryTerrain()) {
       setFactoryWalls(s.getBounds(), terr);
     }
+
+    terrainChanged(rect);
   }
 
   /**
@@ -1035,6 +1106,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void setHexTerrain(Hex h, Terrain terr) {
 
+    checkNotFrozen();
+
     // set the center location
     h.setTerrain(terr);
 
@@ -1046,6 +1119,8 @@ public class GameMap extends Map implements Serializable {
 
     // remove any prefab buildings in the hex
     removePrefabBuilding(h);
+
+    terrainChanged(h);
   }
 
   /**
@@ -1061,6 +1136,8 @@ public class GameMap extends Map implements Serializable {
   // set the hex terrain for a section of map
   public void setHexTerrain(Shape s, Terrain terr) {
 
+    checkNotFrozen();
+
     // get the affected hexes
     Vector v = intersectedHexes(s.getBounds());
     Iterator iter = v.iterator();
@@ -1086,6 +1163,8 @@ public class GameMap extends Map implements Serializable {
         }
       }
     }
+
+    terrainChanged(s.getBounds());
   }
 
   /**
@@ -1101,6 +1180,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void setGridGroundLevel(Shape s, Terrain terr, int level) {
 
+    checkNotFrozen();
+
     setGridGroundLevel(s, s.getBounds(), terr, level);
   }
 
@@ -1117,6 +1198,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void setGridGroundLevel(Rectangle area, Terrain terr, int newLevel) {
 
+    checkNotFrozen();
+
     setGridGroundLevel(null, area, terr, newLevel);
   }
 
@@ -1158,6 +1241,8 @@ public class GameMap extends Map implements Serializable {
         }
       }
     }
+
+    terrainChanged(area);
   }
 
   /**
@@ -1173,6 +1258,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void setHexGroundLevel(Shape s, Terrain terr, int newLevel) {
 
+    checkNotFrozen();
+
     // set the hex base elevation and depression terrain
     Vector v = intersectedHexes(s.getBounds());
     Iterator iter = v.iterator();
@@ -1243,6 +1330,8 @@ public class GameMap extends Map implements Serializable {
         }
       }
     }
+
+    terrainChanged(s.getBounds());
   }
 
   /**
@@ -1417,53 +1506,181 @@ public class GameMap extends Map implements Serializable {
     y = Math.max(y, 0);
     y = Math.min(y, gridHeight - 1);
 
+    // use the lookup table, if we have one
+    final char[] lookup = getHexLookupTable();
+    if (lookup != null) {
+
+      final int index = lookup[x * gridHeight + y];
+      if (index != 0) {
+
+        return hexLookupHexes[index - 1];
+      }
+    }
+
     try {
 
-      int z = (int) (x / (Hex.WIDTH / 3));
-      int row;
-      int col;
+      return computeGridToHex(x, y);
+    }
+    catch (Exception e) {
+
+      System.err.println("gridToHex error at X: " + x + " Y: " + y);
+      return null;
+    }
+  }
+
+  /**
+   * Enables or disables the pixel-to-hex lookup table used by
+   * <code>gridToHex</code>. The table costs two bytes per map pixel and is
+   * built the first time it is needed. It is enabled by default.
+   * 
+   * @param enabled
+   *          true to use the lookup table
+   */
+  public void setHexLookupEnabled(boolean enabled) {
+
+    hexLookupDisabled = !enabled;
+    if (!enabled) {
+      invalidateHexLookupTable();
+    }
+  }
+
+  /**
+   * Discards the pixel-to-hex lookup table. It will be rebuilt the next time
+   * <code>gridToHex</code> is called. Must be called whenever hexes are moved
+   * within the hex grid.
+   */
+  protected void invalidateHexLookupTable() {
 
-      // in "grey area" between columns?
-      if ((z - 1) % 3 == 0) {
+    hexLookup = null;
+    hexLookupHexes = null;
+  }
 
-        col = (int) Math.ceil(((double) z - 1) / 3);
-        row = (int) ((col % 2 == 0) ? y / Hex.HEIGHT : (y + Hex.HEIGHT / 2) / Hex.HEIGHT);
+  /**
+   * Returns the pixel-to-hex lookup table, building it if necessary. Entries
+   * hold the index + 1 of the hex in <code>hexLookupHexes</code>, 0 where the
+   * hex could not be determined.
+   * 
+   * @return the lookup table or null if disabled or the map has too many hexes
+   */
+  private char[] getHexLookupTable() {
 
-        if (hexGrid[col][row].contains(x, y)) {
+    char[] lookup = hexLookup;
+    if (lookup == null && !hexLookupDisabled) {
 
-          return hexGrid[col][row];
-        }
-        else if (col % 2 == 0) {
+      synchronized (this) {
 
-          if (hexGrid[col + 1][row + 1].contains(x, y)) {
+        lookup = hexLookup;
+        if (lookup == null && getHexCount() < Character.MAX_VALUE) {
 
-            return hexGrid[col + 1][row + 1];
+          final Hex[] hexes = new Hex[getHexCount()];
+          for (int col = 0; col < hexGrid.length; col++) {
+            for (int row = 0; row < hexGrid[col].length; row++) {
+              hexes[getHexIndex(col, row)] = hexGrid[col][row];
+            }
           }
-          else {
-            return hexGrid[col + 1][row];
+
+          lookup = new char[gridWidth * gridHeight];
+          for (int x = 0; x < gridWidth; x++) {
+            for (int y = 0; y < gridHeight; y++) {
+
+              try {
+                final Hex h = computeGridToHex(x, y);
+                if (h != null) {
+                  lookup[x * gridHeight + y] = (char) (getHexIndex(h.getColumnNumber(), h.getRowNumber()) + 1);
+                }
+              }
+              catch (Exception e) {
+                // leave unresolved; gridToHex will report it
+              }
+            }
           }
+
+          hexLookupHexes = hexes;
+          hexLookup = lookup;
         }
-        else {
-          if ((row - 1 >= 0 && hexGrid[col + 1][row - 1].contains(x, y)) || (row == height)) {
+      }
+    }
+    return lookup;
+  }
 
-            return hexGrid[col + 1][row - 1];
-          }
-          else {
-            return hexGrid[col + 1][row];
-          }
+  /**
+   * Returns the number of hexes on the map.
+   */
+  public int getHexCount() {
+
+    return width * height + width / 2;
+  }
+
+  /**
+   * Returns a dense index for the hex at (col, row) in the range
+   * 0..getHexCount() - 1. Odd columns hold one more hex than even columns.
+   * 
+   * @param col
+   *          hex column ('A' is 0)
+   * @param row
+   *          offset of hex in column (first hex in column is 0)
+   * @return the hex index
+   */
+  public int getHexIndex(int col, int row) {
+
+    return col * height + col / 2 + row;
+  }
+
+  /**
+   * Returns the dense index of a hex on this map.
+   * 
+   * @see #getHexIndex(int, int)
+   */
+  public int getHexIndex(Hex h) {
+
+    return getHexIndex(h.getColumnNumber(), h.getRowNumber());
+  }
+
+  /**
+   * The geometric pixel-to-hex calculation behind <code>gridToHex</code>.
+   * Assumes (x, y) is on the map.
+   */
+  private Hex computeGridToHex(int x, int y) {
+
+    int z = (int) (x / (Hex.WIDTH / 3));
+    int row;
+    int col;
+
+    // in "grey area" between columns?
+    if ((z - 1) % 3 == 0) {
+
+      col = (int) Math.ceil(((double) z - 1) / 3);
+      row = (int) ((col % 2 == 0) ? y / Hex.HEIGHT : (y + Hex.HEIGHT / 2) / Hex.HEIGHT);
+
+      if (hexGrid[col][row].contains(x, y)) {
+
+        return hexGrid[col][row];
+      }
+      else if (col % 2 == 0) {
+
+        if (hexGrid[col + 1][row + 1].contains(x, y)) {
+
+          return hexGrid[col + 1][row + 1];
+        }
+        else {
+          return hexGrid[col + 1][row];
         }
       }
       else {
+        if ((row - 1 >= 0 && hexGrid[col + 1][row - 1].contains(x, y)) || (row == height)) {
 
-        col = (int) Math.ceil((double) z / 3);
-        row = (int) ((col % 2 == 0) ? y / Hex.HEIGHT : (y + Hex.HEIGHT / 2) / Hex.HEIGHT);
-        return hexGrid[col][row];
+          return hexGrid[col + 1][row - 1];
+        }
+        else {
+          return hexGrid[col + 1][row];
+        }
       }
     }
-    catch (Exception e) {
+    else {
 
-      System.err.println("gridToHex error at X: " + x + " Y: " + y);
-      return null;
+      col = (int) Math.ceil((double) z / 3);
+      row = (int) ((col % 2 == 0) ? y / Hex.HEIGHT : (y + Hex.HEIGHT / 2) / Hex.HEIGHT);
+      return hexGrid[col][row];
     }
   }
 
@@ -1570,6 +1787,396 @@ public class GameMap extends Map implements Serializable {
     return rng;
   }
 
+  /**
+   * Sets the size of the LOS result cache. Results are cached by source and
+   * target location and are discarded when the smoke, scenario vehicles or
+   * terrain in or next to the hexes the LOS passes through change. Changes
+   * made directly to <code>Hex</code> or <code>Location</code> objects are not
+   * seen by the cache; call <code>clearLOSCache</code> after making them. The
+   * cache is off by default.
+   * 
+   * @param maxEntries
+   *          the maximum number of results to keep, 0 to turn the cache off
+   */
+  public void setLOSCacheSize(int maxEntries) {
+
+    losCache = maxEntries > 0 ? new LOSCache(this, maxEntries) : null;
+  }
+
+  /**
+   * Discards all cached LOS results.
+   */
+  public void clearLOSCache() {
+
+    final LOSCache cache = losCache;
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Returns the number of LOS checks answered from the cache.
+   */
+  public long getLOSCacheHits() {
+
+    final LOSCache cache = losCache;
+    return cache == null ? 0 : cache.getHits();
+  }
+
+  /**
+   * Returns the number of LOS checks that had to be computed while the cache
+   * was on.
+   */
+  public long getLOSCacheMisses() {
+
+    final LOSCache cache = losCache;
+    return cache == null ? 0 : cache.getMisses();
+  }
+
+  /**
+   * Creates an empty <code>LOSResult</code> of the type used by this map's
+   * LOS rules.
+   */
+  public LOSResult createLOSResult() {
+
+    return new LOSResult();
+  }
+
+  /**
+   * Checks the LOS from one location to the center location of every hex on
+   * the map, or every hex within a given range. The checks are spread over
+   * the common fork-join pool; each worker uses its own
+   * <code>LOSResult</code>, so the map and scenario must not be changed until
+   * this method returns. Results are not added to the LOS cache.
+   * 
+   * @param source
+   *          source location
+   * @param useAuxSourceLOSPoint
+   *          use auxillary bypass aiming point for source location
+   * @param maxRange
+   *          only check hexes within this range, or -1 for the whole map
+   * @param scenario
+   *          <code>Scenario</code> that contains all scenario-dependent LOS
+   *          information
+   * @return what the source can see
+   */
+  public Visibility getVisibility(Location source, boolean useAuxSourceLOSPoint, int maxRange, Scenario scenario) {
+
+    Visibility visibility = new Visibility(this, source, maxRange);
+    ForkJoinPool.commonPool().invoke(
+        new VisibilityTask(visibility, useAuxSourceLOSPoint, scenario, 0, hexGrid.length));
+    visibility.finish();
+    return visibility;
+  }
+
+  // checks the LOS to the hexes in a range of columns
+  private class VisibilityTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    // columns handled by a single worker
+    private static final int COLUMNS_PER_TASK = 2;
+
+    private Visibility visibility;
+    private boolean useAuxSourceLOSPoint;
+    private Scenario scenario;
+    private int firstColumn;
+    private int lastColumn;
+
+    VisibilityTask(Visibility visibility, boolean useAuxSourceLOSPoint, Scenario scenario, int firstColumn,
+        int lastColumn) {
+
+      this.visibility = visibility;
+      this.useAuxSourceLOSPoint = useAuxSourceLOSPoint;
+      this.scenario = scenario;
+      this.firstColumn = firstColumn;
+      this.lastColumn = lastColumn;
+    }
+
+    protected void compute() {
+
+      if (lastColumn - firstColumn > COLUMNS_PER_TASK) {
+
+        int middle = (firstColumn + lastColumn) / 2;
+        invokeAll(new VisibilityTask(visibility, useAuxSourceLOSPoint, scenario, firstColumn, middle),
+            new VisibilityTask(visibility, useAuxSourceLOSPoint, scenario, middle, lastColumn));
+        return;
+      }
+
+      Location source = visibility.getSource();
+      Hex sourceHex = source.getHex();
+      int maxRange = visibility.getMaxRange();
+      LOSResult result = createLOSResult();
+      for (int col = firstColumn; col < lastColumn; col++) {
+        for (int row = 0; row < hexGrid[col].length; row++) {
+
+          Hex h = hexGrid[col][row];
+          if (maxRange >= 0 && range(sourceHex, h) > maxRange) {
+            continue;
+          }
+
+          computeLOS(source, useAuxSourceLOSPoint, h.getCenterLocation(), false, result, scenario);
+          if (result.isBlocked()) {
+            visibility.setBlocked(getHexIndex(col, row));
+          }
+          else {
+            visibility.setHindrance(getHexIndex(col, row), result.getHindrance());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks the LOS for a batch of source/target pairs. The checks are spread
+   * over the common fork-join pool. The queries are sorted by source, so
+   * that a worker looks up the smoke in the source hex and the ranges of the
+   * hindrances from the source once for each run of queries with the same
+   * source, and repeated queries are checked once. The workers take their
+   * <code>LOSResult</code> objects from a pool kept by the map, so the map and
+   * scenario must not be changed until this method returns. Results are not
+   * added to the LOS cache.
+   * 
+   * @param queries
+   *          the source/target pairs to check
+   * @param scenario
+   *          <code>Scenario</code> that contains all scenario-dependent LOS
+   *          information
+   * @return the result of each query, in the order of the queries
+   */
+  public LOSQueryResults LOS(List<LOSQuery> queries, Scenario scenario) {
+
+    final LOSQuery[] q = queries.toArray(new LOSQuery[queries.size()]);
+    final LOSQueryResults results = new LOSQueryResults(q.length);
+    if (q.length == 0) {
+      return results;
+    }
+
+    // query indexes with the same source, and the same target, next to each other
+    final Integer[] order = new Integer[q.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        final LOSQuery qa = q[a];
+        final LOSQuery qb = q[b];
+        int c = Integer.compare(System.identityHashCode(qa.getSource()), System.identityHashCode(qb.getSource()));
+        if (c == 0) {
+          c = Boolean.compare(qa.getUseAuxSourceLOSPoint(), qb.getUseAuxSourceLOSPoint());
+        }
+        if (c == 0) {
+          c = Integer.compare(System.identityHashCode(qa.getTarget()), System.identityHashCode(qb.getTarget()));
+        }
+        if (c == 0) {
+          c = Boolean.compare(qa.getUseAuxTargetLOSPoint(), qb.getUseAuxTargetLOSPoint());
+        }
+        return c;
+      }
+    });
+
+    ConcurrentLinkedQueue<LOSResult> losResults = batchResults;
+    if (losResults == null) {
+      losResults = new ConcurrentLinkedQueue<LOSResult>();
+      batchResults = losResults;
+    }
+    ForkJoinPool.commonPool().invoke(new BatchTask(q, order, losResults, scenario, results, 0, order.length));
+    return results;
+  }
+
+  // checks the LOS for a range of the sorted queries
+  private class BatchTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    // queries handled by a single worker
+    private static final int QUERIES_PER_TASK = 64;
+
+    private LOSQuery[] queries;
+    private Integer[] order;
+    private ConcurrentLinkedQueue<LOSResult> losResults;
+    private Scenario scenario;
+    private LOSQueryResults results;
+    private int first;
+    private int last;
+
+    BatchTask(LOSQuery[] queries, Integer[] order, ConcurrentLinkedQueue<LOSResult> losResults, Scenario scenario,
+        LOSQueryResults results, int first, int last) {
+
+      this.queries = queries;
+      this.order = order;
+      this.losResults = losResults;
+      this.scenario = scenario;
+      this.results = results;
+      this.first = first;
+      this.last = last;
+    }
+
+    protected void compute() {
+
+      if (last - first > QUERIES_PER_TASK) {
+
+        // split between sources where there is one near the middle
+        int middle = (first + last) / 2;
+        int split = middle;
+        while (split < last && split - middle < QUERIES_PER_TASK / 2
+            && queries[order[split]].sameSource(queries[order[split - 1]])) {
+          split++;
+        }
+        if (split == last || split - middle == QUERIES_PER_TASK / 2) {
+          split = middle;
+        }
+        invokeAll(new BatchTask(queries, order, losResults, scenario, results, first, split),
+            new BatchTask(queries, order, losResults, scenario, results, split, last));
+        return;
+      }
+
+      LOSResult result = losResults.poll();
+      if (result == null) {
+        result = createLOSResult();
+      }
+      try {
+        LOSQuery previous = null;
+        List<Smoke> sourceSmoke = null;
+        for (int i = first; i < last; i++) {
+
+          LOSQuery query = queries[order[i]];
+          if (previous != null && query.sameCheck(previous)) {
+            results.copy(order[i - 1], order[i]);
+            continue;
+          }
+          if (previous == null || !query.sameSource(previous)) {
+            sourceSmoke = getHexSmoke(query.getSource().getHex(), scenario);
+          }
+
+          computeLOS(query.getSource(), query.getUseAuxSourceLOSPoint(), query.getTarget(),
+              query.getUseAuxTargetLOSPoint(), result, scenario, sourceSmoke);
+          results.set(order[i], result, range(query.getSource().getHex(), query.getTarget().getHex()));
+          previous = query;
+        }
+      }
+      finally {
+        losResults.offer(result);
+      }
+    }
+  }
+
+  /**
+   * Called after the terrain within an area of the map has changed.
+   * 
+   * @param area
+   *          the changed area, or null if the whole map may have changed
+   */
+  protected void terrainChanged(Rectangle area) {
+
+    obstacleSummary = null;
+
+    final LOSCache cache = losCache;
+    if (cache == null) {
+      return;
+    }
+
+    if (area == null) {
+      cache.clear();
+    }
+    else {
+      Iterator iter = intersectedHexes(area).iterator();
+      while (iter.hasNext()) {
+        cache.invalidate((Hex) iter.next());
+      }
+    }
+  }
+
+  /**
+   * Freezes the terrain and smoke of the map once its boards are in place.
+   * Any number of threads may then check LOS on the map at once. Terrain and
+   * smoke that change during a game, such as rubble, belong to the
+   * <code>Scenario</code> passed to <code>LOS</code>; a new scenario starts
+   * from the board terrain again.
+   */
+  public void freeze() {
+
+    frozen = true;
+
+    // built now rather than by the first LOS check
+    getObstacleSummary();
+  }
+
+  public boolean isFrozen() {
+
+    return frozen;
+  }
+
+  private void checkNotFrozen() {
+
+    if (frozen) {
+      throw new IllegalStateException("The map is frozen; change the scenario instead");
+    }
+  }
+
+  /**
+   * Called after the terrain of a single pixel has changed.
+   */
+  protected void terrainChanged(int x, int y) {
+
+    obstacleSummary = null;
+
+    final LOSCache cache = losCache;
+    if (cache != null) {
+      cache.invalidate(gridToHex(x, y));
+    }
+  }
+
+  /**
+   * Called after the terrain of a hex has changed.
+   */
+  protected void terrainChanged(Hex h) {
+
+    final LOSCache cache = losCache;
+    if (cache != null) {
+      cache.invalidate(h);
+    }
+  }
+
+  /**
+   * Returns the obstacle summary of the terrain grid, building it if
+   * necessary. It is discarded whenever the terrain or ground level of any
+   * pixel changes.
+   * 
+   * @return the summary, or null if the pixel-to-hex lookup table is not
+   *         available
+   */
+  private ObstacleSummary getObstacleSummary() {
+
+    ObstacleSummary summary = obstacleSummary;
+    if (summary == null) {
+
+      final char[] lookup = getHexLookupTable();
+      if (lookup == null) {
+        return null;
+      }
+
+      synchronized (this) {
+
+        summary = obstacleSummary;
+        if (summary == null) {
+          summary = new ObstacleSummary(this, lookup);
+          obstacleSummary = summary;
+        }
+      }
+    }
+    return summary;
+  }
+
+  // smoke has been added or removed
+  private void smokeChanged(Smoke s) {
+
+    final LOSCache cache = losCache;
+    if (cache != null && s.getLocation() != null) {
+      cache.invalidate(s.getLocation().getHex());
+    }
+  }
+
   /**
    * Determines if a line-of-sight exists between two locations. The auxillary
    * LOS points are used for bypass locations. Standard LOS is drawn to the
@@ -1594,6 +2201,30 @@ public class GameMap extends Map implements Serializable {
   public void LOS(Location source, boolean useAuxSourceLOSPoint, Location target, boolean useAuxTargetLOSPoint,
       LOSResult result, Scenario scenario) {
 
+    final LOSCache cache = losCache;
+    if (cache == null) {
+
+      computeLOS(source, useAuxSourceLOSPoint, target, useAuxTargetLOSPoint, result, scenario);
+    }
+    else if (!cache.get(source, useAuxSourceLOSPoint, target, useAuxTargetLOSPoint, result, scenario)) {
+
+      computeLOS(source, useAuxSourceLOSPoint, target, useAuxTargetLOSPoint, result, scenario);
+      cache.put(source, useAuxSourceLOSPoint, target, useAuxTargetLOSPoint, result, scenario);
+    }
+  }
+
+  // the uncached LOS check
+  private void computeLOS(Location source, boolean useAuxSourceLOSPoint, Location target,
+      boolean useAuxTargetLOSPoint, LOSResult result, Scenario scenario) {
+
+    computeLOS(source, useAuxSourceLOSPoint, target, useAuxTargetLOSPoint, result, scenario,
+        getHexSmoke(source.getHex(), scenario));
+  }
+
+  // the uncached LOS check, given the smoke in the source hex
+  private void computeLOS(Location source, boolean useAuxSourceLOSPoint, Location target,
+      boolean useAuxTargetLOSPoint, LOSResult result, Scenario scenario, List<Smoke> sourceSmoke) {
+
     // reset the results
     result.setClear();
     result.setSourceLocation(source);
@@ -1612,7 +2243,7 @@ public class GameMap extends Map implements Serializable {
     }
 
     // in tunnel location?
-    if (source.getTerrain().isTunnelTerrain() && source.getUpLocation() != target) {
+    if (source.getTerrain(scenario).isTunnelTerrain() && source.getUpLocation() != target) {
 
       result.setBlocked((int) source.getLOSPoint().getX(), (int) source.getLOSPoint().getY(),
           "Units in tunnel/sewer can only see the exit location");
@@ -1620,16 +2251,15 @@ public class GameMap extends Map implements Serializable {
     }
 
     // check for smoke in source hex here
-    HashSet hexSmoke = getAllSmoke(source.getHex());
-    if (hexSmoke != null && hexSmoke.size() > 0) {
+    List<Smoke> hexSmoke = sourceSmoke;
+    if (hexSmoke.size() > 0) {
 
       Smoke s = null;
 
       // step through all smoke counters in the source hex
-      Iterator iter = hexSmoke.iterator();
-      while (iter.hasNext()) {
+      for (int i = 0; i < hexSmoke.size(); i++) {
 
-        s = (Smoke) iter.next();
+        s = hexSmoke.get(i);
 
         if ((source.getAbsoluteHeight() >= s.getLocation().getAbsoluteHeight() && source.getAbsoluteHeight() < s
             .getLocation().getAbsoluteHeight()
@@ -1667,7 +2297,7 @@ public class GameMap extends Map implements Serializable {
 
         // if both locations are building, ensure difference in levels is <= 1
         // and stairway
-        if (source.getTerrain().isBuildingTerrain() && target.getTerrain().isBuildingTerrain()) {
+        if (source.getTerrain(scenario).isBuildingTerrain() && target.getTerrain(scenario).isBuildingTerrain()) {
           if (Math.abs(source.getBaseHeight() - target.getBaseHeight()) > 1 || !source.getHex().hasStairway()) {
 
             result.setBlocked((int) source.getLOSPoint().getX(), (int) source.getLOSPoint().getY(),
@@ -1677,8 +2307,8 @@ public class GameMap extends Map implements Serializable {
         }
 
         // source on a bridge and target under bridge, etc?
-        if ((source.getTerrain().isBridge() && target.isCenterLocation())
-            || (target.getTerrain().isBridge() && source.isCenterLocation())) {
+        if ((source.getTerrain(scenario).isBridge() && target.isCenterLocation())
+            || (target.getTerrain(scenario).isBridge() && source.isCenterLocation())) {
 
           result.setBlocked((int) source.getLOSPoint().getX(), (int) source.getLOSPoint().getY(),
               "Cannot see location under the bridge");
@@ -1761,7 +2391,7 @@ public class GameMap extends Map implements Serializable {
     Bridge bridge = null;
 
     boolean continuousSlope = true;
-    boolean LOSLeavesBuilding = !sourceHex.getTerrain().isBuildingTerrain();
+    boolean LOSLeavesBuilding = !sourceHex.getCenterLocation().getTerrain(scenario).isBuildingTerrain();
 
     // "rise" per grid column
     deltaY = ((double) targetY - (double) sourceY) / (double) numCols;
@@ -1861,6 +2491,19 @@ public class GameMap extends Map implements Serializable {
 
     int counter = 0;
 
+    // Terrain that cannot block or hinder the LOS can be passed over once the
+    // LOS has entered its hex (see ObstacleSummary and getClearHeight). Bridge
+    // hexes, the source and target hexes and their neighbours, and hexes with
+    // terrain changed by the scenario are walked pixel by pixel, and so are
+    // hexside and depression LOS, whose checks are too involved.
+    final ObstacleSummary summary = LOSisHorizontal || LOSis60Degree ? null : getObstacleSummary();
+    final Rectangle sourceBounds = summary == null ? null : sourceHex.getExtendedHexBorder().getBounds();
+    final Rectangle targetBounds = summary == null ? null : targetHex.getExtendedHexBorder().getBounds();
+    final boolean scenarioTerrain = scenario != null && scenario.hasTerrainChanges();
+    int currentHexIndex = -1;
+    int clearHeight = 0;
+    boolean hexClear = false;
+
     // step through each pixel column
     int currentCol = sourceX;
     for (int col = 0; col < numCols; col++) {
@@ -1872,11 +2515,33 @@ public class GameMap extends Map implements Serializable {
       // step through each pixel in the current row
       for (int row = 0; row < numRows; row++) {
 
+        // pass over clear terrain in the current hex
+        if (currentHexIndex >= 0 && LOSLeavesBuilding && !exitsSourceDepression && !entersTargetDepression) {
+
+          if (hexClear) {
+
+            // on to the pixel where the LOS leaves the hex
+            while (row < numRows && summary.inHex(currentCol, currentRow, currentHexIndex)) {
+              currentRow += rowDir;
+              row++;
+            }
+            if (row == numRows) {
+              break;
+            }
+          }
+          else if (summary.inHex(currentCol, currentRow, currentHexIndex)
+              && summary.isBlockClear(currentCol, currentRow, clearHeight)) {
+
+            currentRow += rowDir;
+            continue;
+          }
+        }
+
         // adjust our variables for the new spot
         previousTerrain = currentTerrain;
         previousGroundLevel = groundLevel;
         try {
-          currentTerrain = getGridTerrain(currentCol, currentRow);
+          currentTerrain = getGridTerrain(currentCol, currentRow, scenario);
         }
         catch (Exception e) {
           System.err.println("LOS is off the map at " + currentCol + ", " + currentRow);
@@ -1918,26 +2583,26 @@ public class GameMap extends Map implements Serializable {
 
           if (LOSisHorizontal) {
 
-            if (currentTerrain.isInherentTerrain() && tempHex.getCenterLocation().getTerrain().isInherentTerrain()) {
+            if (currentTerrain.isInherentTerrain() && tempHex.getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
             }
             else if (currentRow != 0
-                && gridToHex(currentCol, currentRow - 1).getCenterLocation().getTerrain().isInherentTerrain()) {
+                && gridToHex(currentCol, currentRow - 1).getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
               hindranceHex = gridToHex(currentCol, currentRow - 1);
-              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain().getType()];
+              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain(scenario).getType()];
             }
             else if (currentRow != gridHeight
-                && gridToHex(currentCol, currentRow + 1).getCenterLocation().getTerrain().isInherentTerrain()) {
+                && gridToHex(currentCol, currentRow + 1).getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
               hindranceHex = gridToHex(currentCol, currentRow + 1);
-              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain().getType()];
+              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain(scenario).getType()];
             }
             else if (currentTerrain.isInherentTerrain()
-                && !tempHex.getCenterLocation().getTerrain().isInherentTerrain()) {
-              if (tempHex.getCenterLocation().getTerrain().isInherentTerrain()) {
+                && !tempHex.getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
+              if (tempHex.getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
-                currentTerrain = terrainList[tempHex.getCenterLocation().getTerrain().getType()];
+                currentTerrain = terrainList[tempHex.getCenterLocation().getTerrain(scenario).getType()];
               }
               else {
                 currentTerrain = terrainList[Terrain.OPEN_GROUND];
@@ -1946,38 +2611,38 @@ public class GameMap extends Map implements Serializable {
           }
           else if (LOSis60Degree) {
 
-            if (currentTerrain.isInherentTerrain() && tempHex.getCenterLocation().getTerrain().isInherentTerrain()) {
+            if (currentTerrain.isInherentTerrain() && tempHex.getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
             }
             else if (currentCol != 0 && currentRow != 0
-                && gridToHex(currentCol - 1, currentRow - 1).getCenterLocation().getTerrain().isInherentTerrain()) {
+                && gridToHex(currentCol - 1, currentRow - 1).getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
               hindranceHex = gridToHex(currentCol - 1, currentRow - 1);
-              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain().getType()];
+              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain(scenario).getType()];
             }
             else if (currentCol != gridWidth && currentRow != gridHeight
-                && gridToHex(currentCol + 1, currentRow + 1).getCenterLocation().getTerrain().isInherentTerrain()) {
+                && gridToHex(currentCol + 1, currentRow + 1).getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
               hindranceHex = gridToHex(currentCol + 1, currentRow + 1);
-              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain().getType()];
+              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain(scenario).getType()];
             }
             else if (currentCol != 0 && currentRow != gridHeight
-                && gridToHex(currentCol - 1, currentRow + 1).getCenterLocation().getTerrain().isInherentTerrain()) {
+                && gridToHex(currentCol - 1, currentRow + 1).getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
               hindranceHex = gridToHex(currentCol - 1, currentRow + 1);
-              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain().getType()];
+              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain(scenario).getType()];
             }
             else if (currentCol != gridWidth && currentRow != 0
-                && gridToHex(currentCol + 1, currentRow - 1).getCenterLocation().getTerrain().isInherentTerrain()) {
+                && gridToHex(currentCol + 1, currentRow - 1).getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
               hindranceHex = gridToHex(currentCol + 1, currentRow - 1);
-              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain().getType()];
+              currentTerrain = terrainList[hindranceHex.getCenterLocation().getTerrain(scenario).getType()];
             }
             else if (currentTerrain.isInherentTerrain()
-                && !tempHex.getCenterLocation().getTerrain().isInherentTerrain()) {
-              if (tempHex.getCenterLocation().getTerrain().isInherentTerrain()) {
+                && !tempHex.getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
+              if (tempHex.getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
-                currentTerrain = terrainList[tempHex.getCenterLocation().getTerrain().getType()];
+                currentTerrain = terrainList[tempHex.getCenterLocation().getTerrain(scenario).getType()];
               }
               else {
                 currentTerrain = terrainList[Terrain.OPEN_GROUND];
@@ -1985,10 +2650,10 @@ public class GameMap extends Map implements Serializable {
             }
           }
         }
-        else if (currentTerrain.isInherentTerrain() && !tempHex.getCenterLocation().getTerrain().isInherentTerrain()) {
-          if (tempHex.getCenterLocation().getTerrain().isInherentTerrain()) {
+        else if (currentTerrain.isInherentTerrain() && !tempHex.getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
+          if (tempHex.getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
-            currentTerrain = terrainList[tempHex.getCenterLocation().getTerrain().getType()];
+            currentTerrain = terrainList[tempHex.getCenterLocation().getTerrain(scenario).getType()];
           }
           else {
 
@@ -2010,6 +2675,20 @@ public class GameMap extends Map implements Serializable {
           rangeToSource = range(currentHex, sourceHex);
           rangeToTarget = range(currentHex, targetHex);
 
+          // can terrain in this hex be passed over?
+          currentHexIndex = -1;
+          if (summary != null && currentHex != sourceHex && currentHex != targetHex && !currentHex.hasBridge()) {
+
+            Rectangle bounds = currentHex.getExtendedHexBorder().getBounds();
+            if (!bounds.intersects(sourceBounds) && !bounds.intersects(targetBounds)
+                && (!scenarioTerrain || !scenario.changesTerrainWithin(bounds))) {
+
+              currentHexIndex = getHexIndex(currentHex);
+              clearHeight = getClearHeight(sourceElevation, targetElevation, rangeToSource, rangeToTarget);
+              hexClear = summary.isHexClear(currentHexIndex, clearHeight);
+            }
+          }
+
           // add the current hex
           result.addHex(currentHex);
 
@@ -2019,27 +2698,27 @@ public class GameMap extends Map implements Serializable {
           // get the vehicle hindrances
           //if LOS on hex side, use the hex that has the most vehicles
           if ((LOSisHorizontal || LOSis60Degree) && sourceElevation == targetElevation) {
-            int numVeh = scenario.getVehicles(vehicleHex, sourceElevation).size();
+            int numVeh = scenario.getVehicleCount(vehicleHex, sourceElevation);
             if (currentRow != 0
-                && scenario.getVehicles(gridToHex(currentCol, currentRow - 1), sourceElevation).size() > numVeh) {
+                && scenario.getVehicleCount(gridToHex(currentCol, currentRow - 1), sourceElevation) > numVeh) {
 
               vehicleHex = gridToHex(currentCol, currentRow - 1);
-              numVeh = scenario.getVehicles(vehicleHex).size();
+              numVeh = scenario.getVehicleCount(vehicleHex);
             }
             if (currentRow != gridHeight
-                && scenario.getVehicles(gridToHex(currentCol, currentRow + 1), sourceElevation).size() > numVeh) {
+                && scenario.getVehicleCount(gridToHex(currentCol, currentRow + 1), sourceElevation) > numVeh) {
 
               vehicleHex = gridToHex(currentCol, currentRow + 1);
-              numVeh = scenario.getVehicles(vehicleHex).size();
+              numVeh = scenario.getVehicleCount(vehicleHex);
             }
             if (LOSis60Degree && currentCol != 0 && currentRow != gridHeight
-                && scenario.getVehicles(gridToHex(currentCol - 1, currentRow + 1), sourceElevation).size() > numVeh) {
+                && scenario.getVehicleCount(gridToHex(currentCol - 1, currentRow + 1), sourceElevation) > numVeh) {
 
               vehicleHex = gridToHex(currentCol - 1, currentRow + 1);
-              numVeh = scenario.getVehicles(vehicleHex).size();
+              numVeh = scenario.getVehicleCount(vehicleHex);
             }
             if (LOSis60Degree && currentCol != gridWidth && currentRow != 0
-                && scenario.getVehicles(gridToHex(currentCol + 1, currentRow - 1), sourceElevation).size() > numVeh) {
+                && scenario.getVehicleCount(gridToHex(currentCol + 1, currentRow - 1), sourceElevation) > numVeh) {
 
               vehicleHex = gridToHex(currentCol + 1, currentRow - 1);
             }
@@ -2049,15 +2728,18 @@ public class GameMap extends Map implements Serializable {
           if (vehicleHex != sourceHex && vehicleHex != targetHex
               && source.getAbsoluteHeight() == target.getAbsoluteHeight()) {
 
-            Iterator vehicles = scenario.getVehicles(vehicleHex).iterator();
+            List<Unit> units = scenario.getHexUnits(vehicleHex);
             Vehicle v;
-            while (vehicles.hasNext()) {
+            for (int i = 0; i < units.size(); i++) {
 
-              v = (Vehicle) vehicles.next();
+              if (!units.get(i).isVehicle()) {
+                continue;
+              }
+              v = (Vehicle) units.get(i);
 
               // see if a LOS exists to the vehicle
-              LOSResult res1 = new LOSResult();
-              LOSResult res2 = new LOSResult();
+              LOSResult res1 = result.getVehicleCheckResult(0);
+              LOSResult res2 = result.getVehicleCheckResult(1);
               LOS(source, useAuxSourceLOSPoint, v.getLocation(), false, res1, scenario);
               LOS(target, useAuxTargetLOSPoint, v.getLocation(), false, res2, scenario);
 
@@ -2097,18 +2779,18 @@ public class GameMap extends Map implements Serializable {
           }
 
           // hex has smoke, or LOS on hexside and adjacent hex has smoke?
-          HashSet hexSmoke = getAllSmoke(currentHex);
+          List<Smoke> hexSmoke = getHexSmoke(currentHex, scenario);
           if (hexSmoke.size() == 0) {
 
             if (LOSisHorizontal) {
 
               if (currentRow != 0) {
 
-                hexSmoke = getAllSmoke(gridToHex(currentCol, currentRow - 1));
+                hexSmoke = getHexSmoke(gridToHex(currentCol, currentRow - 1), scenario);
               }
               if (hexSmoke.size() == 0 && currentRow != gridHeight) {
 
-                hexSmoke = getAllSmoke(gridToHex(currentCol, currentRow + 1));
+                hexSmoke = getHexSmoke(gridToHex(currentCol, currentRow + 1), scenario);
               }
             }
 
@@ -2116,34 +2798,33 @@ public class GameMap extends Map implements Serializable {
 
               if (currentCol != 0 && currentRow != 0) {
 
-                hexSmoke = getAllSmoke(gridToHex(currentCol - 1, currentRow - 1));
+                hexSmoke = getHexSmoke(gridToHex(currentCol - 1, currentRow - 1), scenario);
               }
               if (hexSmoke.size() == 0 && currentCol != gridWidth && currentRow != gridHeight) {
 
-                hexSmoke = getAllSmoke(gridToHex(currentCol + 1, currentRow + 1));
+                hexSmoke = getHexSmoke(gridToHex(currentCol + 1, currentRow + 1), scenario);
               }
               if (hexSmoke.size() == 0 && currentCol != 0 && currentRow != gridHeight
-                  && gridToHex(currentCol - 1, currentRow + 1).getCenterLocation().getTerrain().isInherentTerrain()) {
+                  && gridToHex(currentCol - 1, currentRow + 1).getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
-                hexSmoke = getAllSmoke(gridToHex(currentCol - 1, currentRow + 1));
+                hexSmoke = getHexSmoke(gridToHex(currentCol - 1, currentRow + 1), scenario);
               }
               if (hexSmoke.size() == 0 && currentCol != gridWidth && currentRow != 0
-                  && gridToHex(currentCol + 1, currentRow - 1).getCenterLocation().getTerrain().isInherentTerrain()) {
+                  && gridToHex(currentCol + 1, currentRow - 1).getCenterLocation().getTerrain(scenario).isInherentTerrain()) {
 
-                hexSmoke = getAllSmoke(gridToHex(currentCol + 1, currentRow - 1));
+                hexSmoke = getHexSmoke(gridToHex(currentCol + 1, currentRow - 1), scenario);
               }
             }
           }
 
-          if (hexSmoke != null && hexSmoke.size() > 0) {
+          if (hexSmoke.size() > 0) {
 
             Smoke s = null;
 
             // step through all smoke counters in the hex
-            Iterator iter = hexSmoke.iterator();
-            while (iter.hasNext()) {
+            for (int i = 0; i < hexSmoke.size(); i++) {
 
-              s = (Smoke) iter.next();
+              s = hexSmoke.get(i);
 
               // in target hex
               if ((currentHex == targetHex && target.getAbsoluteHeight() >= s.getLocation().getAbsoluteHeight() && target
@@ -2224,7 +2905,7 @@ public class GameMap extends Map implements Serializable {
          **********************************************************************/
         // blocked LOS leaving a building?
         if (!LOSLeavesBuilding && currentHex != sourceHex && currentTerrain.isBuildingTerrain()
-            && target.getTerrain().isBuildingTerrain() && sourceElevation != targetElevation
+            && target.getTerrain(scenario).isBuildingTerrain() && sourceElevation != targetElevation
             && groundLevel + currentTerrainHgt >= sourceElevation) {
           reason = LOS_err_A6_8;
           blocked = true;
@@ -2269,7 +2950,7 @@ public class GameMap extends Map implements Serializable {
           else {
 
             // target elevation must > source if in entrenchment
-            if (source.getTerrain().isEntrenchmentTerrain()) {
+            if (source.getTerrain(scenario).isEntrenchmentTerrain()) {
 
               if (range > 1 && targetElevation <= sourceElevation) {
 
@@ -2277,7 +2958,7 @@ public class GameMap extends Map implements Serializable {
                 reason = LOS_err_B27_2_1;
               }
             }
-            else if (target.getTerrain().isEntrenchmentTerrain()) {
+            else if (target.getTerrain(scenario).isEntrenchmentTerrain()) {
 
               if (range > 1 && targetElevation >= sourceElevation) {
 
@@ -2436,10 +3117,10 @@ public class GameMap extends Map implements Serializable {
             // at a target in the water obstacle. We can ignore the bit of open
             // ground that extends into
             // the first water hex.
-            if (!(currentHex.getCenterLocation().getTerrain().isWaterTerrain() && currentTerrain.getHeight() < 1 && ((rangeToSource == 1
-                && sourceElevation > targetElevation && target.getHex().getCenterLocation().getTerrain()
+            if (!(currentHex.getCenterLocation().getTerrain(scenario).isWaterTerrain() && currentTerrain.getHeight() < 1 && ((rangeToSource == 1
+                && sourceElevation > targetElevation && target.getHex().getCenterLocation().getTerrain(scenario)
                 .isWaterTerrain()) || (rangeToTarget == 1 && targetElevation > sourceElevation && source.getHex()
-                .getCenterLocation().getTerrain().isWaterTerrain())))) {
+                .getCenterLocation().getTerrain(scenario).isWaterTerrain())))) {
 
               // if orchard, then hindrance
               if (currentTerrain.getType() == Terrain.ORCHARD_OUT_OF_SEASON) {
@@ -2533,6 +3214,38 @@ public class GameMap extends Map implements Serializable {
     result.setContinuousSlope(continuousSlope);
   }
 
+  /**
+   * Returns the height, in levels, up to which terrain in a hex between the
+   * source and target can neither block nor hinder the LOS. That is the
+   * lower of the two elevations, or higher where the sight line over the hex
+   * is higher and terrain below it creates no blind hex (A6.4). Terrain is
+   * only measured against this height if it is not a hindrance, edge,
+   * depression, split or half level terrain.
+   * 
+   * @param sourceElevation
+   *          elevation of the source location
+   * @param targetElevation
+   *          elevation of the target location
+   * @param rangeToSource
+   *          range from the hex to the source
+   * @param rangeToTarget
+   *          range from the hex to the target
+   * @return the clear height
+   */
+  protected int getClearHeight(int sourceElevation, int targetElevation, int rangeToSource, int rangeToTarget) {
+
+    int height = Math.min(sourceElevation, targetElevation);
+    int higher = Math.max(sourceElevation, targetElevation);
+
+    // blind hexes are measured as for a cliff, which makes more of them than a
+    // crest line does, and more the higher the terrain
+    while (height + 1 < higher
+        && !isBlindHex(sourceElevation, targetElevation, rangeToSource, rangeToTarget, height + 1, 0, null, null, true)) {
+      height++;
+    }
+    return height;
+  }
+
   // nearest location is a cliff?
   private boolean nearestHexsideIsCliff(int x, int y) {
 
@@ -3050,7 +3763,12 @@ public class GameMap extends Map implements Serializable {
    */
   public void addSmoke(Smoke s) {
 
-    smokeList.add(s);
+    checkNotFrozen();
+
+    if (smokeList.add(s)) {
+      indexSmoke(s);
+    }
+    smokeChanged(s);
   }
 
   /**
@@ -3061,6 +3779,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void removeSmoke(Location l) {
 
+    checkNotFrozen();
+
     Smoke s = null;
 
     // step through all locations
@@ -3072,6 +3792,8 @@ public class GameMap extends Map implements Serializable {
       if (s.getLocation() == l) {
 
         iter.remove();
+        unindexSmoke(s);
+        smokeChanged(s);
       }
     }
   }
@@ -3084,6 +3806,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void removeSmoke(Hex h) {
 
+    checkNotFrozen();
+
     Smoke s = null;
 
     // step through all locations
@@ -3095,6 +3819,8 @@ public class GameMap extends Map implements Serializable {
       if (s.getLocation().getHex() == h) {
 
         iter.remove();
+        unindexSmoke(s);
+        smokeChanged(s);
       }
     }
   }
@@ -3107,6 +3833,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void removeSmoke(Smoke s) {
 
+    checkNotFrozen();
+
     Smoke sl = null;
 
     // step through all smoke objects
@@ -3118,6 +3846,8 @@ public class GameMap extends Map implements Serializable {
       if (sl == s) {
 
         iter.remove();
+        unindexSmoke(s);
+        smokeChanged(s);
       }
     }
   }
@@ -3127,13 +3857,17 @@ public class GameMap extends Map implements Serializable {
    */
   public void removeAllSmoke() {
 
+    checkNotFrozen();
+
     // step through all locations
     Iterator iter = smokeList.iterator();
     while (iter.hasNext()) {
 
       Smoke s = (Smoke) iter.next();
       iter.remove();
+      smokeChanged(s);
     }
+    smokeIndex = null;
   }
 
   /**
@@ -3153,20 +3887,112 @@ public class GameMap extends Map implements Serializable {
    */
   public HashSet<Smoke> getAllSmoke(Hex h) {
 
-    // step through all smoke locations
-    HashSet<Smoke> allSmoke = new HashSet<Smoke>(smokeList.size());
-    Iterator<Smoke> iter = smokeList.iterator();
-    Smoke sl = null;
-    while (iter.hasNext()) {
+    return new HashSet<Smoke>(getHexSmoke(h));
+  }
 
-      sl = (Smoke) iter.next();
+  /**
+   * Returns the smoke objects in a hex without copying them. The list belongs
+   * to the map and must not be modified or held on to across smoke changes.
+   * 
+   * @return List containing the smoke objects in the hex; empty if none
+   */
+  public List<Smoke> getHexSmoke(Hex h) {
+
+    if (h == null || h.getMap() != this || smokeList.isEmpty()) {
+      return NO_SMOKE;
+    }
+
+    final List<Smoke> smoke = getSmokeIndex()[getHexIndex(h)];
+    return smoke == null ? NO_SMOKE : smoke;
+  }
+
+  // the smoke in a hex on the map and in the scenario
+  private List<Smoke> getHexSmoke(Hex h, Scenario scenario) {
+
+    final List<Smoke> smoke = getHexSmoke(h);
+    final List<Smoke> scenarioSmoke = scenario == null ? NO_SMOKE : scenario.getHexSmoke(h);
+    if (scenarioSmoke.isEmpty()) {
+      return smoke;
+    }
+    if (smoke.isEmpty()) {
+      return scenarioSmoke;
+    }
+
+    final ArrayList<Smoke> all = new ArrayList<Smoke>(smoke.size() + scenarioSmoke.size());
+    all.addAll(smoke);
+    all.addAll(scenarioSmoke);
+    return all;
+  }
+
+  /**
+   * Returns the smoke index, building it from the smoke list if necessary.
+   * Entries are null for hexes that have never held smoke.
+   */
+  private ArrayList<Smoke>[] getSmokeIndex() {
 
-      if (sl.getLocation().getHex() == h) {
-        allSmoke.add(sl);
+    ArrayList<Smoke>[] index = smokeIndex;
+    if (index == null) {
+
+      synchronized (this) {
+
+        index = smokeIndex;
+        if (index == null) {
+
+          index = newSmokeIndex();
+          Iterator iter = smokeList.iterator();
+          while (iter.hasNext()) {
+            addToSmokeIndex(index, (Smoke) iter.next());
+          }
+          smokeIndex = index;
+        }
       }
     }
+    return index;
+  }
+
+  @SuppressWarnings("unchecked")
+  private ArrayList<Smoke>[] newSmokeIndex() {
 
-    return allSmoke;
+    return new ArrayList[getHexCount()];
+  }
+
+  // keep the smoke index, if built, in step with the smoke list
+  private void indexSmoke(Smoke s) {
+
+    final ArrayList<Smoke>[] index = smokeIndex;
+    if (index != null) {
+      addToSmokeIndex(index, s);
+    }
+  }
+
+  private void unindexSmoke(Smoke s) {
+
+    final ArrayList<Smoke>[] index = smokeIndex;
+    if (index != null && isIndexed(s)) {
+
+      final ArrayList<Smoke> smoke = index[getHexIndex(s.getLocation().getHex())];
+      if (smoke != null) {
+        smoke.remove(s);
+      }
+    }
+  }
+
+  private void addToSmokeIndex(ArrayList<Smoke>[] index, Smoke s) {
+
+    if (isIndexed(s)) {
+
+      final int i = getHexIndex(s.getLocation().getHex());
+      if (index[i] == null) {
+        index[i] = new ArrayList<Smoke>(2);
+      }
+      index[i].add(s);
+    }
+  }
+
+  // only smoke in a hex of this map can be found by getHexSmoke
+  private boolean isIndexed(Smoke s) {
+
+    return s.getLocation() != null && s.getLocation().getHex().getMap() == this;
   }
 
   /**
@@ -3176,6 +4002,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void addPrefabBuilding(PrefabBuilding building) {
 
+    checkNotFrozen();
+
     prefabBuildingList.add(building);
   }
 
@@ -3186,6 +4014,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void removePrefabBuilding(PrefabBuilding building) {
 
+    checkNotFrozen();
+
     prefabBuildingList.remove(building);
   }
 
@@ -3196,6 +4026,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void removePrefabBuilding(Hex h) {
 
+    checkNotFrozen();
+
     HashSet temp = new HashSet(5);
 
     if (prefabBuildingList.size() > 0) {
@@ -3230,6 +4062,8 @@ public class GameMap extends Map implements Serializable {
    */
   public boolean changeAllTerrain(Terrain fromTerrain, Terrain toTerrain) {
 
+    checkNotFrozen();
+
     return changeAllTerrain(fromTerrain, toTerrain, new Rectangle(0, 0, gridWidth, gridHeight));
   }
 
@@ -3242,6 +4076,8 @@ public class GameMap extends Map implements Serializable {
    */
   public boolean changeAllTerrain(Terrain fromTerrain, Terrain toTerrain, Shape s) {
 
+    checkNotFrozen();
+
     char fromTerrainType = (char) fromTerrain.getType();
     char toTerrainType = (char) toTerrain.getType();
 
@@ -3270,6 +4106,10 @@ public class GameMap extends Map implements Serializable {
       }
     }
 
+    if (changed) {
+      terrainChanged(s.getBounds());
+    }
+
     return changed;
   }
 
@@ -3281,6 +4121,8 @@ public class GameMap extends Map implements Serializable {
    */
   public boolean changeAllGroundLevel(int fromElevation, int toElevation) {
 
+    checkNotFrozen();
+
     return changeAllGroundLevel(fromElevation, toElevation, new Rectangle(0, 0, gridWidth, gridHeight));
   }
 
@@ -3293,6 +4135,8 @@ public class GameMap extends Map implements Serializable {
    */
   public boolean changeAllGroundLevel(int fromElevation, int toElevation, Shape s) {
 
+    checkNotFrozen();
+
     boolean changed = false;
 
     // change the map grid
@@ -3318,6 +4162,10 @@ public class GameMap extends Map implements Serializable {
         }
       }
     }
+
+    if (changed) {
+      terrainChanged(s.getBounds());
+    }
     return changed;
   }
 
@@ -3327,6 +4175,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void resetTerrain() {
 
+    checkNotFrozen();
+
     Hex h = null;
     Location l = null;
     Terrain t = null;
@@ -3381,6 +4231,8 @@ public class GameMap extends Map implements Serializable {
         }
       }
     }
+
+    terrainChanged((Rectangle) null);
   }
 
   /**
@@ -3390,6 +4242,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void convertMultiLevelBuildings(VASLMultilevelBuildings buildings) {
 
+    checkNotFrozen();
+
     Hex h = null;
     Location l = null;
     Terrain t = null;
@@ -3419,6 +4273,8 @@ public class GameMap extends Map implements Serializable {
         }
       }
     }
+
+    terrainChanged((Rectangle) null);
   }
 
   /**
@@ -3426,6 +4282,8 @@ public class GameMap extends Map implements Serializable {
    */
   public void flip() {
 
+    checkNotFrozen();
+
     char tchar;
     byte tbyte;
     Location loc1, loc2;
@@ -3482,6 +4340,10 @@ public class GameMap extends Map implements Serializable {
       }
     }
 
+    // hexes have moved
+    invalidateHexLookupTable();
+    terrainChanged((Rectangle) null);
+
     // flip all of the prefab buildings
     Iterator i = prefabBuildingList.iterator();
     while (i.hasNext()) {
@@ -3501,25 +4363,23 @@ public class GameMap extends Map implements Serializable {
    */
   public boolean insertGEOMap(GameMap insertMap, Hex upperLeft) {
 
-    // determine where the upper-left pixel of the inserted map will be
-    int left = upperLeft.getCenterLocation().getLOSPoint().x;
-    int upper = upperLeft.getCenterLocation().getLOSPoint().y - (int) Hex.HEIGHT / 2;
+    checkNotFrozen();
 
-    // ensure the map will fit
-    if (!onMap(left, upper)) {
+    String error = getInsertGEOMapError(insertMap, upperLeft);
+    if (error != null) {
 
-      JOptionPane.showMessageDialog(null, "The left-most corner is off the map", "Map placement error",
-          JOptionPane.ERROR_MESSAGE);
+      if (GraphicsEnvironment.isHeadless()) {
+        System.err.println("Map placement error: " + error);
+      }
+      else {
+        JOptionPane.showMessageDialog(null, error, "Map placement error", JOptionPane.ERROR_MESSAGE);
+      }
       return false;
     }
 
-    // ensure the map will fit
-    if (left + insertMap.getImageWidth() > this.gridWidth || upper + insertMap.getImageHeight() > this.gridHeight) {
-
-      JOptionPane.showMessageDialog(null, "The map is too big to place at " + upperLeft.getName(),
-          "Map placement error", JOptionPane.ERROR_MESSAGE);
-      return false;
-    }
+    // determine where the upper-left pixel of the inserted map will be
+    int left = upperLeft.getCenterLocation().getLOSPoint().x;
+    int upper = upperLeft.getCenterLocation().getLOSPoint().y - (int) Hex.HEIGHT / 2;
 
     // copy the terrain and elevation grids
     for (int x = 0; x < insertMap.gridWidth; x++) {
@@ -3543,9 +4403,37 @@ public class GameMap extends Map implements Serializable {
 
     // add the pre-fab buildings???
 
+    invalidateHexLookupTable();
+    terrainChanged((Rectangle) null);
+
     return true;
   }
 
+  /**
+   * Returns why a geomorphic map cannot be inserted at a hex, or null if it
+   * fits.
+   */
+  public String getInsertGEOMapError(GameMap insertMap, Hex upperLeft) {
+
+    // determine where the upper-left pixel of the inserted map will be
+    int left = upperLeft.getCenterLocation().getLOSPoint().x;
+    int upper = upperLeft.getCenterLocation().getLOSPoint().y - (int) Hex.HEIGHT / 2;
+
+    // ensure the map will fit
+    if (!onMap(left, upper)) {
+
+      return "The left-most corner is off the map";
+    }
+
+    // ensure the map will fit
+    if (left + insertMap.getImageWidth() > this.gridWidth || upper + insertMap.getImageHeight() > this.gridHeight) {
+
+      return "The map is too big to place at " + upperLeft.getName();
+    }
+
+    return null;
+  }
+
   /**
    * Determines if a location is on one of the hexsides for a hex.
    * 
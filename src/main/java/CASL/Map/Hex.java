@@ -23,6 +23,7 @@ import java.awt.Shape;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Title:        Hex.java
@@ -1010,6 +1011,13 @@ public class Hex
 		baseHeight = hgt;
 	}
 
+	// sets the edge values as-is (see MapFile)
+	void setEdgeValues(int side, Terrain terr, boolean cliff) {
+
+		edgeTerrain[side]	= terr;
+		edgeHasCliff[side]	= cliff;
+	}
+
 	// geometric methods
 	public boolean  contains(int x, int y)			{return hexBorder.contains(x, y);}
 	public boolean  containsExtended(int x, int y)	{return extendedHexBorder.contains(x, y);}
@@ -1128,15 +1136,12 @@ public class Hex
 	// get smoke in hex
 	public int getSmokeHindrance(){
 
-		HashSet<Smoke> 	hind 	= map.getAllSmoke(this);
-		Iterator<Smoke> 	iter 	= hind.iterator();
-		Smoke 		s	 	= null;
+		List<Smoke>	hind 	= map.getHexSmoke(this);
 		int			total	= 0;
 
-		while(iter.hasNext()){
+		for (int i = 0; i < hind.size(); i++){
 
-			s = (Smoke) iter.next();
-			total += s.getHindrance();
+			total += hind.get(i).getHindrance();
 		}
 
 		return total;
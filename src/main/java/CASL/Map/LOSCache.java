@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package CASL.Map;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import CASL.Scenario.Scenario;
+import CASL.Unit.Unit;
+
+/**
+ * A bounded, least-recently-used cache of LOS results for a <code>GameMap</code>.
+ * <p>
+ * Entries are keyed by the source/target locations and their aux LOS point
+ * flags. Each entry remembers the hexes the LOS passed through so that a
+ * change to a hex (smoke, vehicles, terrain) only discards the results that
+ * could have seen it. Because the LOS check also looks at hexes adjacent to
+ * the LOS line, a change to a hex discards the entries that passed through
+ * the hex or any of its neighbors.
+ */
+class LOSCache {
+
+	private GameMap	map;
+	private int		maxEntries;
+
+	private LinkedHashMap<Key, Entry>	entries;
+	private HashSet<Key>[]				entriesByHex;
+
+	// scenario the cached results belong to
+	private Scenario	scenario;
+	private int			scenarioChanges;
+
+	private long	hits;
+	private long	misses;
+
+	@SuppressWarnings("unchecked")
+	LOSCache(GameMap map, int maxEntries) {
+
+		this.map		= map;
+		this.maxEntries	= maxEntries;
+
+		entries = new LinkedHashMap<Key, Entry>(Math.min(maxEntries, 1024), 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(java.util.Map.Entry<Key, Entry> eldest) {
+
+				if (size() > LOSCache.this.maxEntries) {
+
+					unindex(eldest.getValue());
+					remove(eldest.getKey());
+				}
+				return false;
+			}
+		};
+		entriesByHex = new HashSet[map.getHexCount()];
+	}
+
+	long	getHits()	{return hits;}
+	long	getMisses()	{return misses;}
+	int		size()		{return entries.size();}
+
+	/**
+	 * Copies a cached result into <code>result</code>.
+	 *
+	 * @return true if the result was found in the cache
+	 */
+	synchronized boolean get(
+		Location source,
+		boolean useAuxSourceLOSPoint,
+		Location target,
+		boolean useAuxTargetLOSPoint,
+		LOSResult result,
+		Scenario scenario) {
+
+		syncScenario(scenario);
+
+		Entry e = entries.get(new Key(source, useAuxSourceLOSPoint, target, useAuxTargetLOSPoint, result.getClass()));
+		if (e == null) {
+
+			misses++;
+			return false;
+		}
+
+		hits++;
+		result.copyFrom(e.result);
+		return true;
+	}
+
+	/**
+	 * Adds a freshly computed result to the cache.
+	 */
+	synchronized void put(
+		Location source,
+		boolean useAuxSourceLOSPoint,
+		Location target,
+		boolean useAuxTargetLOSPoint,
+		LOSResult result,
+		Scenario scenario) {
+
+		// the scenario changed while the LOS was being computed
+		if (scenario != this.scenario) {
+			return;
+		}
+
+		Entry e		= new Entry();
+		e.key		= new Key(source, useAuxSourceLOSPoint, target, useAuxTargetLOSPoint, result.getClass());
+		e.result	= new LOSResult();
+		e.result.copyFrom(result);
+
+		// remember the hexes the LOS depends upon
+		e.hexes = new int[result.getHexCount()];
+		for (int i = 0; i < e.hexes.length; i++) {
+			e.hexes[i] = map.getHexIndex(result.getHex(i));
+		}
+
+		Entry old = entries.put(e.key, e);
+		if (old != null) {
+			unindex(old);
+		}
+		index(e);
+	}
+
+	/**
+	 * Discards the results that could be affected by a change to a hex.
+	 */
+	synchronized void invalidate(Hex h) {
+
+		if (h == null || entries.isEmpty()) {
+			return;
+		}
+
+		invalidateHex(h);
+		for (int side = 0; side < 6; side++) {
+			invalidateHex(map.getAdjacentHex(h, side));
+		}
+	}
+
+	synchronized void clear() {
+
+		entries.clear();
+		for (int i = 0; i < entriesByHex.length; i++) {
+			entriesByHex[i] = null;
+		}
+	}
+
+	// discard the entries that passed through a hex
+	private void invalidateHex(Hex h) {
+
+		if (h == null) {
+			return;
+		}
+
+		HashSet<Key> keys = entriesByHex[map.getHexIndex(h)];
+		if (keys == null || keys.isEmpty()) {
+			return;
+		}
+
+		ArrayList<Key> stale = new ArrayList<Key>(keys);
+		for (int i = 0; i < stale.size(); i++) {
+
+			Entry e = entries.remove(stale.get(i));
+			if (e != null) {
+				unindex(e);
+			}
+		}
+	}
+
+	private void index(Entry e) {
+
+		for (int i = 0; i < e.hexes.length; i++) {
+
+			if (entriesByHex[e.hexes[i]] == null) {
+				entriesByHex[e.hexes[i]] = new HashSet<Key>();
+			}
+			entriesByHex[e.hexes[i]].add(e.key);
+		}
+	}
+
+	private void unindex(Entry e) {
+
+		for (int i = 0; i < e.hexes.length; i++) {
+
+			HashSet<Key> keys = entriesByHex[e.hexes[i]];
+			if (keys != null) {
+				keys.remove(e.key);
+			}
+		}
+	}
+
+	/*
+	 * Vehicle hindrances, smoke and rubble come from the scenario. Discard the
+	 * results for hexes the scenario changed since the last call, or, for a
+	 * different scenario, the hexes changed by either scenario.
+	 */
+	private void syncScenario(Scenario s) {
+
+		if (s == scenario) {
+
+			if (s != null) {
+				while (scenarioChanges < s.getChangeCount()) {
+					invalidate(s.getChangeHex(scenarioChanges++));
+				}
+			}
+			return;
+		}
+
+		invalidateScenario(scenario);
+		invalidateScenario(s);
+		scenario		= s;
+		scenarioChanges	= s == null ? 0 : s.getChangeCount();
+	}
+
+	private void invalidateScenario(Scenario s) {
+
+		if (s == null) {
+			return;
+		}
+
+		// vehicles of a scenario read from a file are not in its changes
+		Iterator iter = s.getVehicles().iterator();
+		while (iter.hasNext()) {
+
+			Unit u = (Unit) iter.next();
+			if (u.getLocation() != null && u.getLocation().getHex().getMap() == map) {
+				invalidate(u.getLocation().getHex());
+			}
+		}
+
+		for (int i = 0; i < s.getChangeCount(); i++) {
+
+			Hex h = s.getChangeHex(i);
+			if (h.getMap() == map) {
+				invalidate(h);
+			}
+		}
+	}
+
+	private static class Entry {
+
+		Key			key;
+		LOSResult	result;
+		int			hexes[];
+	}
+
+	private static class Key {
+
+		private Location	source;
+		private Location	target;
+		private boolean		useAuxSourceLOSPoint;
+		private boolean		useAuxTargetLOSPoint;
+		private Class<?>	resultClass;
+		private int			hash;
+
+		Key(Location source, boolean useAuxSourceLOSPoint, Location target, boolean useAuxTargetLOSPoint, Class<?> resultClass) {
+
+			this.source					= source;
+			this.target					= target;
+			this.useAuxSourceLOSPoint	= useAuxSourceLOSPoint;
+			this.useAuxTargetLOSPoint	= useAuxTargetLOSPoint;
+			this.resultClass			= resultClass;
+
+			hash = System.identityHashCode(source) * 31 + System.identityHashCode(target);
+			hash = hash * 4 + (useAuxSourceLOSPoint ? 2 : 0) + (useAuxTargetLOSPoint ? 1 : 0);
+		}
+
+		public int hashCode() {
+
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+
+			if (!(o instanceof Key)) {
+				return false;
+			}
+
+			Key k = (Key) o;
+			return	source == k.source &&
+					target == k.target &&
+					useAuxSourceLOSPoint == k.useAuxSourceLOSPoint &&
+					useAuxTargetLOSPoint == k.useAuxTargetLOSPoint &&
+					resultClass == k.resultClass;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package CASL.Map;
+
+/**
+ * One LOS check of a batch (see <code>GameMap.LOS(List, Scenario)</code>):
+ * a source and target location and whether to use their auxillary bypass
+ * aiming points.
+ */
+public class LOSQuery {
+
+	private Location	source;
+	private boolean		useAuxSourceLOSPoint;
+	private Location	target;
+	private boolean		useAuxTargetLOSPoint;
+
+	public LOSQuery(Location source, boolean useAuxSourceLOSPoint, Location target, boolean useAuxTargetLOSPoint) {
+
+		this.source					= source;
+		this.useAuxSourceLOSPoint	= useAuxSourceLOSPoint;
+		this.target					= target;
+		this.useAuxTargetLOSPoint	= useAuxTargetLOSPoint;
+	}
+
+	public Location	getSource()					{return source;}
+	public boolean	getUseAuxSourceLOSPoint()	{return useAuxSourceLOSPoint;}
+	public Location	getTarget()					{return target;}
+	public boolean	getUseAuxTargetLOSPoint()	{return useAuxTargetLOSPoint;}
+
+	// does this query have the same source as another?
+	boolean sameSource(LOSQuery q) {
+
+		return source == q.source && useAuxSourceLOSPoint == q.useAuxSourceLOSPoint;
+	}
+
+	// is this query the same check as another?
+	boolean sameCheck(LOSQuery q) {
+
+		return sameSource(q) && target == q.target && useAuxTargetLOSPoint == q.useAuxTargetLOSPoint;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package CASL.Map;
+
+/**
+ * The results of a batch of LOS checks (see
+ * <code>GameMap.LOS(List, Scenario)</code>), in the order of the queries:
+ * for each, the hindrance or <code>BLOCKED</code>, and the range.
+ */
+public class LOSQueryResults {
+
+	public static final byte BLOCKED = -1;
+
+	private byte	values[];
+	private short	ranges[];
+
+	LOSQueryResults(int size) {
+
+		values	= new byte[size];
+		ranges	= new short[size];
+	}
+
+	// set by the workers; each worker owns a distinct set of queries
+	void set(int query, LOSResult result, int range) {
+
+		values[query] = result.isBlocked() ? BLOCKED : (byte) Math.min(result.getHindrance(), Byte.MAX_VALUE);
+		ranges[query] = (short) range;
+	}
+
+	void copy(int from, int to) {
+
+		values[to] = values[from];
+		ranges[to] = ranges[from];
+	}
+
+	public int size() {
+
+		return values.length;
+	}
+
+	/**
+	 * Returns the hindrance of a query, or <code>BLOCKED</code> if the LOS is
+	 * blocked.
+	 */
+	public int getValue(int query) {
+
+		return values[query];
+	}
+
+	public boolean isBlocked(int query) {
+
+		return values[query] == BLOCKED;
+	}
+
+	/**
+	 * Returns the hindrance of a query, or 0 if the LOS is blocked.
+	 */
+	public int getHindrance(int query) {
+
+		return Math.max(values[query], 0);
+	}
+
+	/**
+	 * Returns the range in hexes from the source to the target of a query.
+	 */
+	public int getRange(int query) {
+
+		return ranges[query];
+	}
+}
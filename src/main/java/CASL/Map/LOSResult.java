@@ -17,8 +17,8 @@
 package CASL.Map;
 
 import java.awt.Point;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
 
 import CASL.Scenario.Scenario;
 import CASL.Unit.Vehicle;
@@ -28,6 +28,12 @@ import CASL.Unit.Vehicle;
  * Copyright:    Copyright (c) 2001 David Sullivan Zuericher Strasse 6 12205 Berlin Germany. All rights reserved.
  * @author       David Sullivan
  * @version      1.0
+ *
+ * A result is meant to be reused: the hexes and hindrances are kept in
+ * arrays and a hex-index bitset that are cleared, not reallocated, by
+ * <code>setClear</code>, so repeated LOS checks allocate nothing once the
+ * arrays have grown to size. The <code>HashSet</code> getters build their
+ * sets on demand.
  */
 public class LOSResult {
 
@@ -53,10 +59,40 @@ public class LOSResult {
 	protected boolean LOSis60Degree;
 	private boolean LOSisHorizontal;
 
-	private	HashSet<Hex>	hexes				= new HashSet<Hex>();
-	protected HashSet<Hex> mapHindranceHexes= new HashSet<Hex>();
-	private	HashSet<Smoke>	smokeHindrances		= new HashSet<Smoke>();
-	private	HashSet<Vehicle>	vehicleHindrances	= new HashSet<Vehicle>();
+	// reused by blockedAtPoint and firstHindranceAt
+	private final Point	blockedPoint		= new Point();
+	private final Point	firstHindrancePoint	= new Point();
+
+	// hexes the LOS passes through, in order, with a bitset by hex index
+	private GameMap	hexMap;
+	private Hex		hexes[]			= new Hex[32];
+	private int		hexIndexes[]	= new int[32];
+	private int		hexCount;
+	private long	hexBits[];
+
+	// hindrances
+	private Hex		mapHindranceHexes[]		= new Hex[6];
+	private int		mapHindranceRanges[]	= new int[6];
+	private int		mapHindranceCount;
+	private Smoke	smokeHindrances[]		= new Smoke[6];
+	private int		smokeHindranceCount;
+	private Vehicle	vehicleHindrances[]		= new Vehicle[6];
+	private int		vehicleHindranceCount;
+
+	// range from the source hex by hex index, valid where the stamp matches
+	private int		sourceRanges[];
+	private int		sourceRangeStamps[];
+	private int		sourceRangeStamp	= 1;
+	private Hex		rangeSourceHex;
+
+	// sets built on demand by the getters
+	private HashSet<Hex>		hexSet;
+	private HashSet<Hex>		mapHindranceSet;
+	private HashSet<Smoke>		smokeHindranceSet;
+	private HashSet<Vehicle>	vehicleHindranceSet;
+
+	// results reused for the LOS checks to vehicles (see GameMap.LOS)
+	private LOSResult	vehicleCheckResults[];
 
 	// hindrance/blocked methods
 	public boolean  isBlocked()				{return blocked;}
@@ -66,7 +102,7 @@ public class LOSResult {
 
 	public boolean  hasHindrance(){
 
-		if (mapHindranceHexes.size() + smokeHindrances.size() + vehicleHindrances.size() > 0){
+		if (mapHindranceCount + smokeHindranceCount + vehicleHindranceCount > 0){
 
 			return true;
 		}
@@ -77,14 +113,13 @@ public class LOSResult {
 
 	public int getHindrance() {
 
-		int hindrance = Math.min(mapHindranceHexes.size(), range) + vehicleHindrances.size();
+		int hindrance = Math.min(mapHindranceCount, range) + vehicleHindranceCount;
 
 		// compute smoke
-		Iterator<Smoke> iter 	= smokeHindrances.iterator();
 		Smoke 	 s      = null;
-		while (iter.hasNext()){
+		for (int i = 0; i < smokeHindranceCount; i++){
 
-			s = (Smoke) iter.next();
+			s = smokeHindrances[i];
 			hindrance += s.getHindrance();
 
 			// add one for being in the smoke
@@ -103,59 +138,111 @@ public class LOSResult {
 	// add a map hindrance hex
 	public void addMapHindrance(Hex h, int x, int y){
 
-		// point already in the extended border of a hindrance hex?
-		Iterator<Hex>	iter = mapHindranceHexes.iterator();
-		boolean	found = false;
+		// add hex if necessary
+		if(!isMapHindrancePresent(h, x, y)){
+
+			addMapHindranceHex(h);
+
+			// set first hindrance point, if necesary
+			if (firstHindranceAt == null){
+
+				setFirstHindranceAt(x, y);
+			}
+
+			// blocked if hindrances >= 6
+			if (getHindrance() >= 6) {
+
+				setBlocked(x, y, "Hindrance total of six or more (B.10)");
+			}
+		}
+	}
+
+	/*
+	 * Is the hindrance at x, y already counted? True if the point is in the
+	 * extended border of a hindrance hex, if LOSis60Degree and the appropriate
+	 * adjacent hex has already been added, or if a hex having the same range
+	 * to the source is already present.
+	 */
+	protected boolean isMapHindrancePresent(Hex h, int x, int y){
+
+		if (mapHindranceCount == 0){
+
+			return false;
+		}
+
+		int rangeToSource = getRangeToSource(h);
 		Hex temp = null;
-		while(iter.hasNext() && !found){
+		for (int i = 0; i < mapHindranceCount; i++){
 
-			temp = (Hex) iter.next();
-			if(temp.getExtendedHexBorder().contains(x, y)){
-				found = true;
+			temp = mapHindranceHexes[i];
+			if (mapHindranceRanges[i] == rangeToSource){
+				return true;
 			}
-			// don't add if LOSis60Degree and the appropriate adjacent hex already has been added
 			if (LOSis60Degree) {
 
 				if (sourceExitHexspine == 0 || sourceExitHexspine == 3){
 
 					if (h.getMap().getAdjacentHex(temp, 1) == h || h.getMap().getAdjacentHex(temp, 4) == h){
 
-						found = true;
+						return true;
 					}
 				}
 				else if (sourceExitHexspine == 1 || sourceExitHexspine == 4){
 
 					if (h.getMap().getAdjacentHex(temp, 2) == h || h.getMap().getAdjacentHex(temp, 5) == h){
 
-						found = true;
+						return true;
 					}
 				}
 			}
+			if(temp.getExtendedHexBorder().contains(x, y)){
+				return true;
+			}
+		}
+		return false;
+	}
 
-			// don't add another hex having the same range to the target is already present
-			if(sourceLocation.getHex().getMap().range(sourceLocation.getHex(), h) ==
-			   sourceLocation.getHex().getMap().range(sourceLocation.getHex(), temp)){
+	protected void addMapHindranceHex(Hex h){
 
-			    found = true;
-			}
+		if (mapHindranceCount == mapHindranceHexes.length){
+
+			mapHindranceHexes	= Arrays.copyOf(mapHindranceHexes, mapHindranceCount * 2);
+			mapHindranceRanges	= Arrays.copyOf(mapHindranceRanges, mapHindranceCount * 2);
 		}
+		mapHindranceRanges[mapHindranceCount]	= getRangeToSource(h);
+		mapHindranceHexes[mapHindranceCount++]	= h;
+		mapHindranceSet = null;
+	}
 
-		// add hex if necessary
-		if(!found){
-			mapHindranceHexes.add(h);
+	protected void setFirstHindranceAt(int x, int y){
 
-			// set first hindrance point, if necesary
-			if (firstHindranceAt == null){
+		firstHindrancePoint.setLocation(x, y);
+		firstHindranceAt = firstHindrancePoint;
+	}
 
-				firstHindranceAt = new Point(x, y);
-			}
+	// range from the source hex, computed once per hex for each source
+	protected int getRangeToSource(Hex h){
 
-			// blocked if hindrances >= 6
-			if (getHindrance() >= 6) {
+		GameMap map	= sourceLocation.getHex().getMap();
+		if (h.getMap() != map){
 
-				setBlocked(x, y, "Hindrance total of six or more (B.10)");
-			}
+			return map.range(sourceLocation.getHex(), h);
 		}
+
+		if (sourceRanges == null || sourceRanges.length != map.getHexCount()){
+
+			sourceRanges		= new int[map.getHexCount()];
+			sourceRangeStamps	= new int[map.getHexCount()];
+			sourceRangeStamp	= 1;
+		}
+
+		int index = map.getHexIndex(h);
+		if (sourceRangeStamps[index] != sourceRangeStamp){
+
+			sourceRanges[index]			= map.range(sourceLocation.getHex(), h);
+			sourceRangeStamps[index]	= sourceRangeStamp;
+		}
+		return sourceRanges[index];
 	}
 
 	// add a smoke hindrance
@@ -198,12 +285,17 @@ public class LOSResult {
 			if (!found){
 
 				//add smoke
-				smokeHindrances.add(s);
+				if (smokeHindranceCount == smokeHindrances.length){
+
+					smokeHindrances = Arrays.copyOf(smokeHindrances, smokeHindranceCount * 2);
+				}
+				smokeHindrances[smokeHindranceCount++] = s;
+				smokeHindranceSet = null;
 
 				// set first hindrance point, if necesary
 				if (firstHindranceAt == null){
 
-					firstHindranceAt = new Point(x, y);
+					setFirstHindranceAt(x, y);
 				}
 
 				// blocked if hindrances >= 6
@@ -219,11 +311,10 @@ public class LOSResult {
 	public void addVehicleHindrance(Vehicle v, int x, int y, Scenario scenario){
 
 		// vehicle already added?
-		Iterator<Vehicle>	iter = vehicleHindrances.iterator();
 		boolean	found = false;
-		while(iter.hasNext() && !found){
+		for (int i = 0; i < vehicleHindranceCount && !found; i++){
 
-			Vehicle veh	= (Vehicle) iter.next();
+			Vehicle veh	= vehicleHindrances[i];
 			Hex vehHex 	= veh.getLocation().getHex();
 
 			if(vehHex == v.getLocation().getHex()){
@@ -255,12 +346,17 @@ public class LOSResult {
 		// add hex if necessary
 		if(!found){
 
-			vehicleHindrances.add(v);
+			if (vehicleHindranceCount == vehicleHindrances.length){
+
+				vehicleHindrances = Arrays.copyOf(vehicleHindrances, vehicleHindranceCount * 2);
+			}
+			vehicleHindrances[vehicleHindranceCount++] = v;
+			vehicleHindranceSet = null;
 
 			// set first hindrance point, if necesary
 			if (firstHindranceAt == null){
 
-				firstHindranceAt = new Point(x, y);
+				setFirstHindranceAt(x, y);
 			}
 
 			// blocked if hindrances >= 6
@@ -272,17 +368,91 @@ public class LOSResult {
 	}
 
 	// get hindrances
-	public HashSet<Hex> getMapHindranceHexes(){ return mapHindranceHexes;}
-	public HashSet<Smoke> getSmokeHindrances()	 { return smokeHindrances;}
+	public HashSet<Hex> getMapHindranceHexes(){
+
+		if (mapHindranceSet == null){
+
+			mapHindranceSet = toSet(mapHindranceHexes, mapHindranceCount);
+		}
+		return mapHindranceSet;
+	}
 
-	public HashSet<Vehicle> getVehicleHindrances() { return vehicleHindrances;}
+	public HashSet<Smoke> getSmokeHindrances(){
+
+		if (smokeHindranceSet == null){
+
+			smokeHindranceSet = toSet(smokeHindrances, smokeHindranceCount);
+		}
+		return smokeHindranceSet;
+	}
+
+	public HashSet<Vehicle> getVehicleHindrances(){
+
+		if (vehicleHindranceSet == null){
+
+			vehicleHindranceSet = toSet(vehicleHindrances, vehicleHindranceCount);
+		}
+		return vehicleHindranceSet;
+	}
+
+	public int		getMapHindranceCount()		{return mapHindranceCount;}
+	public Hex		getMapHindranceHex(int i)	{return mapHindranceHexes[i];}
+	public int		getSmokeHindranceCount()	{return smokeHindranceCount;}
+	public Smoke	getSmokeHindrance(int i)	{return smokeHindrances[i];}
+	public int		getVehicleHindranceCount()	{return vehicleHindranceCount;}
+	public Vehicle	getVehicleHindrance(int i)	{return vehicleHindrances[i];}
 
 	// hexes
-	public void 	addHex(Hex h)	{hexes.add(h);}
-	public HashSet<Hex>	getHexes()		{return hexes;}
+	public void addHex(Hex h){
+
+		GameMap map = h.getMap();
+		if (map != hexMap){
+
+			clearHexes();
+			hexMap	= map;
+			hexBits	= new long[(map.getHexCount() + 63) >> 6];
+		}
+
+		int index = map.getHexIndex(h);
+		if ((hexBits[index >> 6] & (1L << index)) == 0){
+
+			hexBits[index >> 6] |= 1L << index;
+			if (hexCount == hexes.length){
+
+				hexes		= Arrays.copyOf(hexes, hexCount * 2);
+				hexIndexes	= Arrays.copyOf(hexIndexes, hexCount * 2);
+			}
+			hexIndexes[hexCount]	= index;
+			hexes[hexCount++]		= h;
+			hexSet = null;
+		}
+	}
+
+	public HashSet<Hex>	getHexes(){
+
+		if (hexSet == null){
+
+			hexSet = toSet(hexes, hexCount);
+		}
+		return hexSet;
+	}
+
+	// number of hexes the LOS passes through, and the nth hex in LOS order
+	public int		getHexCount()			{return hexCount;}
+	public Hex		getHex(int i)			{return hexes[i];}
+
+	// does the LOS pass through the hex with the given map hex index?
+	public boolean	containsHex(int hexIndex){
+
+		return hexBits != null && hexIndex < hexBits.length << 6 && (hexBits[hexIndex >> 6] & (1L << hexIndex)) != 0;
+	}
 
 	// location methods
-	public void setSourceLocation(Location l){sourceLocation = l;}
+	public void setSourceLocation(Location l){
+
+		setRangeSourceHex(l == null ? null : l.getHex());
+		sourceLocation = l;
+	}
 	public void	setTargetLocation(Location l){targetLocation = l;}
 
 	// hexside methods
@@ -323,7 +493,8 @@ public class LOSResult {
 	public void setBlocked(int x, int y, String	reas) {
 
 		blocked				= true;
-		blockedAtPoint		= new Point(x,y);
+		blockedPoint.setLocation(x, y);
+		blockedAtPoint		= blockedPoint;
 		reason				= reas;
 	}
 
@@ -341,22 +512,147 @@ public class LOSResult {
 		reason				= "";
 		continuousSlope 	= false;
 		LOSis60Degree		= false;
-		mapHindranceHexes.clear();
-		smokeHindrances.clear();
- 		vehicleHindrances.clear();
-		hexes.clear();
+		clearHindrances();
+		clearHexes();
 		sourceLocation		= null;
 		targetLocation		= null;
 		sourceExitHexspine	= UNKNOWN;
 		targetEnterHexspine	= UNKNOWN;
 	}
 
+	// copy another result into this one (used by the LOS cache)
+	public void copyFrom(LOSResult r) {
+
+		setRangeSourceHex(r.sourceLocation == null ? null : r.sourceLocation.getHex());
+		sourceLocation		= r.sourceLocation;
+		targetLocation		= r.targetLocation;
+		useAuxSourceLOSPoint	= r.useAuxSourceLOSPoint;
+		useAuxTargetLOSPoint	= r.useAuxTargetLOSPoint;
+		blocked				= r.blocked;
+		blockedAtPoint		= r.blockedAtPoint == null ? null : blockedPoint;
+		firstHindranceAt	= r.firstHindranceAt == null ? null : firstHindrancePoint;
+		blockedPoint.setLocation(r.blockedPoint);
+		firstHindrancePoint.setLocation(r.firstHindrancePoint);
+		range				= r.range;
+		sourceExitHexside	= r.sourceExitHexside;
+		targetEnterHexside	= r.targetEnterHexside;
+		sourceExitHexspine	= r.sourceExitHexspine;
+		targetEnterHexspine	= r.targetEnterHexspine;
+		reason				= r.reason;
+		continuousSlope		= r.continuousSlope;
+		LOSis60Degree		= r.LOSis60Degree;
+		LOSisHorizontal		= r.LOSisHorizontal;
+
+		// copied with their ranges, so the range cache is not needed
+		clearHindrances();
+		if (mapHindranceHexes.length < r.mapHindranceCount){
+
+			mapHindranceHexes	= new Hex[r.mapHindranceHexes.length];
+			mapHindranceRanges	= new int[r.mapHindranceRanges.length];
+		}
+		System.arraycopy(r.mapHindranceHexes, 0, mapHindranceHexes, 0, r.mapHindranceCount);
+		System.arraycopy(r.mapHindranceRanges, 0, mapHindranceRanges, 0, r.mapHindranceCount);
+		mapHindranceCount = r.mapHindranceCount;
+		for (int i = 0; i < r.smokeHindranceCount; i++){
+
+			if (smokeHindranceCount == smokeHindrances.length){
+
+				smokeHindrances = Arrays.copyOf(smokeHindrances, smokeHindranceCount * 2);
+			}
+			smokeHindrances[smokeHindranceCount++] = r.smokeHindrances[i];
+		}
+		for (int i = 0; i < r.vehicleHindranceCount; i++){
+
+			if (vehicleHindranceCount == vehicleHindrances.length){
+
+				vehicleHindrances = Arrays.copyOf(vehicleHindrances, vehicleHindranceCount * 2);
+			}
+			vehicleHindrances[vehicleHindranceCount++] = r.vehicleHindrances[i];
+		}
+
+		clearHexes();
+		for (int i = 0; i < r.hexCount; i++){
+
+			addHex(r.hexes[i]);
+		}
+	}
+
+	/*
+	 * A result for checking the LOS to a vehicle from the source (0) or the
+	 * target (1) of this result. Each result has its own pair, so the nested
+	 * checks never share a result with the check that started them.
+	 */
+	LOSResult getVehicleCheckResult(int i){
+
+		if (vehicleCheckResults == null){
+
+			vehicleCheckResults = new LOSResult[2];
+		}
+		if (vehicleCheckResults[i] == null){
+
+			vehicleCheckResults[i] = new LOSResult();
+		}
+		return vehicleCheckResults[i];
+	}
+
+	// cached ranges are only good for one source hex, but outlive setClear
+	private void setRangeSourceHex(Hex h){
+
+		if (h == null || h != rangeSourceHex){
+
+			clearSourceRanges();
+		}
+		rangeSourceHex = h;
+	}
+
+	private void clearSourceRanges(){
+
+		if (++sourceRangeStamp == 0 && sourceRangeStamps != null){
+
+			Arrays.fill(sourceRangeStamps, 0);
+			sourceRangeStamp = 1;
+		}
+	}
+
+	private void clearHindrances(){
+
+		Arrays.fill(mapHindranceHexes, 0, mapHindranceCount, null);
+		Arrays.fill(smokeHindrances, 0, smokeHindranceCount, null);
+		Arrays.fill(vehicleHindrances, 0, vehicleHindranceCount, null);
+		mapHindranceCount		= 0;
+		smokeHindranceCount		= 0;
+		vehicleHindranceCount	= 0;
+		mapHindranceSet			= null;
+		smokeHindranceSet		= null;
+		vehicleHindranceSet		= null;
+	}
+
+	private void clearHexes(){
+
+		for (int i = 0; i < hexCount; i++){
+
+			hexBits[hexIndexes[i] >> 6] &= ~(1L << hexIndexes[i]);
+			hexes[i] = null;
+		}
+		hexCount	= 0;
+		hexSet		= null;
+	}
+
+	private static <T> HashSet<T> toSet(T items[], int count){
+
+		HashSet<T> set = new HashSet<T>(Math.max(16, count * 2));
+		for (int i = 0; i < count; i++){
+
+			set.add(items[i]);
+		}
+		return set;
+	}
+
 	// this smoke already added?
 	private boolean smokePresent(Smoke s){
 
-		Iterator<Smoke> iter = smokeHindrances.iterator();
-		while(iter.hasNext()){
-			if((Smoke) iter.next() == s){
+		for (int i = 0; i < smokeHindranceCount; i++){
+			if(smokeHindrances[i] == s){
 				return true;
 			}
 		}
@@ -366,17 +662,17 @@ public class LOSResult {
 	// any smoke from this hex already added?
 	private boolean smokePresent(Hex h){
 
-		HashSet<Smoke> smoke = h.getSmoke();
+		if (h == null || smokeHindranceCount == 0){
 
-		if (smoke != null){
+			return false;
+		}
 
-			Iterator<Smoke> smokeIter = smoke.iterator();
-			while (smokeIter.hasNext()){
+		// the smoke may be on the map or in the scenario
+		for (int i = 0; i < smokeHindranceCount; i++){
 
-				if (smokePresent((Smoke) smokeIter.next())){
+			if (smokeHindrances[i].getLocation().getHex() == h){
 
-					return true;
-				}
+				return true;
 			}
 		}
 		return false;
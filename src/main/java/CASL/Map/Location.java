@@ -19,6 +19,8 @@ package CASL.Map;
 import java.awt.Point;
 import java.io.Serializable;
 
+import CASL.Scenario.Scenario;
+
 /**
  * Title:        Location.java
  * Copyright:    Copyright (c) 2001 David Sullivan Zuericher Strasse 6 12205 Berlin Germany. All rights reserved.
@@ -69,6 +71,13 @@ public class Location
 	public	Terrain getTerrain() {return terrain;}
 	public	void 	setTerrain(Terrain newTerrain) {terrain = newTerrain;}
 
+	// the terrain as changed by the scenario, if it changed it (see Scenario.setHexTerrain)
+	public	Terrain getTerrain(Scenario scenario) {
+
+		Terrain t = scenario == null ? null : scenario.getTerrain(this);
+		return t == null ? terrain : t;
+	}
+
 	public	Hex		getHex() {return hex;}
 	public	void	setHex(Hex newHex) {hex = newHex;}
 
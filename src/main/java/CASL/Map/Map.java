@@ -18,8 +18,11 @@ package CASL.Map;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -67,6 +70,7 @@ public class Map
 
 	/**
 	* Reads the map from disk. File name must be fully qualified.
+	* The file may be a serialized map or a <code>MapFile</code>.
 	* @param filename name of the file
 	* @return <code>GameMap</code> GameMap object. Null if an error occured.
 	*/
@@ -75,6 +79,18 @@ public class Map
 		ObjectInputStream   infile;
 		GameMap map;
 
+		// binary map file?
+		if (MapFile.isMapFile(new File(filename))) {
+			try {
+				return MapFile.read(new File(filename));
+
+			} catch(IOException e) {
+				System.err.println("Cannot open the map file: " + filename);
+				e.printStackTrace(System.err);
+				return null;
+			}
+		}
+
 		try {
 			infile =
 			new ObjectInputStream(
@@ -99,6 +115,7 @@ public class Map
 
 	/**
 	* Reads the map from an input stream.
+	* The stream may hold a serialized map or a <code>MapFile</code>.
 	* @param instream input stream
 	* @return <code>GameMap</code> GameMap object. Null if an error occured.
 	*/
@@ -108,10 +125,20 @@ public class Map
 		GameMap map;
 
 		try {
+			// binary map file?
+			BufferedInputStream in = new BufferedInputStream(instream);
+			in.mark(4);
+			DataInputStream header = new DataInputStream(in);
+			boolean mapFile = header.readInt() == MapFile.MAGIC;
+			in.reset();
+			if (mapFile) {
+				return MapFile.read(in);
+			}
+
 			infile =
 			new ObjectInputStream(
 			new BufferedInputStream(
-			new GZIPInputStream(instream)));
+			new GZIPInputStream(in)));
 
 			map  = (GameMap) infile.readObject();
 			infile.close();
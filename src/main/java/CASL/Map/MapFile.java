@@ -0,0 +1,597 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package CASL.Map;
+
+import java.awt.Point;
+import java.awt.Polygon;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * A versioned binary map format that can be read without object
+ * deserialization, either from a memory-mapped file or from a stream.
+ * <p>
+ * All values are big-endian. The file holds, in order:
+ * <ul>
+ * <li>a header: magic, version, hex and grid dimensions, image options</li>
+ * <li>the terrain and elevation planes, one byte per pixel, column by column</li>
+ * <li>the bridge table</li>
+ * <li>the hex table, column by column: hex values, the center location with
+ * its upper and lower level locations, and the hexsides</li>
+ * <li>the prefab building table</li>
+ * </ul>
+ * Tunnels and entrenchments are location terrain and travel with the hex
+ * locations. Smoke is not stored.
+ * <p>
+ * Run <code>main</code> to convert a serialized <code>.map</code> file.
+ */
+public class MapFile {
+
+	public static final String	EXTENSION	= ".cmap";
+
+	public static final int		MAGIC		= 0x434D4150;	// "CMAP"
+	public static final int		VERSION		= 1;
+
+	// image option flags
+	private static final int	SHOW_SHADOWS	= 1;
+	private static final int	SHOW_CONTOURS	= 2;
+	private static final int	SHOW_HEXES		= 4;
+
+	// hex flags
+	private static final int	STAIRWAY	= 1;
+	private static final int	FORD		= 2;
+
+	// location flags
+	private static final int	BYPASS		= 1;
+	private static final int	TRAILBREAK	= 2;
+	private static final int	PATH		= 4;
+	private static final int	BREACH		= 8;
+	private static final int	WIRE		= 16;
+	private static final int	PANJI		= 32;
+	private static final int	CAVE		= 64;
+	private static final int	FIRE		= 128;
+	private static final int	BLAZE		= 256;
+
+	private static final int	NO_TERRAIN	= -1;
+
+	// level location points
+	private static final byte	NO_POINT		= 0;
+	private static final byte	CENTER_POINT	= 1;
+	private static final byte	OWN_POINT		= 2;
+
+	/**
+	 * Does the buffer start with the map file header? The buffer position is
+	 * not changed.
+	 */
+	public static boolean isMapFile(ByteBuffer buffer) {
+
+		return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC;
+	}
+
+	/**
+	 * Does the file start with the map file header?
+	 */
+	public static boolean isMapFile(File file) {
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			ByteBuffer header = ByteBuffer.allocate(4);
+			while (header.hasRemaining() && channel.read(header) >= 0);
+			header.flip();
+			return isMapFile(header);
+
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads a map file through a memory-mapped buffer.
+	 */
+	public static GameMap read(File file) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Reads a map file from a stream, e.g. an entry of a board archive.
+	 */
+	public static GameMap read(InputStream in) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+		byte buffer[] = new byte[1 << 16];
+		int count;
+		while ((count = in.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, count);
+		}
+		return read(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+
+	/**
+	 * Reads a map file from a buffer.
+	 */
+	public static GameMap read(ByteBuffer buffer) throws IOException {
+
+		try {
+			return readMap(buffer);
+
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated map file");
+
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid map file: " + e);
+		}
+	}
+
+	private static GameMap readMap(ByteBuffer buffer) throws IOException {
+
+		// header
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException("Not a map file");
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported map file version " + version);
+		}
+
+		int width		= buffer.getInt();
+		int height		= buffer.getInt();
+		int gridWidth	= buffer.getInt();
+		int gridHeight	= buffer.getInt();
+		int options		= buffer.getInt();
+
+		GameMap map = new GameMap(width, height);
+		if (map.gridWidth != gridWidth || map.gridHeight != gridHeight) {
+			throw new IOException("Map grid is " + gridWidth + "x" + gridHeight + ", expected " + map.gridWidth + "x" + map.gridHeight);
+		}
+		map.showShadows		= (options & SHOW_SHADOWS) != 0;
+		map.showContours	= (options & SHOW_CONTOURS) != 0;
+		map.showHexes		= (options & SHOW_HEXES) != 0;
+
+		// terrain and elevation planes
+		byte column[] = new byte[gridHeight];
+		for (int x = 0; x < gridWidth; x++) {
+
+			buffer.get(column);
+			char terrain[] = map.terrainGrid[x];
+			for (int y = 0; y < gridHeight; y++) {
+				terrain[y] = (char) (column[y] & 0xff);
+			}
+		}
+		for (int x = 0; x < gridWidth; x++) {
+			buffer.get(map.elevationGrid[x]);
+		}
+
+		// bridges - set before the hex locations, which include the bridge location
+		int bridges = buffer.getInt();
+		for (int i = 0; i < bridges; i++) {
+
+			Hex h			= map.getHex(buffer.getShort(), buffer.getShort());
+			Terrain terr	= readTerrain(map, buffer);
+			int roadLevel	= buffer.getInt();
+			int rotation	= buffer.getInt();
+			boolean single	= buffer.get() != 0;
+			Point center	= new Point(buffer.getInt(), buffer.getInt());
+
+			h.setBridge(new Bridge(terr, roadLevel, rotation, new Location(), single, center));
+		}
+
+		// hexes
+		for (int col = 0; col < width; col++) {
+			for (int row = 0; row < height + (col % 2); row++) {
+				readHex(map, map.getHex(col, row), buffer);
+			}
+		}
+
+		// prefab buildings
+		int buildings = buffer.getInt();
+		for (int i = 0; i < buildings; i++) {
+
+			int terrainType		= buffer.getShort();
+			String imageName	= readString(buffer);
+			int fileIndex		= buffer.getInt();
+			int rotation		= buffer.getInt();
+			int x				= buffer.getInt();
+			int y				= buffer.getInt();
+
+			int points	= buffer.getInt();
+			int xs[]	= new int[points];
+			int ys[]	= new int[points];
+			for (int p = 0; p < points; p++) {
+				xs[p] = buffer.getInt();
+				ys[p] = buffer.getInt();
+			}
+
+			PrefabBuilding building = new PrefabBuilding(terrainType, new Polygon(xs, ys, points), imageName);
+			building.setFileIndex(fileIndex);
+			building.setRotation(rotation);
+			building.setCenter(x, y);
+			map.addPrefabBuilding(building);
+		}
+
+		return map;
+	}
+
+	private static void readHex(GameMap map, Hex h, ByteBuffer buffer) {
+
+		h.setName(readString(buffer));
+		h.setBaseHeight(buffer.getInt());
+
+		int flags = buffer.get();
+		h.setStairway((flags & STAIRWAY) != 0);
+		h.setFord((flags & FORD) != 0);
+
+		// center location
+		Location values = readLocation(map, buffer);
+		h.getCenterLocation().copyLocationValues(values);
+
+		// upper level locations (a bridge location already exists)
+		Location current = h.getCenterLocation();
+		int count = buffer.get();
+		for (int i = 0; i < count; i++) {
+
+			values = readLevelLocation(map, h, buffer);
+			Location next = current.getUpLocation();
+			if (next == null) {
+
+				next = values;
+				current.setUpLocation(next);
+				next.setDownLocation(current);
+			}
+			else {
+				next.copyLocationValues(values);
+			}
+			current = next;
+		}
+
+		// lower level locations
+		current = h.getCenterLocation();
+		count = buffer.get();
+		for (int i = 0; i < count; i++) {
+
+			Location next = readLevelLocation(map, h, buffer);
+			current.setDownLocation(next);
+			next.setUpLocation(current);
+			current = next;
+		}
+
+		// hexsides
+		for (int side = 0; side < 6; side++) {
+
+			if (buffer.get() == 0) {
+				continue;
+			}
+			values = readLocation(map, buffer);
+			Terrain edge	= readTerrain(map, buffer);
+			boolean cliff	= buffer.get() != 0;
+
+			if (h.isHexsideOnMap(side)) {
+
+				h.getHexsideLocation(side).copyLocationValues(values);
+				h.setEdgeValues(side, edge, cliff);
+			}
+		}
+	}
+
+	// reads an upper or lower level location with its points
+	private static Location readLevelLocation(GameMap map, Hex h, ByteBuffer buffer) {
+
+		Location l = readLocation(map, buffer);
+		l.setHex(h);
+		l.setLOSPoint(readPoint(h, buffer));
+		l.setAuxLOSPoint(readPoint(h, buffer));
+		l.setEdgeCenterPoint(readPoint(h, buffer));
+		return l;
+	}
+
+	// level locations normally share the hex center point
+	private static Point readPoint(Hex h, ByteBuffer buffer) {
+
+		switch (buffer.get()) {
+
+			case NO_POINT:		return null;
+			case CENTER_POINT:	return h.getCenterLocation().getLOSPoint();
+			default:			return new Point(buffer.getInt(), buffer.getInt());
+		}
+	}
+
+	// reads the location values into a detached location
+	private static Location readLocation(GameMap map, ByteBuffer buffer) {
+
+		String name		= readString(buffer);
+		int baseHeight	= buffer.getInt();
+		int flags		= buffer.getShort();
+		Terrain terr	= readTerrain(map, buffer);
+		Terrain depr	= readTerrain(map, buffer);
+
+		Location l = new Location(name, 0, null, null, null, null, (flags & BYPASS) != 0, terr);
+		l.setTrailbreak((flags & TRAILBREAK) != 0);
+		l.setPath((flags & PATH) != 0);
+		l.setBreach((flags & BREACH) != 0);
+		l.setWire((flags & WIRE) != 0);
+		l.setPanji((flags & PANJI) != 0);
+		l.setCave((flags & CAVE) != 0);
+		l.setFire((flags & FIRE) != 0);
+		l.setBlaze((flags & BLAZE) != 0);
+		if (depr != null) {
+			l.setDepressionTerrain(depr);
+		}
+		l.setBaseHeight(baseHeight);
+		return l;
+	}
+
+	private static Terrain readTerrain(GameMap map, ByteBuffer buffer) {
+
+		int type = buffer.getShort();
+		return type == NO_TERRAIN ? null : map.getTerrain(type);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+
+		int length = buffer.getShort();
+		if (length < 0) {
+			return null;
+		}
+
+		byte bytes[] = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes a map in the map file format.
+	 */
+	public static void write(GameMap map, File file) throws IOException {
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			write(map, out);
+		}
+	}
+
+	public static void write(GameMap map, DataOutputStream out) throws IOException {
+
+		// header
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(map.width);
+		out.writeInt(map.height);
+		out.writeInt(map.gridWidth);
+		out.writeInt(map.gridHeight);
+		out.writeInt(
+			(map.showShadows  ? SHOW_SHADOWS  : 0) |
+			(map.showContours ? SHOW_CONTOURS : 0) |
+			(map.showHexes    ? SHOW_HEXES    : 0));
+
+		// terrain and elevation planes
+		byte column[] = new byte[map.gridHeight];
+		for (int x = 0; x < map.gridWidth; x++) {
+
+			char terrain[] = map.terrainGrid[x];
+			for (int y = 0; y < map.gridHeight; y++) {
+
+				if (terrain[y] > 0xff) {
+					throw new IOException("Terrain type " + (int) terrain[y] + " at " + x + "," + y + " does not fit the terrain plane");
+				}
+				column[y] = (byte) terrain[y];
+			}
+			out.write(column);
+		}
+		for (int x = 0; x < map.gridWidth; x++) {
+			out.write(map.elevationGrid[x]);
+		}
+
+		// bridges
+		ArrayList<Hex> bridges = new ArrayList<Hex>();
+		for (int col = 0; col < map.width; col++) {
+			for (int row = 0; row < map.height + (col % 2); row++) {
+				if (map.getHex(col, row).getBridge() != null) {
+					bridges.add(map.getHex(col, row));
+				}
+			}
+		}
+		out.writeInt(bridges.size());
+		for (int i = 0; i < bridges.size(); i++) {
+
+			Hex h			= bridges.get(i);
+			Bridge bridge	= h.getBridge();
+			out.writeShort(h.getColumnNumber());
+			out.writeShort(h.getRowNumber());
+			writeTerrain(bridge.getTerrain(), out);
+			out.writeInt(bridge.getRoadLevel());
+			out.writeInt(bridge.getRotation());
+			out.writeByte(bridge.isSingleHex() ? 1 : 0);
+			out.writeInt(bridge.getCenter().x);
+			out.writeInt(bridge.getCenter().y);
+		}
+
+		// hexes
+		for (int col = 0; col < map.width; col++) {
+			for (int row = 0; row < map.height + (col % 2); row++) {
+				writeHex(map.getHex(col, row), out);
+			}
+		}
+
+		// prefab buildings
+		out.writeInt(map.prefabBuildingList.size());
+		Iterator iter = map.prefabBuildingList.iterator();
+		while (iter.hasNext()) {
+
+			PrefabBuilding building = (PrefabBuilding) iter.next();
+			out.writeShort(building.getTerrainType());
+			writeString(building.getImageName(), out);
+			out.writeInt(building.getFileIndex());
+			out.writeInt(building.getRotation());
+			out.writeInt(building.getCenterX());
+			out.writeInt(building.getCenterY());
+
+			Polygon shape = building.getShapePolygon();
+			out.writeInt(shape.npoints);
+			for (int p = 0; p < shape.npoints; p++) {
+				out.writeInt(shape.xpoints[p]);
+				out.writeInt(shape.ypoints[p]);
+			}
+		}
+		out.flush();
+	}
+
+	private static void writeHex(Hex h, DataOutputStream out) throws IOException {
+
+		writeString(h.getName(), out);
+		out.writeInt(h.getBaseHeight());
+		out.writeByte((h.hasStairway() ? STAIRWAY : 0) | (h.hasFord() ? FORD : 0));
+
+		// center, upper and lower level locations
+		writeLocation(h.getCenterLocation(), out);
+		writeLevels(h.getCenterLocation(), true, out);
+		writeLevels(h.getCenterLocation(), false, out);
+
+		// hexsides
+		for (int side = 0; side < 6; side++) {
+
+			if (!h.isHexsideOnMap(side)) {
+
+				out.writeByte(0);
+				continue;
+			}
+			out.writeByte(1);
+			writeLocation(h.getHexsideLocation(side), out);
+			writeTerrain(h.getEdgeTerrain(side), out);
+			out.writeByte(h.hasCliff(side) ? 1 : 0);
+		}
+	}
+
+	private static void writeLevels(Location center, boolean up, DataOutputStream out) throws IOException {
+
+		int count = 0;
+		for (Location l = next(center, up); l != null; l = next(l, up)) {
+			count++;
+		}
+		if (count > Byte.MAX_VALUE) {
+			throw new IOException("Too many levels in hex " + center.getHex().getName());
+		}
+
+		out.writeByte(count);
+		for (Location l = next(center, up); l != null; l = next(l, up)) {
+
+			writeLocation(l, out);
+			writePoint(l.getLOSPoint(), center, out);
+			writePoint(l.getAuxLOSPoint(), center, out);
+			writePoint(l.getEdgeCenterPoint(), center, out);
+		}
+	}
+
+	private static void writePoint(Point p, Location center, DataOutputStream out) throws IOException {
+
+		if (p == null) {
+			out.writeByte(NO_POINT);
+		}
+		else if (p == center.getLOSPoint()) {
+			out.writeByte(CENTER_POINT);
+		}
+		else {
+			out.writeByte(OWN_POINT);
+			out.writeInt(p.x);
+			out.writeInt(p.y);
+		}
+	}
+
+	private static Location next(Location l, boolean up) {
+
+		return up ? l.getUpLocation() : l.getDownLocation();
+	}
+
+	private static void writeLocation(Location l, DataOutputStream out) throws IOException {
+
+		writeString(l.getName(), out);
+		out.writeInt(l.getBaseHeight());
+		out.writeShort(
+			(l.isBypassAllowed() ? BYPASS     : 0) |
+			(l.hasTrailbreak()   ? TRAILBREAK : 0) |
+			(l.hasPath()         ? PATH       : 0) |
+			(l.hasBreach()       ? BREACH     : 0) |
+			(l.hasWire()         ? WIRE       : 0) |
+			(l.hasPanji()        ? PANJI      : 0) |
+			(l.hasCave()         ? CAVE       : 0) |
+			(l.hasFire()         ? FIRE       : 0) |
+			(l.hasBlaze()        ? BLAZE      : 0));
+		writeTerrain(l.getTerrain(), out);
+		writeTerrain(l.getDepressionTerrain(), out);
+	}
+
+	private static void writeTerrain(Terrain terr, DataOutputStream out) throws IOException {
+
+		out.writeShort(terr == null ? NO_TERRAIN : terr.getType());
+	}
+
+	private static void writeString(String s, DataOutputStream out) throws IOException {
+
+		if (s == null) {
+
+			out.writeShort(-1);
+			return;
+		}
+
+		byte bytes[] = s.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Converts serialized map files to the map file format. The output file
+	 * defaults to the input file with the <code>.cmap</code> extension.
+	 */
+	public static void main(String args[]) {
+
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: MapFile <file.map> [<file" + EXTENSION + ">]");
+			System.exit(1);
+		}
+
+		String in	= args[0];
+		String out	= args.length > 1 ? args[1] :
+			(in.toLowerCase().endsWith(".map") ? in.substring(0, in.length() - 4) : in) + EXTENSION;
+
+		GameMap map = Map.readMap(in);
+		if (map == null) {
+			System.exit(1);
+		}
+
+		try {
+			write(map, new File(out));
+		} catch (IOException e) {
+			System.err.println("Cannot write the map file: " + out);
+			e.printStackTrace(System.err);
+			System.exit(1);
+		}
+		System.out.println("Converted " + in + " to " + out);
+	}
+}
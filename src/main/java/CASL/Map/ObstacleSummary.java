@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package CASL.Map;
+
+import java.util.Arrays;
+
+/**
+ * A two level summary of the terrain grid of a <code>GameMap</code>: one
+ * entry per hex and one per square block of pixels. Each entry records the
+ * highest obstacle (ground level plus terrain height) and whether any
+ * hindrance, edge, depression, split or half level terrain is present.
+ * <p>
+ * The LOS pixel walk uses it to pass over terrain that cannot block or hinder
+ * the LOS: once the LOS has entered a hex that is clear, it goes on to the
+ * pixel where it leaves the hex; in other hexes it passes over the pixels of
+ * clear blocks. A hex or block is clear if it has none of the flagged terrain
+ * and nothing higher than the clear height of the LOS at the hex.
+ */
+class ObstacleSummary {
+
+	// terrain flags
+	static final byte	HINDRANCE	= 1;
+	static final byte	EDGE		= 2;
+	static final byte	DEPRESSION	= 4;
+	static final byte	SPLIT		= 8;
+	static final byte	HALF_LEVEL	= 16;
+
+	// terrain that is never passed over
+	private static final byte	NOT_CLEAR	= HINDRANCE | EDGE | DEPRESSION | SPLIT | HALF_LEVEL;
+
+	// block size in pixels (as a shift)
+	private static final int	BLOCK_SHIFT	= 4;
+
+	private int		gridHeight;
+	private char	hexLookup[];	// pixel to hex index + 1 (see GameMap.gridToHex)
+
+	private int		hexHeights[];
+	private byte	hexFlags[];
+
+	private int		blockRows;
+	private int		blockHeights[];
+	private byte	blockFlags[];
+
+	ObstacleSummary(GameMap map, char hexLookup[]) {
+
+		int gridWidth	= map.gridWidth;
+		gridHeight		= map.gridHeight;
+		this.hexLookup	= hexLookup;
+
+		hexHeights	= new int[map.getHexCount()];
+		hexFlags	= new byte[hexHeights.length];
+		Arrays.fill(hexHeights, Integer.MIN_VALUE);
+
+		blockRows		= ((gridHeight - 1) >> BLOCK_SHIFT) + 1;
+		blockHeights	= new int[(((gridWidth - 1) >> BLOCK_SHIFT) + 1) * blockRows];
+		blockFlags		= new byte[blockHeights.length];
+		Arrays.fill(blockHeights, Integer.MIN_VALUE);
+
+		for (int x = 0; x < gridWidth; x++) {
+			for (int y = 0; y < gridHeight; y++) {
+
+				Terrain	t		= map.getGridTerrain(x, y);
+				int		height	= map.getGridGroundLevel(x, y) + t.getHeight();
+				byte	flags	= 0;
+
+				if (t.isLOSHindrance() || t.isLowerLOSHindrance()) {
+					flags |= HINDRANCE;
+				}
+				if (t.isEdgeTerrain()) {
+					flags |= EDGE;
+				}
+				if (t.isDepressionTerrain()) {
+					flags |= DEPRESSION;
+				}
+				if (t.hasSplit()) {
+					flags |= SPLIT;
+				}
+				if (t.isHalfLevelHeight()) {
+					flags |= HALF_LEVEL;
+				}
+
+				int block = (x >> BLOCK_SHIFT) * blockRows + (y >> BLOCK_SHIFT);
+				blockHeights[block] = Math.max(blockHeights[block], height);
+				blockFlags[block] |= flags;
+
+				int hex = hexLookup[x * gridHeight + y] - 1;
+				if (hex >= 0) {
+					hexHeights[hex] = Math.max(hexHeights[hex], height);
+					hexFlags[hex] |= flags;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Is the pixel on the map and in the hex?
+	 */
+	boolean inHex(int x, int y, int hexIndex) {
+
+		return x >= 0 && y >= 0 && y < gridHeight && x * gridHeight + y < hexLookup.length
+			&& hexLookup[x * gridHeight + y] - 1 == hexIndex;
+	}
+
+	/**
+	 * Can every pixel of the hex be passed over?
+	 *
+	 * @param height the clear height of the LOS at the hex (see
+	 * <code>GameMap.getClearHeight</code>)
+	 */
+	boolean isHexClear(int hexIndex, int height) {
+
+		return hexHeights[hexIndex] <= height && (hexFlags[hexIndex] & NOT_CLEAR) == 0;
+	}
+
+	/**
+	 * Can every pixel of the block holding the pixel be passed over?
+	 *
+	 * @param x pixel column (must be on the map)
+	 * @param y pixel row (must be on the map)
+	 * @param height the clear height of the LOS at the pixel's hex
+	 */
+	boolean isBlockClear(int x, int y, int height) {
+
+		int block = (x >> BLOCK_SHIFT) * blockRows + (y >> BLOCK_SHIFT);
+		return blockHeights[block] <= height && (blockFlags[block] & NOT_CLEAR) == 0;
+	}
+}
@@ -0,0 +1,626 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package CASL.Map;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.StringTokenizer;
+
+/**
+ * The terrain changes (SSRs) that can be chosen for a board, applied to the
+ * CASL map of the board.
+ */
+public class TerrainChanges {
+
+  private TerrainChanges() {
+  }
+
+  /**
+   * Applies the terrain changes of a board to its map, before the board is
+   * flipped or inserted into a larger map.
+   *
+   * @param state the tab separated terrain changes, as kept in the board state
+   * @param map the map of the board
+   */
+  public static void apply(String state, GameMap map) {
+    StringTokenizer st = new StringTokenizer(state, "\t");
+    String s = null;
+    while (st.hasMoreTokens()) {
+
+      s = st.nextToken();
+
+      // convert the terrain
+      if (s.equals("AllPaved")) {
+
+      }
+      else if (s.equals("AllDirt")) {
+
+      }
+      else if (s.equals("NoDirt")) {
+
+      }
+      else if (s.equals("NoStairwells")) {
+
+      }
+      else if (s.equals("RowhouseBarsToBuildings")) {
+
+      }
+      else if (s.equals("RowhouseBarsToOpenGround")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.ROWHOUSE_WALL), map.getTerrain(Terrain.OPEN_GROUND));
+        map.changeAllTerrain(map.getTerrain(Terrain.ROWHOUSE_WALL_1_LEVEL), map.getTerrain(Terrain.OPEN_GROUND));
+        map.changeAllTerrain(map.getTerrain(Terrain.ROWHOUSE_WALL_2_LEVEL), map.getTerrain(Terrain.OPEN_GROUND));
+        map.changeAllTerrain(map.getTerrain(Terrain.ROWHOUSE_WALL_3_LEVEL), map.getTerrain(Terrain.OPEN_GROUND));
+        map.changeAllTerrain(map.getTerrain(Terrain.ROWHOUSE_WALL_4_LEVEL), map.getTerrain(Terrain.OPEN_GROUND));
+      }
+      else if (s.equals("AllStone")) {
+
+      }
+      else if (s.equals("AllWood")) {
+
+      }
+      else if (s.equals("BrushToOpenGround")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.BRUSH), map.getTerrain(Terrain.OPEN_GROUND));
+      }
+      else if (s.equals("SwampToMarsh")) {
+
+      }
+      else if (s.equals("MarshToOpenGround")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.OPEN_GROUND));
+      }
+      else if (s.equals("GulliesToStreams")) {
+
+      }
+      else if (s.equals("Flooded")) {
+
+        Hex h = null;
+        Terrain dt;
+        boolean isStream = false;
+
+        // set ground level to level 0 for water and streams
+        for (int col = 0; col < map.getWidth(); col++) {
+          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
+
+            h = map.getHex(col, row);
+
+            // is it a stream hex?
+            dt = h.getCenterLocation().getDepressionTerrain();
+            if ((dt != null && (dt.getType() == Terrain.SHALLOW_STREAM || dt.getType() == Terrain.DRY_STREAM))) {
+
+              isStream = true;
+            }
+            else
+              for (int x = 0; x < 6; x++) {
+
+                dt = h.getHexsideLocation(x).getDepressionTerrain();
+                if ((dt != null && (dt.getType() == Terrain.SHALLOW_STREAM || dt.getType() == Terrain.DRY_STREAM))) {
+
+                  isStream = true;
+                }
+              }
+
+            if (isStream || h.getCenterLocation().getTerrain().getType() == Terrain.WATER) {
+
+              map.changeAllGroundLevel(-1, 0, h.getHexBorder());
+            }
+          }
+        }
+
+        // marsh to water
+        map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.WATER));
+      }
+      else if (s.equals("DryStreams")) {
+
+      }
+      else if (s.equals("OrchardOutOfSeason")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.ORCHARD), map.getTerrain(Terrain.ORCHARD_OUT_OF_SEASON));
+      }
+      else if (s.equals("NoGrain")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.GRAIN), map.getTerrain(Terrain.OPEN_GROUND));
+      }
+      else if (s.equals("NoSunkElevRoads")) {
+
+
+      }
+      else if (s.equals("NoRoads")) {
+
+
+      }
+      else if (s.equals("Level4ToLevel3")) {
+
+        map.changeAllGroundLevel(4, 3);
+      }
+      else if (s.equals("Level4ToLevel2")) {
+
+        map.changeAllGroundLevel(4, 2);
+      }
+      else if (s.equals("Level3ToLevel2")) {
+
+        map.changeAllGroundLevel(3, 2);
+      }
+      else if (s.equals("Level4ToLevel1")) {
+
+        map.changeAllGroundLevel(4, 1);
+      }
+      else if (s.equals("Level3ToLevel1")) {
+
+        map.changeAllGroundLevel(3, 1);
+      }
+      else if (s.equals("Level2ToLevel1")) {
+
+        map.changeAllGroundLevel(2, 1);
+      }
+      else if (s.equals("Level4ToLevel0")) {
+
+        map.changeAllGroundLevel(4, 0);
+      }
+      else if (s.equals("Level3ToLevel0")) {
+
+        map.changeAllGroundLevel(3, 0);
+      }
+      else if (s.equals("Level2ToLevel0")) {
+
+        map.changeAllGroundLevel(2, 0);
+      }
+      else if (s.equals("Level1ToLevel0")) {
+
+        map.changeAllGroundLevel(1, 0);
+      }
+      else if (s.equals("Level_1ToLevel0")) {
+
+        map.changeAllGroundLevel(-1, 0);
+      }
+      else if (s.equals("HedgesOnly")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.WALL), map.getTerrain(Terrain.HEDGE));
+      }
+      else if (s.equals("WallsOnly")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.HEDGE), map.getTerrain(Terrain.WALL));
+      }
+      else if (s.equals("WallsToBocage")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.WALL), map.getTerrain(Terrain.BOCAGE));
+      }
+      else if (s.equals("HedgesToBocage")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.HEDGE), map.getTerrain(Terrain.BOCAGE));
+      }
+      else if (s.equals("Bocage")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.WALL), map.getTerrain(Terrain.BOCAGE));
+        map.changeAllTerrain(map.getTerrain(Terrain.HEDGE), map.getTerrain(Terrain.BOCAGE));
+      }
+      else if (s.equals("PlowedFields")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.GRAIN), map.getTerrain(Terrain.PLOWED_FIELD));
+      }
+      else if (s.equals("RiverToValley")) {
+
+      }
+      else if (s.equals("PondToValley")) {
+
+      }
+      else if (s.equals("IrrigatedPaddies")) {
+
+      }
+      else if (s.equals("InSeasonPaddies")) {
+
+      }
+      else if (s.equals("HedgeToCactus")) {
+
+      }
+      else if (s.equals("WallToCactus")) {
+
+      }
+      else if (s.equals("OrchardsToOliveGroves")) {
+
+      }
+      else if (s.equals("OrchardsToShellholes")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.ORCHARD), map.getTerrain(Terrain.SHELL_HOLES));
+      }
+      else if (s.equals("OrchardsToCrags")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.ORCHARD), map.getTerrain(Terrain.CRAGS));
+      }
+      else if (s.equals("CragsToShellholes")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.CRAGS), map.getTerrain(Terrain.SHELL_HOLES));
+      }
+      else if (s.equals("CragsToOrchards") || s.equals("CragsToPalmTrees")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.CRAGS), map.getTerrain(Terrain.ORCHARD));
+      }
+      else if (s.equals("DTOtoETO")) {
+
+      }
+      else if (s.equals("Winter")) {
+
+      }
+      else if (s.equals("Mud")) {
+
+      }
+      else if (s.equals("ETOtoDTO")) {
+
+      }
+      else if (s.equals("WoodsToVineyard")) {
+
+      }
+      else if (s.equals("BrushToVineyard")) {
+
+      }
+      else if (s.equals("GrainToVineyard")) {
+
+      }
+      else if (s.equals("MarshToVineyard")) {
+
+      }
+      else if (s.equals("Level_1ToVineyard")) {
+
+      }
+      else if (s.equals("Level1ToVineyard")) {
+
+      }
+      else if (s.equals("Level2ToVineyard")) {
+
+      }
+      else if (s.equals("Level3ToVineyard")) {
+
+      }
+      else if (s.equals("Level4ToVineyard")) {
+
+      }
+      else if (s.equals("WoodsToBrush")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.WOODS), map.getTerrain(Terrain.BRUSH));
+      }
+      else if (s.equals("GrainToBrush")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.GRAIN), map.getTerrain(Terrain.BRUSH));
+      }
+      else if (s.equals("MarshToBrush")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.BRUSH));
+      }
+      else if (s.equals("Level_1ToBrush")) {
+
+        changeHillToTerrain(map, -1, map.getTerrain(Terrain.BRUSH));
+      }
+      else if (s.equals("Level1ToBrush")) {
+
+        changeHillToTerrain(map, 1, map.getTerrain(Terrain.BRUSH));
+      }
+      else if (s.equals("Level2ToBrush")) {
+
+        changeHillToTerrain(map, 2, map.getTerrain(Terrain.BRUSH));
+      }
+      else if (s.equals("Level3ToBrush")) {
+
+        changeHillToTerrain(map, 3, map.getTerrain(Terrain.BRUSH));
+      }
+      else if (s.equals("Level4ToBrush")) {
+
+        changeHillToTerrain(map, 4, map.getTerrain(Terrain.BRUSH));
+      }
+      else if (s.equals("BrushToWoods")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.BRUSH), map.getTerrain(Terrain.WOODS));
+      }
+      else if (s.equals("GrainToWoods")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.GRAIN), map.getTerrain(Terrain.WOODS));
+      }
+      else if (s.equals("MarshToWoods")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.WOODS));
+      }
+      else if (s.equals("Level_1ToWoods")) {
+
+        changeHillToTerrain(map, -1, map.getTerrain(Terrain.WOODS));
+      }
+      else if (s.equals("Level1ToWoods")) {
+
+        changeHillToTerrain(map, 1, map.getTerrain(Terrain.WOODS));
+      }
+      else if (s.equals("Level2ToWoods")) {
+
+        changeHillToTerrain(map, 2, map.getTerrain(Terrain.WOODS));
+      }
+      else if (s.equals("Level3ToWoods")) {
+
+        changeHillToTerrain(map, 3, map.getTerrain(Terrain.WOODS));
+      }
+      else if (s.equals("Level4ToWoods")) {
+
+        changeHillToTerrain(map, 4, map.getTerrain(Terrain.WOODS));
+      }
+      else if (s.equals("WoodsToMarsh")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.WOODS), map.getTerrain(Terrain.MARSH));
+      }
+      else if (s.equals("BrushToMarsh")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.BRUSH), map.getTerrain(Terrain.MARSH));
+      }
+      else if (s.equals("GrainToMarsh")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.GRAIN), map.getTerrain(Terrain.MARSH));
+      }
+      else if (s.equals("Level_1ToMarsh")) {
+
+        changeHillToTerrain(map, -1, map.getTerrain(Terrain.MARSH));
+      }
+      else if (s.equals("Level1ToMarsh")) {
+
+        changeHillToTerrain(map, 1, map.getTerrain(Terrain.MARSH));
+      }
+      else if (s.equals("Level2ToMarsh")) {
+
+        changeHillToTerrain(map, 2, map.getTerrain(Terrain.MARSH));
+      }
+      else if (s.equals("Level3ToMarsh")) {
+
+        changeHillToTerrain(map, 3, map.getTerrain(Terrain.MARSH));
+      }
+      else if (s.equals("Level4ToMarsh")) {
+
+        changeHillToTerrain(map, 4, map.getTerrain(Terrain.MARSH));
+      }
+      else if (s.equals("WoodsToGrain")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.WOODS), map.getTerrain(Terrain.GRAIN));
+      }
+      else if (s.equals("BrushToGrain")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.BRUSH), map.getTerrain(Terrain.GRAIN));
+      }
+      else if (s.equals("MarshToGrain")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.GRAIN));
+      }
+      else if (s.equals("Level_1ToGrain")) {
+
+        changeHillToTerrain(map, -1, map.getTerrain(Terrain.GRAIN));
+      }
+      else if (s.equals("Level1ToGrain")) {
+
+        changeHillToTerrain(map, 1, map.getTerrain(Terrain.GRAIN));
+      }
+      else if (s.equals("Level2ToGrain")) {
+
+        changeHillToTerrain(map, 2, map.getTerrain(Terrain.GRAIN));
+      }
+      else if (s.equals("Level3ToGrain")) {
+
+        changeHillToTerrain(map, 3, map.getTerrain(Terrain.GRAIN));
+      }
+      else if (s.equals("Level4ToGrain")) {
+
+        changeHillToTerrain(map, 4, map.getTerrain(Terrain.GRAIN));
+      }
+      else if (s.equals("NoCliffs")) {
+
+        map.changeAllTerrain(map.getTerrain(Terrain.CLIFF), map.getTerrain(Terrain.OPEN_GROUND));
+      }
+      else if (s.equals("Level1ToBrushLevel2ToBrush")) {
+
+        changeHillToTerrain(map, 1, map.getTerrain(Terrain.BRUSH));
+        changeHillToTerrain(map, 2, map.getTerrain(Terrain.BRUSH));
+      }
+
+      // PTO SSR changes
+      else if (s.equals("RoadsToPaths") || s.equals("NoRoads") || s.equals("NoWoodsRoads")) {
+
+        Hex h = null;
+        // convert forest-road hexes
+        for (int col = 0; col < map.getWidth(); col++) {
+          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
+
+            h = map.getHex(col, row);
+            h.getCenterLocation().getTerrain();
+
+            boolean roadHexside = false;
+            boolean woodsHex = false;
+
+            for (int x = 0; x < 6; x++) {
+
+              if (h.getHexsideLocation(x).getTerrain().isRoadTerrain()) {
+                roadHexside = true;
+              }
+              if (h.getHexsideLocation(x).getTerrain().isWoodsTerrain()) {
+                woodsHex = true;
+              }
+
+            }
+
+            if (roadHexside && woodsHex) {
+
+              // first we have to map the road to ocean if near woods...
+              int x = h.getHexBorder().getBounds().x;
+              int y = h.getHexBorder().getBounds().y;
+              for (int i = x; i < x + h.getHexBorder().getBounds().width; i++) {
+                for (int j = y; j < y + h.getHexBorder().getBounds().height; j++) {
+
+                  if (map.getGridTerrain(i, j).isRoadTerrain() && isNearWoods(i, j, map)) {
+
+                    map.setGridTerrain(new Rectangle(i, j, 1, 1), map.getTerrain(Terrain.OCEAN));
+                  }
+                }
+              }
+
+              // then change the water to woods
+              map.changeAllTerrain(map.getTerrain(Terrain.OCEAN), map.getTerrain(Terrain.WOODS), h.getHexBorder());
+
+
+              // reset the hex terrain
+              map.setHexTerrain(h.getHexBorder(), map.getTerrain(Terrain.WOODS));
+            }
+          }
+        }
+      }
+      else if (s.equals("Bamboo")) {
+
+        Hex h, h2 = null;
+        Terrain t;
+        boolean woodsAdjacent = false;
+
+        // set all brush to bamboo
+        for (int col = 0; col < map.getWidth(); col++) {
+          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
+
+            h = map.getHex(col, row);
+            t = h.getCenterLocation().getTerrain();
+
+            if (t.getType() == Terrain.BRUSH) {
+
+              map.setGridTerrain(h.getHexBorder(), map.getTerrain(Terrain.BAMBOO));
+              map.setHexTerrain(h.getHexBorder(), map.getTerrain(Terrain.BAMBOO));
+            }
+
+            // assume we need to also change marsh to swamp here
+            else if (t.getType() == Terrain.MARSH) {
+
+              // are we adjacent to a woods hex?
+              for (int x = 0; x < 6; x++) {
+
+                h2 = map.getAdjacentHex(h, x);
+                if (h2 != null && (h2.getCenterLocation().getTerrain().getType() == Terrain.WOODS ||
+                    h2.getCenterLocation().getTerrain().getType() == Terrain.LIGHT_JUNGLE ||
+                    h2.getCenterLocation().getTerrain().getType() == Terrain.DENSE_JUNGLE)) {
+
+                  woodsAdjacent = true;
+                }
+              }
+
+              // change marsh to swamp
+              if (woodsAdjacent) {
+
+                map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.SWAMP), h.getHexBorder());
+              }
+            }
+          }
+        }
+
+        // pick up any stray brush
+        map.changeAllTerrain(map.getTerrain(Terrain.BRUSH), map.getTerrain(Terrain.BAMBOO));
+
+        // assume we need to also change to woods to jungle here
+        map.changeAllTerrain(map.getTerrain(Terrain.WOODS), map.getTerrain(Terrain.LIGHT_JUNGLE));
+
+        map.changeAllTerrain(map.getTerrain(Terrain.WOODS), map.getTerrain(Terrain.LIGHT_JUNGLE));
+
+
+      }
+      else if (s.equals("PalmTrees")) {
+
+      }
+      else if (s.equals("DenseJungle")) {
+
+        Hex h = null;
+        Terrain t;
+
+        // set all woods to dense jungle
+        for (int col = 0; col < map.getWidth(); col++) {
+          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
+
+            h = map.getHex(col, row);
+            t = h.getCenterLocation().getTerrain();
+
+            if (t.getType() == Terrain.WOODS || t.getType() == Terrain.LIGHT_JUNGLE) {
+
+              map.setGridTerrain(h.getHexBorder(), map.getTerrain(Terrain.DENSE_JUNGLE));
+              map.setHexTerrain(h.getHexBorder(), map.getTerrain(Terrain.DENSE_JUNGLE));
+            }
+          }
+        }
+      }
+      else if (s.equals("NoBridge")) {
+
+        // remove all bridges
+        for (int col = 0; col < map.getWidth(); col++) {
+          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
+
+            map.getHex(col, row).removeBridge();
+          }
+        }
+      }
+      else if (s.equals("BridgeToFord")) {
+
+        // remove all bridges
+        for (int col = 0; col < map.getWidth(); col++) {
+          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
+
+            map.getHex(col, row).removeBridge();
+          }
+        }
+      }
+      else if (s.equals("")) {
+
+      }
+    }
+
+//	map.writeMap("C:\\CASL\\Maps\\a.map");
+  }
+
+  private static void changeHillToTerrain(GameMap map, int level, Terrain t) {
+
+    for (int x = 0; x < map.getImageWidth(); x++) {
+      for (int y = 0; y < map.getImageHeight(); y++) {
+
+        if (map.getGridGroundLevel(x, y) == level) {
+
+          // set the ground level to zero
+          map.setGridGroundLevel(new Rectangle(x, y, 0, 0), null, 0);
+          map.gridToHex(x, y).setBaseHeight(0);
+
+          // change open ground to the terrain
+          if (map.getGridTerrain(x, y).getType() == Terrain.OPEN_GROUND) {
+
+            Rectangle r = new Rectangle(x, y, 1, 1);
+            map.setGridTerrain(r, t);
+            map.setHexTerrain(r, t);
+          }
+        }
+      }
+    }
+
+  }
+
+  private static boolean isNearWoods(int x, int y, GameMap map) {
+
+    int max = 8;
+
+    for (int i = x - max; i <= x + max; i++) {
+      for (int j = y - max; j <= y + max; j++) {
+
+        if (map.onMap(i, j) &&
+            map.getGridTerrain(i, j).isWoodsTerrain() &&
+            Point.distance((double) x, (double) y, (double) i, (double) j) <= max) {
+
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+}
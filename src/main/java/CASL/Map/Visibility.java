@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package CASL.Map;
+
+import java.util.BitSet;
+
+/**
+ * The result of a one-to-all LOS check (see <code>GameMap.getVisibility</code>):
+ * what a single location can see of every hex center on the map. Values are
+ * stored per hex using the dense hex index of the map.
+ */
+public class Visibility {
+
+	// hex values
+	public static final byte NOT_CHECKED	= -2;
+	public static final byte BLOCKED		= -1;
+
+	private GameMap		map;
+	private Location	source;
+	private int			maxRange;
+	private byte		values[];
+	private BitSet		visible;
+
+	Visibility(GameMap map, Location source, int maxRange) {
+
+		this.map		= map;
+		this.source		= source;
+		this.maxRange	= maxRange;
+
+		values	= new byte[map.getHexCount()];
+		visible	= new BitSet(values.length);
+		java.util.Arrays.fill(values, NOT_CHECKED);
+	}
+
+	// set by the workers; each worker owns a distinct range of hex indexes
+	void setBlocked(int hexIndex) {
+
+		values[hexIndex] = BLOCKED;
+	}
+
+	void setHindrance(int hexIndex, int hindrance) {
+
+		values[hexIndex] = (byte) Math.min(hindrance, Byte.MAX_VALUE);
+	}
+
+	// the visible bits are written once all workers have finished
+	void finish() {
+
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] >= 0) {
+				visible.set(i);
+			}
+		}
+	}
+
+	public GameMap	getMap()		{return map;}
+	public Location	getSource()		{return source;}
+	public int		getMaxRange()	{return maxRange;}
+
+	/**
+	 * Returns the hindrance to the hex center, <code>BLOCKED</code> if the LOS
+	 * is blocked or <code>NOT_CHECKED</code> if the hex is out of range.
+	 */
+	public int getValue(Hex h) {
+
+		return values[map.getHexIndex(h)];
+	}
+
+	public int getValue(int hexIndex) {
+
+		return values[hexIndex];
+	}
+
+	public boolean isChecked(Hex h) {
+
+		return getValue(h) != NOT_CHECKED;
+	}
+
+	public boolean isBlocked(Hex h) {
+
+		return getValue(h) == BLOCKED;
+	}
+
+	public boolean isVisible(Hex h) {
+
+		return getValue(h) >= 0;
+	}
+
+	/**
+	 * Returns the hex indexes with a clear or hindered LOS. The set must not be
+	 * modified.
+	 */
+	public BitSet getVisibleHexes() {
+
+		return visible;
+	}
+}
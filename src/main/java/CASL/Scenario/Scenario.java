@@ -17,6 +17,8 @@
 package CASL.Scenario;
 
 import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
@@ -27,16 +29,24 @@ import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.swing.JComponent;
 
 import CASL.Map.Hex;
+import CASL.Map.Location;
+import CASL.Map.Smoke;
+import CASL.Map.Terrain;
 import CASL.Unit.Counter;
 import CASL.Unit.Fortification;
 import CASL.Unit.Infantry;
@@ -60,6 +70,19 @@ public class Scenario
 	private HashSet axisUnits		= new HashSet(20);
 	private HashSet alliedUnits	= new HashSet(20);
 
+	// hexes of the units, smoke and terrain added, in order (used by the map LOS cache)
+	private transient Vector changes;
+
+	// units by hex (see getHexUnits)
+	private static final List<Unit> NO_UNITS = Collections.emptyList();
+	private transient volatile HashMap<Hex, ArrayList<Unit>> hexUnits;
+
+	// smoke and terrain placed on the map for this scenario only (see GameMap.LOS)
+	private static final List<Smoke> NO_SMOKE = Collections.emptyList();
+	private transient HashMap<Hex, ArrayList<Smoke>> hexSmoke;
+	private transient ArrayList<TerrainArea> terrainAreas;
+	private transient HashMap<Location, Terrain> locationTerrain;
+
 	public final static int MAX_GROUPS 	= 5;
 
 	private ScenarioGroup axisGroups[]	= new ScenarioGroup[MAX_GROUPS];
@@ -209,10 +232,163 @@ public class Scenario
 			alliedUnits.add(u);
 		}
 
+		// index the unit by hex
+		if (hexUnits != null){
+
+			indexUnit(hexUnits, u);
+		}
+
+		// remember the hex for anyone caching LOS results
+		if (u.getLocation() != null){
+
+			addChange(u.getLocation().getHex());
+		}
+
 		// set the changed flag
 		changed = true;
 	}
 
+	/*
+	 * Number of units, smoke and terrain added since the scenario was created.
+	 * It serves as the version of the scenario: LOS results computed against
+	 * one version stay valid outside the hexes changed since.
+	 */
+	public int getChangeCount(){
+
+		return changes == null ? 0 : changes.size();
+	}
+
+	// hex of the nth change
+	public Hex getChangeHex(int index){
+
+		return (Hex) changes.get(index);
+	}
+
+	private void addChange(Hex h){
+
+		if (changes == null){
+			changes = new Vector();
+		}
+		changes.add(h);
+	}
+
+	/*
+	 * Smoke and terrain such as rubble are placed in the scenario rather than
+	 * on the map, so that one map can be shared by any number of scenarios and
+	 * LOS threads, and a new scenario starts from the board terrain again. The
+	 * scenario must not be changed while it is used to check LOS.
+	 */
+	public void addSmoke(Smoke s){
+
+		if (s.getLocation() == null){
+
+			return;
+		}
+
+		if (hexSmoke == null){
+			hexSmoke = new HashMap<Hex, ArrayList<Smoke>>();
+		}
+
+		Hex h = s.getLocation().getHex();
+		ArrayList<Smoke> smoke = hexSmoke.get(h);
+		if (smoke == null){
+
+			smoke = new ArrayList<Smoke>(2);
+			hexSmoke.put(h, smoke);
+		}
+		smoke.add(s);
+		addChange(h);
+	}
+
+	// the smoke in a hex; the list belongs to the scenario and must not be modified
+	public List<Smoke> getHexSmoke(Hex h){
+
+		if (hexSmoke == null || h == null){
+
+			return NO_SMOKE;
+		}
+
+		List<Smoke> smoke = hexSmoke.get(h);
+		return smoke == null ? NO_SMOKE : smoke;
+	}
+
+	/*
+	 * Changes the terrain of a hex for this scenario, as setting both the grid
+	 * and the hex terrain of the hex border on the map would.
+	 */
+	public void setHexTerrain(Hex h, Terrain terr){
+
+		Shape border = h.getHexBorder();
+
+		if (terrainAreas == null){
+
+			terrainAreas	= new ArrayList<TerrainArea>();
+			locationTerrain	= new HashMap<Location, Terrain>();
+		}
+		terrainAreas.add(new TerrainArea(border, terr));
+
+		if (border.contains(h.getCenterLocation().getLOSPoint())){
+
+			locationTerrain.put(h.getCenterLocation(), terr);
+		}
+		for (int x = 0; x < 6; x++){
+
+			if (border.contains(h.getHexsideLocation(x).getEdgeCenterPoint())){
+
+				locationTerrain.put(h.getHexsideLocation(x), terr);
+			}
+		}
+		addChange(h);
+	}
+
+	public boolean hasTerrainChanges(){
+
+		return terrainAreas != null;
+	}
+
+	// does the scenario change the terrain of any pixel within the rectangle?
+	public boolean changesTerrainWithin(Rectangle r){
+
+		if (terrainAreas == null){
+
+			return false;
+		}
+		for (int i = 0; i < terrainAreas.size(); i++){
+
+			if (terrainAreas.get(i).bounds.intersects(r)){
+
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// terrain of a map pixel set by the scenario, or null if unchanged
+	public Terrain getGridTerrain(int x, int y){
+
+		if (terrainAreas == null){
+
+			return null;
+		}
+
+		// the last terrain placed wins
+		for (int i = terrainAreas.size() - 1; i >= 0; i--){
+
+			TerrainArea a = terrainAreas.get(i);
+			if (a.bounds.contains(x, y) && a.shape.contains(x, y)){
+
+				return a.terrain;
+			}
+		}
+		return null;
+	}
+
+	// terrain of a location set by the scenario, or null if unchanged
+	public Terrain getTerrain(Location l){
+
+		return locationTerrain == null ? null : locationTerrain.get(l);
+	}
+
 	public void addCounter(int side, int group, int bucket, Counter c, int qty){
 
 		if (side == AXIS){
@@ -288,62 +464,106 @@ public class Scenario
 	public HashSet getVehicles(Hex h,int level){
 
 		HashSet temp = new HashSet();
+		List<Unit> units = getHexUnits(h);
 		Unit u;
 
-		// add the axis
-		Iterator iter = axisUnits.iterator();
-		while (iter.hasNext()){
+		for (int x = 0; x < units.size(); x++){
 
-			u = (Unit) iter.next();
-			if (u.isVehicle() && u.getLocation().getHex() == h && (level == -1 || level == u.getLocation().getAbsoluteHeight())){
+			u = units.get(x);
+			if (u.isVehicle() && (level == -1 || level == u.getLocation().getAbsoluteHeight())){
 
 				temp.add(u);
 			}
 		}
+		return temp;
+	}
 
-		// add the allies
-		iter = alliedUnits.iterator();
-		while (iter.hasNext()){
+	// number of vehicles in a hex
+	public int getVehicleCount(Hex h){
 
-			u = (Unit) iter.next();
-			if (u.isVehicle() && u.getLocation().getHex() == h && (level == -1 || level == u.getLocation().getAbsoluteHeight())){
+		return getVehicleCount(h, -1);
+	}
 
-				temp.add(u);
+	// number of vehicles in a hex at the given absolute height (-1 for any height)
+	public int getVehicleCount(Hex h, int level){
+
+		List<Unit> units = getHexUnits(h);
+		Unit u;
+		int count = 0;
+
+		for (int x = 0; x < units.size(); x++){
+
+			u = units.get(x);
+			if (u.isVehicle() && (level == -1 || level == u.getLocation().getAbsoluteHeight())){
+
+				count++;
 			}
 		}
-		return temp;
+		return count;
 	}
 
-	public HashSet getVehicles(){
+	// the units in a hex; the list belongs to the scenario and must not be modified
+	public List<Unit> getHexUnits(Hex h){
 
-		HashSet temp = new HashSet();
-		Unit u;
+		if (h == null){
 
-		// add the axis
-		Iterator iter = axisUnits.iterator();
-		while (iter.hasNext()){
+			return NO_UNITS;
+		}
 
-			u = (Unit) iter.next();
-			if (u.isVehicle()){
+		HashMap<Hex, ArrayList<Unit>> index = hexUnits;
+		if (index == null){
 
-				temp.add(u);
-			}
+			index = buildHexUnits();
 		}
 
-		// add the allies
-		iter = alliedUnits.iterator();
-		while (iter.hasNext()){
+		List<Unit> units = index.get(h);
+		return units == null ? NO_UNITS : units;
+	}
 
-			u = (Unit) iter.next();
-			if (u.isVehicle()){
+	// build the index on first use (it is not saved with the scenario)
+	private synchronized HashMap<Hex, ArrayList<Unit>> buildHexUnits(){
 
-				temp.add(u);
+		if (hexUnits == null){
+
+			HashMap<Hex, ArrayList<Unit>> index = new HashMap<Hex, ArrayList<Unit>>();
+
+			Iterator iter = axisUnits.iterator();
+			while (iter.hasNext()){
+
+				indexUnit(index, (Unit) iter.next());
+			}
+
+			iter = alliedUnits.iterator();
+			while (iter.hasNext()){
+
+				indexUnit(index, (Unit) iter.next());
 			}
+			hexUnits = index;
 		}
-		return temp;
+		return hexUnits;
 	}
 
-	public HashSet getUnits(Hex h){
+	private void indexUnit(HashMap<Hex, ArrayList<Unit>> index, Unit u){
+
+		if (u.getLocation() == null){
+
+			return;
+		}
+
+		Hex h = u.getLocation().getHex();
+		ArrayList<Unit> units = index.get(h);
+		if (units == null){
+
+			units = new ArrayList<Unit>(2);
+			index.put(h, units);
+		}
+		if (!units.contains(u)){
+
+			units.add(u);
+		}
+	}
+
+	public HashSet getVehicles(){
 
 		HashSet temp = new HashSet();
 		Unit u;
@@ -353,7 +573,7 @@ public class Scenario
 		while (iter.hasNext()){
 
 			u = (Unit) iter.next();
-			if (u.getLocation().getHex() == h){
+			if (u.isVehicle()){
 
 				temp.add(u);
 			}
@@ -364,7 +584,7 @@ public class Scenario
 		while (iter.hasNext()){
 
 			u = (Unit) iter.next();
-			if (u.getLocation().getHex() == h){
+			if (u.isVehicle()){
 
 				temp.add(u);
 			}
@@ -372,6 +592,11 @@ public class Scenario
 		return temp;
 	}
 
+	public HashSet getUnits(Hex h){
+
+		return new HashSet(getHexUnits(h));
+	}
+
 	public int numberOfUnits(){return axisUnits.size() + alliedUnits.size();}
 
 	public static Scenario readScenario(String filename){
@@ -558,4 +783,18 @@ public class Scenario
 			}
 		}
 	}
+
+	private static class TerrainArea {
+
+		private Shape		shape;
+		private Rectangle	bounds;
+		private Terrain		terrain;
+
+		private TerrainArea(Shape shape, Terrain terrain){
+
+			this.shape		= shape;
+			this.bounds		= shape.getBounds();
+			this.terrain	= terrain;
+		}
+	}
 }
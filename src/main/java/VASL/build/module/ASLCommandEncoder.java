@@ -27,6 +27,7 @@ import javax.swing.JPanel;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import VASL.build.module.map.HindranceIndex;
 import VASL.counters.ASLHighlighter;
 import VASL.counters.ColorTable;
 import VASL.counters.ColoredBox;
@@ -92,6 +93,7 @@ public class ASLCommandEncoder extends VASSAL.build.module.BasicCommandEncoder i
 
   public Command decode(String command) {
     Command c = super.decode(command);
+    HindranceIndex.commandReceived(c);
 //    if (c == null) {
 //      c = decodeBackwardCompatible(command);
 //    }
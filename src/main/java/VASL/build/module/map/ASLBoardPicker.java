@@ -40,7 +40,6 @@ import VASSAL.command.NullCommand;
 import VASSAL.configure.DirectoryConfigurer;
 import VASSAL.configure.ValidationReport;
 import VASSAL.tools.ErrorDialog;
-import VASSAL.tools.ReadErrorDialog;
 
 import java.awt.CardLayout;
 import java.awt.Component;
@@ -97,7 +96,6 @@ import javax.swing.ListModel;
 import javax.swing.ListSelectionModel;
 import javax.swing.event.ListSelectionListener;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
@@ -353,35 +351,14 @@ public class ASLBoardPicker extends BoardPicker implements ActionListener {
     allowMultiple = true;
   }
 
+  // boards are sliced into tiles when they are first built, see buildBoard
   public void addBoard(String name) {
-///
-    final GameModule g = GameModule.getGameModule();
-    final String hstr =
-      DigestUtils.sha1Hex(g.getGameName() + "_" + g.getGameVersion());
-
-    final File fpath = new File(boardDir, "bd" + name);
-
-    final ASLTilingHandler th = new ASLTilingHandler(
-      fpath.getAbsolutePath(),
-      new File(getCacheDir(), "tiles/" + hstr),
-      new Dimension(256, 256),
-      1024
-    );
-
-    try {
-      th.sliceTiles();
-    }
-    catch (IOException e) {
-      ReadErrorDialog.error(e, fpath);
-    }
-///
-
     final ASLBoard b = new ASLBoard();
     b.setCommonName(name);
     possibleBoards.add(b);
   }
 
-  private File getCacheDir() {
+  public static File getCacheDir() {
     try {
       final Method m = Info.class.getDeclaredMethod("getCacheDir");
       return (File) m.invoke(null);
@@ -483,6 +460,18 @@ public class ASLBoardPicker extends BoardPicker implements ActionListener {
       else {
         throw new BoardException("Unable to find board " + baseName);
       }
+      if (f.isFile() && !f.getName().endsWith(".gif")) {
+        final ASLTileSlicer slicer = ASLTileSlicer.getInstance();
+        if (!slicer.isSliced(f)) {
+          // the board draws from the board image until its tiles are ready
+          final ASLBoard board = b;
+          slicer.slice(f, new Runnable() {
+            public void run() {
+              board.tilesSliced();
+            }
+          });
+        }
+      }
       b.readData();
     }
     catch (Exception eParse) {
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package VASL.build.module.map;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import VASSAL.build.GameModule;
+import VASSAL.tools.ReadErrorDialog;
+
+/**
+ * Slices board images into the tile cache in the background, when a board
+ * is first used rather than for every board in the board directory.
+ * <p>
+ * A manifest in the tile folder records the size, modification time and
+ * SHA-1 hash of each board archive that has been sliced. A board whose size
+ * and time are unchanged is skipped without opening it; one that was only
+ * touched is recognized by its hash.
+ */
+public class ASLTileSlicer {
+  private static final Logger logger =
+    LoggerFactory.getLogger(ASLTileSlicer.class);
+
+  // each tiler runs in its own process with a heap of up to MAX_HEAP MB
+  private static final int MAX_THREADS = 2;
+  private static final int MAX_HEAP = 1024;
+
+  private static final Dimension TILE_SIZE = new Dimension(256, 256);
+  private static final String MANIFEST = "manifest.properties";
+
+  private static ASLTileSlicer instance;
+
+  private final File tileDir;
+  private final File manifestFile;
+  private final Properties manifest = new Properties();
+  private final Map<File, Future<?>> pending = new HashMap<File, Future<?>>();
+  private final Map<File, List<Runnable>> whenSliced = new HashMap<File, List<Runnable>>();
+  private final ExecutorService executor;
+
+  public static synchronized ASLTileSlicer getInstance() {
+    if (instance == null) {
+      final GameModule g = GameModule.getGameModule();
+      final String hstr =
+        DigestUtils.sha1Hex(g.getGameName() + "_" + g.getGameVersion());
+      instance = new ASLTileSlicer(new File(ASLBoardPicker.getCacheDir(), "tiles/" + hstr));
+    }
+    return instance;
+  }
+
+  public ASLTileSlicer(File tileDir) {
+    this.tileDir = tileDir;
+    manifestFile = new File(tileDir, MANIFEST);
+    readManifest();
+
+    final int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        final Thread t = new Thread(r, "Board tile slicer " + count.incrementAndGet());
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Slices the board archive in the background unless it is already
+   * sliced or queued.
+   *
+   * @return the pending slicing of the board
+   */
+  public Future<?> slice(File board) {
+    return slice(board, null);
+  }
+
+  /**
+   * Slices the board archive in the background unless it is already
+   * sliced or queued.
+   *
+   * @param whenSliced run on the event dispatch thread once the board is
+   * sliced; not run if slicing fails. May be null.
+   * @return the pending slicing of the board
+   */
+  public Future<?> slice(final File board, Runnable whenSliced) {
+    synchronized (pending) {
+      if (whenSliced != null) {
+        List<Runnable> l = this.whenSliced.get(board);
+        if (l == null) {
+          l = new ArrayList<Runnable>();
+          this.whenSliced.put(board, l);
+        }
+        l.add(whenSliced);
+      }
+
+      Future<?> f = pending.get(board);
+      if (f == null) {
+        f = executor.submit(new Runnable() {
+          public void run() {
+            List<Runnable> done = null;
+            try {
+              sliceBoard(board);
+            }
+            finally {
+              synchronized (pending) {
+                pending.remove(board);
+                done = ASLTileSlicer.this.whenSliced.remove(board);
+              }
+            }
+            if (done != null && isSliced(board)) {
+              for (Runnable r : done) {
+                SwingUtilities.invokeLater(r);
+              }
+            }
+          }
+        });
+        pending.put(board, f);
+      }
+      return f;
+    }
+  }
+
+  /**
+   * Is the board archive unchanged since it was last sliced?
+   */
+  public boolean isSliced(File board) {
+    final String[] entry = getEntry(board);
+    return entry != null
+      && Long.toString(board.length()).equals(entry[0])
+      && Long.toString(board.lastModified()).equals(entry[1]);
+  }
+
+  private void sliceBoard(File board) {
+    if (isSliced(board)) {
+      return;
+    }
+
+    final long size = board.length();
+    final long modified = board.lastModified();
+    final String hash;
+    try (InputStream in = new FileInputStream(board)) {
+      hash = DigestUtils.sha1Hex(in);
+    }
+    catch (IOException e) {
+      readError(e, board);
+      return;
+    }
+
+    // same contents with a new time stamp
+    final String[] entry = getEntry(board);
+    if (entry != null && hash.equals(entry[2])) {
+      putEntry(board, size, modified, hash);
+      return;
+    }
+
+    final ASLTilingHandler th = new ASLTilingHandler(
+      board.getAbsolutePath(),
+      tileDir,
+      TILE_SIZE,
+      MAX_HEAP
+    );
+
+    try {
+      th.sliceTiles();
+      putEntry(board, size, modified, hash);
+    }
+    catch (IOException e) {
+      readError(e, board);
+    }
+  }
+
+  // called on a slicer thread; the dialog belongs on the EDT
+  private void readError(final IOException e, final File board) {
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        ReadErrorDialog.error(e, board);
+      }
+    });
+  }
+
+  private String[] getEntry(File board) {
+    final String value;
+    synchronized (manifest) {
+      value = manifest.getProperty(board.getName());
+    }
+    if (value == null) {
+      return null;
+    }
+    final String[] entry = value.split(",");
+    return entry.length == 3 ? entry : null;
+  }
+
+  private void putEntry(File board, long size, long modified, String hash) {
+    synchronized (manifest) {
+      manifest.setProperty(board.getName(), size + "," + modified + "," + hash);
+      writeManifest();
+    }
+  }
+
+  private void readManifest() {
+    if (!manifestFile.isFile()) {
+      return;
+    }
+    try (InputStream in = new FileInputStream(manifestFile)) {
+      manifest.load(in);
+    }
+    catch (IOException e) {
+      // start over; boards are checked again as they are used
+      logger.warn("Unable to read tile manifest " + manifestFile, e);
+      manifest.clear();
+    }
+  }
+
+  // called with the manifest locked
+  private void writeManifest() {
+    tileDir.mkdirs();
+    final File tmp = new File(tileDir, MANIFEST + ".tmp");
+    try (OutputStream out = new FileOutputStream(tmp)) {
+      manifest.store(out, "Sliced board archives: size,modified,sha1");
+    }
+    catch (IOException e) {
+      logger.warn("Unable to write tile manifest " + manifestFile, e);
+      tmp.delete();
+      return;
+    }
+    if (!tmp.renameTo(manifestFile)) {
+      manifestFile.delete();
+      if (!tmp.renameTo(manifestFile)) {
+        tmp.delete();
+      }
+    }
+  }
+}
@@ -6,11 +6,20 @@ import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.Future;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import VASSAL.launch.TilingHandler;
 import VASSAL.tools.DataArchive;
 import VASSAL.tools.io.FileArchive;
 
 public class ASLTilingHandler extends VASSAL.launch.TilingHandler {
+  private static final Logger logger =
+    LoggerFactory.getLogger(ASLTilingHandler.class);
+
+  // the archive name, for progress reports
+  private final String name;
+
   public ASLTilingHandler(
     String aname,
     File cdir,
@@ -18,6 +27,7 @@ public class ASLTilingHandler extends VASSAL.launch.TilingHandler {
     int mhlim)
   {
     super(aname, cdir, tdim, mhlim);
+    name = new File(aname).getName();
   }
 
   @Override
@@ -27,30 +37,47 @@ public class ASLTilingHandler extends VASSAL.launch.TilingHandler {
   }
 
   @Override
-  protected StateMachineHandler createStateMachineHandler(int tcount, Future<Integer> fut) {
+  protected StateMachineHandler createStateMachineHandler(final int tcount, Future<Integer> fut) {
     return new StateMachineHandler() {
+      private int written;
+      private int reported;
+      private long start;
+
       @Override
       public void handleStart() {
+        start = System.currentTimeMillis();
+        logger.info("Slicing {} tiles for {}", tcount, name);
       }
 
       @Override
       public void handleStartingImageState(String ipath) {
+        logger.debug("Slicing {}", ipath);
       }
 
+      // reports every tenth of the tiles
       @Override
       public void handleTileWrittenState() {
+        ++written;
+        final int percent = tcount > 0 ? written * 100 / tcount : 100;
+        if (percent >= reported + 10) {
+          reported = percent - percent % 10;
+          logger.debug("Sliced {}% of {}", reported, name);
+        }
       }
 
       @Override
       public void handleTilingFinishedState() {
+        logger.debug("Sliced {} of {} tiles for {}", written, tcount, name);
       }
 
       @Override
       public void handleSuccess() {
+        logger.info("Sliced {} in {} ms", name, System.currentTimeMillis() - start);
       }
 
       @Override
       public void handleFailure() {
+        logger.warn("Slicing {} failed after {} of {} tiles", name, written, tcount);
       }
     };
   }
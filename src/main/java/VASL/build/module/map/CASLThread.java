@@ -34,11 +34,17 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 
 import org.slf4j.Logger;
@@ -48,12 +54,12 @@ import CASL.Map.GameMap;
 import CASL.Map.Hex;
 import CASL.Map.LOSResult;
 import CASL.Map.Location;
+import CASL.Map.MapFile;
 import CASL.Map.Smoke;
 import CASL.Map.Terrain;
+import CASL.Map.TerrainChanges;
 import CASL.Scenario.Scenario;
 import VASL.build.module.map.boardPicker.ASLBoard;
-import VASL.counters.ASLProperties;
-import VASL.counters.TextInfo;
 import VASSAL.build.Buildable;
 import VASSAL.build.GameModule;
 import VASSAL.build.module.GameComponent;
@@ -62,9 +68,6 @@ import VASSAL.build.module.map.boardPicker.board.HexGrid;
 import VASSAL.command.Command;
 import VASSAL.configure.BooleanConfigurer;
 import VASSAL.configure.ColorConfigurer;
-import VASSAL.counters.Decorator;
-import VASSAL.counters.GamePiece;
-import VASSAL.counters.PieceIterator;
 
 /**
  * Extends the LOS thread to take advantage of CASL's LOS logic and report
@@ -77,6 +80,23 @@ public class CASLThread
     LoggerFactory.getLogger(CASLThread.class);
 
   public static final String ENABLED = "LosCheckEnabled";
+
+  // number of LOS results the map keeps
+  private static final int LOS_CACHE_SIZE = 4096;
+
+  // maximum number of boards loaded at once
+  private static final int MAX_LOAD_THREADS = 4;
+
+  // checks the LOS for all maps, off the event thread
+  private static final ExecutorService losWorker =
+    Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        final Thread t = new Thread(r, "LOS worker");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
   // status flag
 
   private int status = LOADING;
@@ -99,6 +119,14 @@ public class CASLThread
   private Scenario scenario;
   private ASLBoard upperLeftBoard;
 
+  // hindrance counters on the map, and whether the scenario holds them
+  private HindranceIndex hindrances;
+  private boolean hindrancesLoaded;
+
+  // the newest LOS check asked for, and the one waiting for the worker
+  private LOSRequest losRequest;
+  private final AtomicReference<LOSRequest> pendingLOS = new AtomicReference<LOSRequest>();
+
   // LOS colors
   private Color LOSColor;
   private Color hindranceColor;
@@ -181,6 +209,7 @@ public class CASLThread
       // create the necessary LOS variables
       result = new LOSResult();
       scenario = new Scenario();
+      hindrancesLoaded = false;
       resultsString = "";
 
       // create the map
@@ -193,59 +222,59 @@ public class CASLThread
 
 
 
-      // load the CASL maps
+      // load the CASL maps in parallel, then insert them in board order
       boolean mapFound = false;
-      for (ASLBoard b : boardList) {
+      ExecutorService loader = Executors.newFixedThreadPool(
+          Math.max(1, Math.min(boardList.size(), Math.min(MAX_LOAD_THREADS, Runtime.getRuntime().availableProcessors()))));
+      try {
+        List<Future<BoardLoad>> loads = new ArrayList<Future<BoardLoad>>(boardList.size());
+        for (final ASLBoard b : boardList) {
+          loads.add(loader.submit(new Callable<BoardLoad>() {
+            public BoardLoad call() {
+              return loadBoard(b);
+            }
+          }));
+        }
 
-        String boardName = b.getName().startsWith("r") ? b.getName().substring(1) : b.getName();
+        for (int i = 0; i < boardList.size(); i++) {
 
-        // set the upper left board
-        if (b.relativePosition().x == 0 && b.relativePosition().y == 0) {
+          ASLBoard b = boardList.get(i);
 
-          upperLeftBoard = b;
-        }
+          // set the upper left board
+          if (b.relativePosition().x == 0 && b.relativePosition().y == 0) {
 
-        // load the map files
-        GameMap newCASLMap;
-        if (b.getBoardArchive() == null) {
-          newCASLMap = null;
-        }
-        else {
-          try (InputStream in = b.getBoardArchive().getInputStream("bd" + boardName + ".map")) {
-            newCASLMap = CASL.Map.Map.readMap(in);
+            upperLeftBoard = b;
           }
-          catch (IOException e) {
-            freeResources();
-            return "@LOS engine disabled... Could not read bd" + boardName + ".map";
+
+          BoardLoad load;
+          try {
+            load = loads.get(i).get();
           }
-        }
+          catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+          }
+          loads.set(i, null);
 
-        if (newCASLMap == null) {
-          freeResources();
-          return "LOS engine disabled... Board " + boardName + " does not support LOS checking";
-        }
+          if (load.error != null) {
+            freeResources();
+            return load.error;
+          }
 
-        else {
           mapFound = true;
-          applyTerrainChanges(b, newCASLMap);
-          // reverse if necessary
-          if (b.isReversed()) {
-            newCASLMap.flip();
-          }
 
           // add to map
-          if (!CASLMap.insertGEOMap(newCASLMap, CASLMap.getHex(b.relativePosition().x * ((int) (Math.round(b.getUncroppedSize().getWidth() / 56.25))), b.relativePosition().y * ((int) (Math.round(b.getUncroppedSize().getHeight() / 64.5)))))) {
+          long start = System.currentTimeMillis();
+          if (!CASLMap.insertGEOMap(load.map, CASLMap.getHex(b.relativePosition().x * ((int) (Math.round(b.getUncroppedSize().getWidth() / 56.25))), b.relativePosition().y * ((int) (Math.round(b.getUncroppedSize().getHeight() / 64.5)))))) {
             System.err.println("LOS engine disabled... Error building map");
-            newCASLMap = null;
             freeResources();
             return "LOS engine disabled... Error building map";
           }
-
-          // clean up to try to reuse the same memory
-          newCASLMap = null;
-          System.gc();
+          logger.info("LOS board " + load.name + " loaded in " + load.loadTime + " ms, inserted in " + (System.currentTimeMillis() - start) + " ms");
         }
       }
+      finally {
+        loader.shutdownNow();
+      }
 
       // found no boards?
       if (!mapFound) {
@@ -253,6 +282,12 @@ public class CASLThread
         freeResources();
         return "LOS engine disabled... No board found";
       }
+
+      // remember recent results while the thread is dragged around
+      CASLMap.setLOSCacheSize(LOS_CACHE_SIZE);
+
+      // smoke and rubble go in the scenario from now on
+      CASLMap.freeze();
     }
         // give up with any exception
     catch (Exception e) {
@@ -263,12 +298,86 @@ public class CASLThread
     return null;
   }
 
+  /**
+   * Reads the CASL map of a board, applies the board's terrain changes and
+   * flips it if the board is reversed. Called on the loader threads.
+   */
+  private BoardLoad loadBoard(ASLBoard b) {
+
+    BoardLoad load = new BoardLoad();
+    load.name = b.getName().startsWith("r") ? b.getName().substring(1) : b.getName();
+    long start = System.currentTimeMillis();
+
+    // load the map files
+    GameMap newCASLMap = null;
+    if (b.getBoardArchive() != null) {
+
+      // prefer the binary map file, falling back to the serialized map
+      try (InputStream in = b.getBoardArchive().getInputStream("bd" + load.name + MapFile.EXTENSION)) {
+        newCASLMap = MapFile.read(in);
+      }
+      catch (IOException e) {
+        // no usable binary map file
+      }
+
+      if (newCASLMap == null) {
+        try (InputStream in = b.getBoardArchive().getInputStream("bd" + load.name + ".map")) {
+          newCASLMap = CASL.Map.Map.readMap(in);
+        }
+        catch (IOException e) {
+          load.error = "@LOS engine disabled... Could not read bd" + load.name + ".map";
+          return load;
+        }
+      }
+    }
+
+    if (newCASLMap == null) {
+      load.error = "LOS engine disabled... Board " + load.name + " does not support LOS checking";
+      return load;
+    }
+
+    TerrainChanges.apply(b.getState(), newCASLMap);
+    // reverse if necessary
+    if (b.isReversed()) {
+      newCASLMap.flip();
+    }
+
+    load.map = newCASLMap;
+    load.loadTime = System.currentTimeMillis() - start;
+    return load;
+  }
+
+  // a board map ready to be inserted
+  private static class BoardLoad {
+    String name;
+    GameMap map;
+    String error;
+    long loadTime;
+  }
+
   protected GameMap createCASLMap(int w, int h) {
     return new GameMap(w, h);
   }
 
+  protected GameMap getCASLMap() {
+    return CASLMap;
+  }
+
+  protected Location getSource() {
+    return source;
+  }
+
+  protected boolean isUseAuxSourceLOSPoint() {
+    return useAuxSourceLOSPoint;
+  }
+
+  protected Scenario getScenario() {
+    return scenario;
+  }
+
   public void addTo(Buildable buildable) {
     super.addTo(buildable);
+    hindrances = new HindranceIndex(map);
     if (status != DISABLED) {
       // add the key listener
       map.getView().addKeyListener(this);
@@ -331,6 +440,7 @@ public class CASLThread
       return;
     }
     result.setClear();
+    losRequest = null;
     // get the map point
     Point p = mapMouseToCASLCoordinates(e.getPoint());
     if (p == null || !CASLMap.onMap(p.x, p.y)) return;
@@ -353,6 +463,7 @@ public class CASLThread
   public void mouseReleased(MouseEvent e) {
       source = null;
       target = null;
+      losRequest = null;
       super.mouseReleased(e);
   }
 
@@ -436,21 +547,25 @@ public class CASLThread
           targetLOSPoint = new Point(target.getLOSPoint());
         }
         targetLOSPoint = mapCASLPointToScreen(targetLOSPoint, os_scale);
+        // until the LOS check lands, draw a plain thread
+        final boolean pending = losRequest != null;
+        final boolean blocked = !pending && result.isBlocked();
+        final boolean hindered = !pending && result.hasHindrance();
         // transform the blocked-at point
         Point b = null;
-        if (result.isBlocked()) {
+        if (blocked) {
           b = new Point(result.getBlockedAtPoint());
           b = mapCASLPointToScreen(b, os_scale);
         }
         // transform the hindrance point
         Point h = null;
-        if (result.hasHindrance()) {
+        if (hindered) {
           h = new Point(result.firstHindranceAt());
           h = mapCASLPointToScreen(h, os_scale);
         }
         // draw the LOS thread
-        if (result.isBlocked()) {
-          if (result.hasHindrance()) {
+        if (blocked) {
+          if (hindered) {
             g.setColor(LOSColor);
             g.drawLine(
                 sourceLOSPoint.x,
@@ -485,7 +600,7 @@ public class CASLThread
                 targetLOSPoint.y);
           }
         }
-        else if (result.hasHindrance()) {
+        else if (hindered) {
           g.setColor(LOSColor);
           g.drawLine(
               sourceLOSPoint.x,
@@ -603,10 +718,13 @@ public class CASLThread
   public void keyTyped(KeyEvent e) {
   }
 
+  // key commands act on the selected pieces, before and after the key
   public void keyReleased(KeyEvent e) {
+    hindrances.selectionChanged();
   }
 
   public void keyPressed(KeyEvent e) {
+    hindrances.selectionChanged();
     if (!isEnabled()) {
       return;
     }
@@ -669,9 +787,12 @@ public class CASLThread
     // release all resource
     CASLMap = null;
     result = null;
+    losRequest = null;
     source = null;
     target = null;
     scenario = null;
+    hindrances.clear();
+    hindrancesLoaded = false;
     System.gc();
   }
 
@@ -692,112 +813,167 @@ public class CASLThread
     return region;
   }
 
+  /*
+   * Checks the LOS from source to target on the worker thread. While a drag
+   * is in progress only the newest source and target are checked; results
+   * for any other pair are dropped. The range is shown until the check is
+   * done, then the thread is redrawn with its result.
+   */
   private void doLOS() {
 	if(source == null)
 	{
 		System.err.println("LOS failed: no source hex");
 		return;
 	}
-    // do the LOS
-    CASLMap.LOS(source, useAuxSourceLOSPoint, target, useAuxTargetLOSPoint, result, scenario);
-    // set the result string
-    resultsString =
-        "Range: " + result.getRange();
-    lastRange = String.valueOf(result.getRange());
-    if (isVerbose()) {
+    final LOSRequest r = new LOSRequest(CASLMap, source, useAuxSourceLOSPoint, target, useAuxTargetLOSPoint, scenario, isVerbose());
+    losRequest = r;
+    // the range is cheap enough to show at once
+    final int range = CASLMap.range(source.getHex(), target.getHex());
+    resultsString = "Range: " + range;
+    lastRange = String.valueOf(range);
+    // start the worker unless it has yet to pick up an earlier request
+    if (pendingLOS.getAndSet(r) == null) {
+      losWorker.execute(new Runnable() {
+        public void run() {
+          final LOSRequest next = pendingLOS.getAndSet(null);
+          if (next != null) {
+            checkLOS(next);
+          }
+        }
+      });
+    }
+  }
+
+  // worker thread
+  private void checkLOS(final LOSRequest r) {
+    final LOSResult res = r.map.createLOSResult();
+    final String s;
+    try {
+      r.map.LOS(r.source, r.useAuxSourceLOSPoint, r.target, r.useAuxTargetLOSPoint, res, r.scenario);
+      s = getResultsString(r.map, res, r.verbose);
+    }
+    catch (RuntimeException e) {
+      logger.error("LOS failed from " + r.source.getName() + " to " + r.target.getName(), e);
+      return;
+    }
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        // a newer check, a new drag or a closed game makes this one stale
+        if (losRequest != r) {
+          return;
+        }
+        losRequest = null;
+        result = res;
+        resultsString = s;
+        lastRange = String.valueOf(res.getRange());
+        map.repaint();
+      }
+    });
+  }
+
+  private static String getResultsString(GameMap CASLMap, LOSResult result, boolean verbose) {
+    String s = "Range: " + result.getRange();
+    if (verbose) {
       if (result.isBlocked()) {
-        resultsString += "  Blocked in " + CASLMap.gridToHex(result.getBlockedAtPoint().x, result.getBlockedAtPoint().y).getName() +
+        s += "  Blocked in " + CASLMap.gridToHex(result.getBlockedAtPoint().x, result.getBlockedAtPoint().y).getName() +
             " ( " + result.getReason() + ")";
       }
       else {
-        resultsString += (result.getHindrance() > 0 ? ("  Hindrances: " + result.getHindrance()) : "");
+        s += (result.getHindrance() > 0 ? ("  Hindrances: " + result.getHindrance()) : "");
       }
     }
+    return s;
   }
 
+  /*
+   * An LOS check, with everything it needs taken on the event thread.
+   */
+  private static class LOSRequest {
+    private final GameMap map;
+    private final Location source;
+    private final boolean useAuxSourceLOSPoint;
+    private final Location target;
+    private final boolean useAuxTargetLOSPoint;
+    private final Scenario scenario;
+    private final boolean verbose;
+
+    private LOSRequest(GameMap map, Location source, boolean useAuxSourceLOSPoint,
+                       Location target, boolean useAuxTargetLOSPoint, Scenario scenario, boolean verbose) {
+      this.map = map;
+      this.source = source;
+      this.useAuxSourceLOSPoint = useAuxSourceLOSPoint;
+      this.target = target;
+      this.useAuxTargetLOSPoint = useAuxTargetLOSPoint;
+      this.scenario = scenario;
+      this.verbose = verbose;
+    }
+  }
+
+  /*
+   * Brings the scenario up to date with the hindrance counters on the map. A
+   * new scenario is built only when the counters have changed, so that the
+   * LOS cache stays valid; the map is not changed, so rubble is gone with the
+   * old scenario, and a check still running on the worker keeps the scenario
+   * it started with.
+   */
   private void resetScenario() {
-    // remove all of the old smoke, vehicles
-    CASLMap.removeAllSmoke();
-    scenario = new Scenario();
     if (!map.isPiecesVisible() && Boolean.TRUE.equals(GameModule.getGameModule().getPrefs().getValue(HindranceKeeper.DRAW_HINDRANCES))) {
-      // get all of the game pieces
-      GamePiece[] p = map.getPieces();
-      // add each of the pieces to the scenario
-      for (int i = 0; i < p.length; ++i) {
-        if (p[i] instanceof VASSAL.counters.Stack) {
-          for (PieceIterator pi = new PieceIterator(((VASSAL.counters.Stack) p[i]).getPiecesIterator()); pi.hasMoreElements();) {
-            loadPiece(pi.nextPiece());
+      if (hindrances.update(CASLMap) || !hindrancesLoaded) {
+        final Scenario s = new Scenario();
+        for (Hex h : hindrances.getHexes()) {
+          for (int type : hindrances.getTypes(h)) {
+            loadHindrance(h, type, s);
           }
         }
-        else {
-          loadPiece(p[i]);
-        }
+        scenario = s;
+        hindrancesLoaded = true;
       }
     }
+    else if (hindrancesLoaded) {
+      scenario = new Scenario();
+      hindrancesLoaded = false;
+    }
   }
 
-  private void loadPiece(GamePiece piece) {
-    // determine what hex the piece is in
-    Point p = map.componentToMap(piece.getPosition());
-    p.x *= map.getZoom();
-    p.y *= map.getZoom();
-    p.translate(-map.getEdgeBuffer().width, -map.getEdgeBuffer().height);
-
-    if (!CASLMap.onMap(p.x, p.y)) return;
-    Hex h = CASLMap.gridToHex(p.x, p.y);
-
-    // add the piece to the scenario/map
-    if ((piece.getProperty(ASLProperties.HINDRANCE) != null && !Boolean.TRUE.equals(piece.getProperty(VASSAL.counters.Properties.INVISIBLE_TO_ME)))) {
-      String name = piece.getName().trim();
-      // smoke
-      if (name.equals("White +3 Smoke")) {
-        CASLMap.addSmoke(new Smoke(Smoke.SMOKE, h.getCenterLocation()));
-      }
-      else if (name.equals("White +2 Smoke")) {
-        CASLMap.addSmoke(new Smoke(Smoke.SMOKE, h.getCenterLocation(), true));
-      }
-      else if (name.equals("Gray +2 Smoke")) {
-        CASLMap.addSmoke(new Smoke(Smoke.SMOKE, h.getCenterLocation(), true));
-      }
-      else if (name.equals("White +2 WP")) {
-        CASLMap.addSmoke(new Smoke(Smoke.WHITE_PHOSPHORUS, h.getCenterLocation()));
-      }
-      else if (name.equals("White +1 WP")) {
-        CASLMap.addSmoke(new Smoke(Smoke.WHITE_PHOSPHORUS, h.getCenterLocation(), true));
-      }
-      else if (name.equals("Smoke grenade +2")) {
-        CASLMap.addSmoke(new Smoke(Smoke.SMOKE_GRENADES, h.getCenterLocation()));
-      }
-      else if (name.equals("Gray +1 WP") || name.equals("WP grenade +1")) {
-        CASLMap.addSmoke(new Smoke(Smoke.WHITE_PHOSPHORUS_SMOKE_GRENADES, h.getCenterLocation()));
-      }
-      else if (name.equals("Blaze")) {
-        CASLMap.addSmoke(new Smoke(Smoke.SMOKE, h.getCenterLocation()));
-      }
-      else if (name.equals("Blazing Building") || name.equals("1-level Blaze") || name.equals("2-level Blaze") || name.equals("3-level Blaze") || name.equals("4-level Blaze")) {
-        CASLMap.addSmoke(new Smoke(Smoke.SMOKE, h.getCenterLocation()));
-      }
-      else if (name.equals("Wreck")) {
-        scenario.addUnit(new CASL.Unit.Vehicle(h.getCenterLocation()), Scenario.ALLIES);
-      }
-      // vehicle hindrances
-      else if (Decorator.getDecorator(piece, TextInfo.class) != null) {
+  private void loadHindrance(Hex h, int type, Scenario scenario) {
+    switch (type) {
+      case HindranceIndex.SMOKE:
+        scenario.addSmoke(new Smoke(Smoke.SMOKE, h.getCenterLocation()));
+        break;
+      case HindranceIndex.DISPERSED_SMOKE:
+        scenario.addSmoke(new Smoke(Smoke.SMOKE, h.getCenterLocation(), true));
+        break;
+      case HindranceIndex.WHITE_PHOSPHORUS:
+        scenario.addSmoke(new Smoke(Smoke.WHITE_PHOSPHORUS, h.getCenterLocation()));
+        break;
+      case HindranceIndex.DISPERSED_WHITE_PHOSPHORUS:
+        scenario.addSmoke(new Smoke(Smoke.WHITE_PHOSPHORUS, h.getCenterLocation(), true));
+        break;
+      case HindranceIndex.SMOKE_GRENADES:
+        scenario.addSmoke(new Smoke(Smoke.SMOKE_GRENADES, h.getCenterLocation()));
+        break;
+      case HindranceIndex.WHITE_PHOSPHORUS_SMOKE_GRENADES:
+        scenario.addSmoke(new Smoke(Smoke.WHITE_PHOSPHORUS_SMOKE_GRENADES, h.getCenterLocation()));
+        break;
+      case HindranceIndex.VEHICLE:
         scenario.addUnit(new CASL.Unit.Vehicle(h.getCenterLocation()), Scenario.ALLIES);
-      }
-      else if (name.equals("Stone Rubble")) {
-        CASLMap.setGridTerrain(h.getHexBorder(), CASLMap.getTerrain(Terrain.STONE_RUBBLE));
-        CASLMap.setHexTerrain(h.getHexBorder(), CASLMap.getTerrain(Terrain.STONE_RUBBLE));
-      }
-      else if (name.equals("Wood Rubble")) {
-        CASLMap.setGridTerrain(h.getHexBorder(), CASLMap.getTerrain(Terrain.WOODEN_RUBBLE));
-        CASLMap.setHexTerrain(h.getHexBorder(), CASLMap.getTerrain(Terrain.WOODEN_RUBBLE));
-      }
-      // TODO: Palm Debris
-      else
-    	  System.out.println("LOS WARNING: hindrance not handled for counter ["+name+"] at hex " + h.getName());
+        break;
+      case HindranceIndex.STONE_RUBBLE:
+        scenario.setHexTerrain(h, CASLMap.getTerrain(Terrain.STONE_RUBBLE));
+        break;
+      case HindranceIndex.WOODEN_RUBBLE:
+        scenario.setHexTerrain(h, CASLMap.getTerrain(Terrain.WOODEN_RUBBLE));
+        break;
+      default:
+        // reported when the counter was indexed
     }
   }
 
+  public void removeFrom(Buildable parent) {
+    super.removeFrom(parent);
+    hindrances.dispose();
+  }
+
   public void setup(boolean flag) {
     // game closing - close LOS and free resources
     if (!flag) {
@@ -850,7 +1026,7 @@ public class CASLThread
     return null;
   }
 
-  private Point mapCASLPointToScreen(Point p, double os_scale) {
+  protected Point mapCASLPointToScreen(Point p, double os_scale) {
     Point temp = map.mapToDrawing(p, os_scale);
     double scale = upperLeftBoard == null ? 1.0 : upperLeftBoard.getMagnification() * ((HexGrid)upperLeftBoard.getGrid()).getHexSize()/ASLBoard.DEFAULT_HEX_HEIGHT;
     if (upperLeftBoard != null) {
@@ -913,594 +1089,4 @@ public class CASLThread
     }
     return p;
   }
-
-  private void applyTerrainChanges(ASLBoard b, GameMap map) {
-    StringTokenizer st = new StringTokenizer(b.getState(), "\t");
-    String s = null;
-    while (st.hasMoreTokens()) {
-
-      s = st.nextToken();
-//		System.out.println("token: " + s);
-
-      // convert the terrain
-      if (s.equals("AllPaved")) {
-
-      }
-      else if (s.equals("AllDirt")) {
-
-      }
-      else if (s.equals("NoDirt")) {
-
-      }
-      else if (s.equals("NoStairwells")) {
-
-      }
-      else if (s.equals("RowhouseBarsToBuildings")) {
-
-      }
-      else if (s.equals("RowhouseBarsToOpenGround")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.ROWHOUSE_WALL), map.getTerrain(Terrain.OPEN_GROUND));
-        map.changeAllTerrain(map.getTerrain(Terrain.ROWHOUSE_WALL_1_LEVEL), map.getTerrain(Terrain.OPEN_GROUND));
-        map.changeAllTerrain(map.getTerrain(Terrain.ROWHOUSE_WALL_2_LEVEL), map.getTerrain(Terrain.OPEN_GROUND));
-        map.changeAllTerrain(map.getTerrain(Terrain.ROWHOUSE_WALL_3_LEVEL), map.getTerrain(Terrain.OPEN_GROUND));
-        map.changeAllTerrain(map.getTerrain(Terrain.ROWHOUSE_WALL_4_LEVEL), map.getTerrain(Terrain.OPEN_GROUND));
-      }
-      else if (s.equals("AllStone")) {
-
-      }
-      else if (s.equals("AllWood")) {
-
-      }
-      else if (s.equals("BrushToOpenGround")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.BRUSH), map.getTerrain(Terrain.OPEN_GROUND));
-      }
-      else if (s.equals("SwampToMarsh")) {
-
-      }
-      else if (s.equals("MarshToOpenGround")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.OPEN_GROUND));
-      }
-      else if (s.equals("GulliesToStreams")) {
-
-      }
-      else if (s.equals("Flooded")) {
-
-        Hex h = null;
-        Terrain dt;
-        boolean isStream = false;
-
-        // set ground level to level 0 for water and streams
-        for (int col = 0; col < map.getWidth(); col++) {
-          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
-
-            h = map.getHex(col, row);
-
-            // is it a stream hex?
-            dt = h.getCenterLocation().getDepressionTerrain();
-            if ((dt != null && (dt.getType() == Terrain.SHALLOW_STREAM || dt.getType() == Terrain.DRY_STREAM))) {
-
-              isStream = true;
-            }
-            else
-              for (int x = 0; x < 6; x++) {
-
-                dt = h.getHexsideLocation(x).getDepressionTerrain();
-                if ((dt != null && (dt.getType() == Terrain.SHALLOW_STREAM || dt.getType() == Terrain.DRY_STREAM))) {
-
-                  isStream = true;
-                }
-              }
-
-            if (isStream || h.getCenterLocation().getTerrain().getType() == Terrain.WATER) {
-
-              map.changeAllGroundLevel(-1, 0, h.getHexBorder());
-            }
-          }
-        }
-
-        // marsh to water
-        map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.WATER));
-      }
-      else if (s.equals("DryStreams")) {
-
-      }
-      else if (s.equals("OrchardOutOfSeason")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.ORCHARD), map.getTerrain(Terrain.ORCHARD_OUT_OF_SEASON));
-      }
-      else if (s.equals("NoGrain")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.GRAIN), map.getTerrain(Terrain.OPEN_GROUND));
-      }
-      else if (s.equals("NoSunkElevRoads")) {
-
-
-      }
-      else if (s.equals("NoRoads")) {
-
-
-      }
-      else if (s.equals("Level4ToLevel3")) {
-
-        map.changeAllGroundLevel(4, 3);
-      }
-      else if (s.equals("Level4ToLevel2")) {
-
-        map.changeAllGroundLevel(4, 2);
-      }
-      else if (s.equals("Level3ToLevel2")) {
-
-        map.changeAllGroundLevel(3, 2);
-      }
-      else if (s.equals("Level4ToLevel1")) {
-
-        map.changeAllGroundLevel(4, 1);
-      }
-      else if (s.equals("Level3ToLevel1")) {
-
-        map.changeAllGroundLevel(3, 1);
-      }
-      else if (s.equals("Level2ToLevel1")) {
-
-        map.changeAllGroundLevel(2, 1);
-      }
-      else if (s.equals("Level4ToLevel0")) {
-
-        map.changeAllGroundLevel(4, 0);
-      }
-      else if (s.equals("Level3ToLevel0")) {
-
-        map.changeAllGroundLevel(3, 0);
-      }
-      else if (s.equals("Level2ToLevel0")) {
-
-        map.changeAllGroundLevel(2, 0);
-      }
-      else if (s.equals("Level1ToLevel0")) {
-
-        map.changeAllGroundLevel(1, 0);
-      }
-      else if (s.equals("Level_1ToLevel0")) {
-
-        map.changeAllGroundLevel(-1, 0);
-      }
-      else if (s.equals("HedgesOnly")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.WALL), map.getTerrain(Terrain.HEDGE));
-      }
-      else if (s.equals("WallsOnly")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.HEDGE), map.getTerrain(Terrain.WALL));
-      }
-      else if (s.equals("WallsToBocage")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.WALL), map.getTerrain(Terrain.BOCAGE));
-      }
-      else if (s.equals("HedgesToBocage")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.HEDGE), map.getTerrain(Terrain.BOCAGE));
-      }
-      else if (s.equals("Bocage")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.WALL), map.getTerrain(Terrain.BOCAGE));
-        map.changeAllTerrain(map.getTerrain(Terrain.HEDGE), map.getTerrain(Terrain.BOCAGE));
-      }
-      else if (s.equals("PlowedFields")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.GRAIN), map.getTerrain(Terrain.PLOWED_FIELD));
-      }
-      else if (s.equals("RiverToValley")) {
-
-      }
-      else if (s.equals("PondToValley")) {
-
-      }
-      else if (s.equals("IrrigatedPaddies")) {
-
-      }
-      else if (s.equals("InSeasonPaddies")) {
-
-      }
-      else if (s.equals("HedgeToCactus")) {
-
-      }
-      else if (s.equals("WallToCactus")) {
-
-      }
-      else if (s.equals("OrchardsToOliveGroves")) {
-
-      }
-      else if (s.equals("OrchardsToShellholes")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.ORCHARD), map.getTerrain(Terrain.SHELL_HOLES));
-      }
-      else if (s.equals("OrchardsToCrags")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.ORCHARD), map.getTerrain(Terrain.CRAGS));
-      }
-      else if (s.equals("CragsToShellholes")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.CRAGS), map.getTerrain(Terrain.SHELL_HOLES));
-      }
-      else if (s.equals("CragsToOrchards") || s.equals("CragsToPalmTrees")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.CRAGS), map.getTerrain(Terrain.ORCHARD));
-      }
-      else if (s.equals("DTOtoETO")) {
-
-      }
-      else if (s.equals("Winter")) {
-
-      }
-      else if (s.equals("Mud")) {
-
-      }
-      else if (s.equals("ETOtoDTO")) {
-
-      }
-      else if (s.equals("WoodsToVineyard")) {
-
-      }
-      else if (s.equals("BrushToVineyard")) {
-
-      }
-      else if (s.equals("GrainToVineyard")) {
-
-      }
-      else if (s.equals("MarshToVineyard")) {
-
-      }
-      else if (s.equals("Level_1ToVineyard")) {
-
-      }
-      else if (s.equals("Level1ToVineyard")) {
-
-      }
-      else if (s.equals("Level2ToVineyard")) {
-
-      }
-      else if (s.equals("Level3ToVineyard")) {
-
-      }
-      else if (s.equals("Level4ToVineyard")) {
-
-      }
-      else if (s.equals("WoodsToBrush")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.WOODS), map.getTerrain(Terrain.BRUSH));
-      }
-      else if (s.equals("GrainToBrush")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.GRAIN), map.getTerrain(Terrain.BRUSH));
-      }
-      else if (s.equals("MarshToBrush")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.BRUSH));
-      }
-      else if (s.equals("Level_1ToBrush")) {
-
-        changeHillToTerrain(map, -1, map.getTerrain(Terrain.BRUSH));
-      }
-      else if (s.equals("Level1ToBrush")) {
-
-        changeHillToTerrain(map, 1, map.getTerrain(Terrain.BRUSH));
-      }
-      else if (s.equals("Level2ToBrush")) {
-
-        changeHillToTerrain(map, 2, map.getTerrain(Terrain.BRUSH));
-      }
-      else if (s.equals("Level3ToBrush")) {
-
-        changeHillToTerrain(map, 3, map.getTerrain(Terrain.BRUSH));
-      }
-      else if (s.equals("Level4ToBrush")) {
-
-        changeHillToTerrain(map, 4, map.getTerrain(Terrain.BRUSH));
-      }
-      else if (s.equals("BrushToWoods")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.BRUSH), map.getTerrain(Terrain.WOODS));
-      }
-      else if (s.equals("GrainToWoods")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.GRAIN), map.getTerrain(Terrain.WOODS));
-      }
-      else if (s.equals("MarshToWoods")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.WOODS));
-      }
-      else if (s.equals("Level_1ToWoods")) {
-
-        changeHillToTerrain(map, -1, map.getTerrain(Terrain.WOODS));
-      }
-      else if (s.equals("Level1ToWoods")) {
-
-        changeHillToTerrain(map, 1, map.getTerrain(Terrain.WOODS));
-      }
-      else if (s.equals("Level2ToWoods")) {
-
-        changeHillToTerrain(map, 2, map.getTerrain(Terrain.WOODS));
-      }
-      else if (s.equals("Level3ToWoods")) {
-
-        changeHillToTerrain(map, 3, map.getTerrain(Terrain.WOODS));
-      }
-      else if (s.equals("Level4ToWoods")) {
-
-        changeHillToTerrain(map, 4, map.getTerrain(Terrain.WOODS));
-      }
-      else if (s.equals("WoodsToMarsh")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.WOODS), map.getTerrain(Terrain.MARSH));
-      }
-      else if (s.equals("BrushToMarsh")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.BRUSH), map.getTerrain(Terrain.MARSH));
-      }
-      else if (s.equals("GrainToMarsh")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.GRAIN), map.getTerrain(Terrain.MARSH));
-      }
-      else if (s.equals("Level_1ToMarsh")) {
-
-        changeHillToTerrain(map, -1, map.getTerrain(Terrain.MARSH));
-      }
-      else if (s.equals("Level1ToMarsh")) {
-
-        changeHillToTerrain(map, 1, map.getTerrain(Terrain.MARSH));
-      }
-      else if (s.equals("Level2ToMarsh")) {
-
-        changeHillToTerrain(map, 2, map.getTerrain(Terrain.MARSH));
-      }
-      else if (s.equals("Level3ToMarsh")) {
-
-        changeHillToTerrain(map, 3, map.getTerrain(Terrain.MARSH));
-      }
-      else if (s.equals("Level4ToMarsh")) {
-
-        changeHillToTerrain(map, 4, map.getTerrain(Terrain.MARSH));
-      }
-      else if (s.equals("WoodsToGrain")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.WOODS), map.getTerrain(Terrain.GRAIN));
-      }
-      else if (s.equals("BrushToGrain")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.BRUSH), map.getTerrain(Terrain.GRAIN));
-      }
-      else if (s.equals("MarshToGrain")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.GRAIN));
-      }
-      else if (s.equals("Level_1ToGrain")) {
-
-        changeHillToTerrain(map, -1, map.getTerrain(Terrain.GRAIN));
-      }
-      else if (s.equals("Level1ToGrain")) {
-
-        changeHillToTerrain(map, 1, map.getTerrain(Terrain.GRAIN));
-      }
-      else if (s.equals("Level2ToGrain")) {
-
-        changeHillToTerrain(map, 2, map.getTerrain(Terrain.GRAIN));
-      }
-      else if (s.equals("Level3ToGrain")) {
-
-        changeHillToTerrain(map, 3, map.getTerrain(Terrain.GRAIN));
-      }
-      else if (s.equals("Level4ToGrain")) {
-
-        changeHillToTerrain(map, 4, map.getTerrain(Terrain.GRAIN));
-      }
-      else if (s.equals("NoCliffs")) {
-
-        map.changeAllTerrain(map.getTerrain(Terrain.CLIFF), map.getTerrain(Terrain.OPEN_GROUND));
-      }
-      else if (s.equals("Level1ToBrushLevel2ToBrush")) {
-
-        changeHillToTerrain(map, 1, map.getTerrain(Terrain.BRUSH));
-        changeHillToTerrain(map, 2, map.getTerrain(Terrain.BRUSH));
-      }
-
-      // PTO SSR changes
-      else if (s.equals("RoadsToPaths") || s.equals("NoRoads") || s.equals("NoWoodsRoads")) {
-
-        Hex h = null;
-        // convert forest-road hexes
-        for (int col = 0; col < map.getWidth(); col++) {
-          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
-
-            h = map.getHex(col, row);
-            h.getCenterLocation().getTerrain();
-
-            boolean roadHexside = false;
-            boolean woodsHex = false;
-
-            for (int x = 0; x < 6; x++) {
-
-              if (h.getHexsideLocation(x).getTerrain().isRoadTerrain()) {
-                roadHexside = true;
-              }
-              if (h.getHexsideLocation(x).getTerrain().isWoodsTerrain()) {
-                woodsHex = true;
-              }
-
-            }
-
-            if (roadHexside && woodsHex) {
-
-              // first we have to map the road to ocean if near woods...
-              int x = h.getHexBorder().getBounds().x;
-              int y = h.getHexBorder().getBounds().y;
-              for (int i = x; i < x + h.getHexBorder().getBounds().width; i++) {
-                for (int j = y; j < y + h.getHexBorder().getBounds().height; j++) {
-
-                  if (map.getGridTerrain(i, j).isRoadTerrain() && isNearWoods(i, j, map)) {
-
-                    map.setGridTerrain(new Rectangle(i, j, 1, 1), map.getTerrain(Terrain.OCEAN));
-                  }
-                }
-              }
-
-              // then change the water to woods
-              map.changeAllTerrain(map.getTerrain(Terrain.OCEAN), map.getTerrain(Terrain.WOODS), h.getHexBorder());
-
-
-              // reset the hex terrain
-              map.setHexTerrain(h.getHexBorder(), map.getTerrain(Terrain.WOODS));
-            }
-          }
-        }
-      }
-      else if (s.equals("Bamboo")) {
-
-        Hex h, h2 = null;
-        Terrain t;
-        boolean woodsAdjacent = false;
-
-        // set all brush to bamboo
-        for (int col = 0; col < map.getWidth(); col++) {
-          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
-
-            h = map.getHex(col, row);
-            t = h.getCenterLocation().getTerrain();
-
-            if (t.getType() == Terrain.BRUSH) {
-
-              map.setGridTerrain(h.getHexBorder(), map.getTerrain(Terrain.BAMBOO));
-              map.setHexTerrain(h.getHexBorder(), map.getTerrain(Terrain.BAMBOO));
-            }
-
-            // assume we need to also change marsh to swamp here
-            else if (t.getType() == Terrain.MARSH) {
-
-              // are we adjacent to a woods hex?
-              for (int x = 0; x < 6; x++) {
-
-                h2 = map.getAdjacentHex(h, x);
-                if (h2 != null && (h2.getCenterLocation().getTerrain().getType() == Terrain.WOODS ||
-                    h2.getCenterLocation().getTerrain().getType() == Terrain.LIGHT_JUNGLE ||
-                    h2.getCenterLocation().getTerrain().getType() == Terrain.DENSE_JUNGLE)) {
-
-                  woodsAdjacent = true;
-                }
-              }
-
-              // change marsh to swamp
-              if (woodsAdjacent) {
-
-                map.changeAllTerrain(map.getTerrain(Terrain.MARSH), map.getTerrain(Terrain.SWAMP), h.getHexBorder());
-              }
-            }
-          }
-        }
-
-        // pick up any stray brush
-        map.changeAllTerrain(map.getTerrain(Terrain.BRUSH), map.getTerrain(Terrain.BAMBOO));
-
-        // assume we need to also change to woods to jungle here
-        map.changeAllTerrain(map.getTerrain(Terrain.WOODS), map.getTerrain(Terrain.LIGHT_JUNGLE));
-
-        map.changeAllTerrain(map.getTerrain(Terrain.WOODS), map.getTerrain(Terrain.LIGHT_JUNGLE));
-
-
-      }
-      else if (s.equals("PalmTrees")) {
-
-      }
-      else if (s.equals("DenseJungle")) {
-
-        Hex h = null;
-        Terrain t;
-
-        // set all woods to dense jungle
-        for (int col = 0; col < map.getWidth(); col++) {
-          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
-
-            h = map.getHex(col, row);
-            t = h.getCenterLocation().getTerrain();
-
-            if (t.getType() == Terrain.WOODS || t.getType() == Terrain.LIGHT_JUNGLE) {
-
-              map.setGridTerrain(h.getHexBorder(), map.getTerrain(Terrain.DENSE_JUNGLE));
-              map.setHexTerrain(h.getHexBorder(), map.getTerrain(Terrain.DENSE_JUNGLE));
-            }
-          }
-        }
-      }
-      else if (s.equals("NoBridge")) {
-
-        // remove all bridges
-        for (int col = 0; col < map.getWidth(); col++) {
-          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
-
-            map.getHex(col, row).removeBridge();
-          }
-        }
-      }
-      else if (s.equals("BridgeToFord")) {
-
-        // remove all bridges
-        for (int col = 0; col < map.getWidth(); col++) {
-          for (int row = 0; row < map.getHeight() + (col % 2); row++) {
-
-            map.getHex(col, row).removeBridge();
-          }
-        }
-      }
-      else if (s.equals("")) {
-
-      }
-    }
-
-//	map.writeMap("C:\\CASL\\Maps\\a.map");
-  }
-
-  private void changeHillToTerrain(GameMap map, int level, Terrain t) {
-
-    for (int x = 0; x < map.getImageWidth(); x++) {
-      for (int y = 0; y < map.getImageHeight(); y++) {
-
-        if (map.getGridGroundLevel(x, y) == level) {
-
-          // set the ground level to zero
-          map.setGridGroundLevel(new Rectangle(x, y, 0, 0), null, 0);
-          map.gridToHex(x, y).setBaseHeight(0);
-
-          // change open ground to the terrain
-          if (map.getGridTerrain(x, y).getType() == Terrain.OPEN_GROUND) {
-
-            Rectangle r = new Rectangle(x, y, 1, 1);
-            map.setGridTerrain(r, t);
-            map.setHexTerrain(r, t);
-          }
-        }
-      }
-    }
-
-  }
-
-  private boolean isNearWoods(int x, int y, GameMap map) {
-
-    int max = 8;
-
-    for (int i = x - max; i <= x + max; i++) {
-      for (int j = y - max; j <= y + max; j++) {
-
-        if (map.onMap(i, j) &&
-            map.getGridTerrain(i, j).isWoodsTerrain() &&
-            Point.distance((double) x, (double) y, (double) i, (double) j) <= max) {
-
-          return true;
-        }
-      }
-    }
-
-    return false;
-  }
 }
-
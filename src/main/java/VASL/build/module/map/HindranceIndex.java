@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package VASL.build.module.map;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import CASL.Map.GameMap;
+import CASL.Map.Hex;
+import VASL.counters.ASLProperties;
+import VASL.counters.TextInfo;
+import VASSAL.build.GameModule;
+import VASSAL.build.module.Map;
+import VASSAL.command.AddPiece;
+import VASSAL.command.ChangePiece;
+import VASSAL.command.Command;
+import VASSAL.command.MovePiece;
+import VASSAL.command.RemovePiece;
+import VASSAL.counters.Decorator;
+import VASSAL.counters.GamePiece;
+import VASSAL.counters.KeyBuffer;
+import VASSAL.counters.PieceIterator;
+import VASSAL.counters.Stack;
+
+/**
+ * The hindrance counters on a map, by hex, kept up to date from the pieces
+ * that are added, moved, removed or changed rather than by scanning the map.
+ * <p>
+ * Changed pieces are reported as they change and checked when the index is
+ * next {@link #update updated}, together with the other pieces in their
+ * stacks, so that counters cloned or replaced in place are found as well.
+ * Counters already in the index are checked again on every update, which is
+ * cheap and catches those removed or moved in ways that are not reported.
+ * <p>
+ * Key commands and menu items act on the selected pieces, so the selected
+ * pieces on the map, and the stacks they are in, are checked on every update
+ * and reported when a key is pressed in the map. The whole map is scanned
+ * only when the CASL map is (re)built.
+ */
+public class HindranceIndex {
+  // hindrance types
+  public static final int SMOKE = 1;
+  public static final int DISPERSED_SMOKE = 2;
+  public static final int WHITE_PHOSPHORUS = 3;
+  public static final int DISPERSED_WHITE_PHOSPHORUS = 4;
+  public static final int SMOKE_GRENADES = 5;
+  public static final int WHITE_PHOSPHORUS_SMOKE_GRENADES = 6;
+  public static final int VEHICLE = 7;
+  public static final int STONE_RUBBLE = 8;
+  public static final int WOODEN_RUBBLE = 9;
+  public static final int UNKNOWN = 10;
+
+  // hindrance type by counter name
+  private static final java.util.Map<String, Integer> types = new HashMap<String, Integer>();
+  static {
+    types.put("White +3 Smoke", SMOKE);
+    types.put("White +2 Smoke", DISPERSED_SMOKE);
+    types.put("Gray +2 Smoke", DISPERSED_SMOKE);
+    types.put("White +2 WP", WHITE_PHOSPHORUS);
+    types.put("White +1 WP", DISPERSED_WHITE_PHOSPHORUS);
+    types.put("Smoke grenade +2", SMOKE_GRENADES);
+    types.put("Gray +1 WP", WHITE_PHOSPHORUS_SMOKE_GRENADES);
+    types.put("WP grenade +1", WHITE_PHOSPHORUS_SMOKE_GRENADES);
+    types.put("Blaze", SMOKE);
+    types.put("Blazing Building", SMOKE);
+    types.put("1-level Blaze", SMOKE);
+    types.put("2-level Blaze", SMOKE);
+    types.put("3-level Blaze", SMOKE);
+    types.put("4-level Blaze", SMOKE);
+    types.put("Wreck", VEHICLE);
+    types.put("Stone Rubble", STONE_RUBBLE);
+    types.put("Wood Rubble", WOODEN_RUBBLE);
+    // TODO: Palm Debris
+  }
+
+  // the indexes of all maps, told of pieces changed by other players
+  private static final Set<HindranceIndex> indexes =
+    Collections.newSetFromMap(new WeakHashMap<HindranceIndex, Boolean>());
+
+  private final Map map;
+  private final java.util.Map<GamePiece, Entry> entries = new HashMap<GamePiece, Entry>();
+  private final java.util.Map<Hex, List<Entry>> hexes = new HashMap<Hex, List<Entry>>();
+
+  // reported since the last update
+  private final Set<GamePiece> changedPieces = new HashSet<GamePiece>();
+  private final Set<String> changedIds = new HashSet<String>();
+  private boolean scanNeeded = true;
+
+  private GameMap caslMap;
+
+  public HindranceIndex(Map map) {
+    this.map = map;
+    synchronized (indexes) {
+      indexes.add(this);
+    }
+  }
+
+  /**
+   * Stops reporting changes to this index, when its map is removed.
+   */
+  public void dispose() {
+    synchronized (indexes) {
+      indexes.remove(this);
+    }
+    clear();
+  }
+
+  /**
+   * Returns the hindrance type of a counter name, {@link #UNKNOWN} if the
+   * name is not a known hindrance.
+   */
+  public static int getType(String name) {
+    final Integer type = types.get(name.trim());
+    return type == null ? UNKNOWN : type;
+  }
+
+  /**
+   * Reports the pieces changed by a command, on all maps. Commands are
+   * reported before they are executed, so pieces are looked up by id when
+   * the indexes are next updated.
+   */
+  public static void commandReceived(Command c) {
+    if (c == null) {
+      return;
+    }
+    final List<String> ids = new ArrayList<String>();
+    final List<GamePiece> pieces = new ArrayList<GamePiece>();
+    collect(c, ids, pieces);
+    if (ids.isEmpty() && pieces.isEmpty()) {
+      return;
+    }
+    synchronized (indexes) {
+      for (HindranceIndex index : indexes) {
+        index.changed(ids, pieces);
+      }
+    }
+  }
+
+  private static void collect(Command c, List<String> ids, List<GamePiece> pieces) {
+    if (c instanceof AddPiece) {
+      pieces.add(((AddPiece) c).getTarget());
+    }
+    else if (c instanceof MovePiece) {
+      ids.add(((MovePiece) c).getId());
+    }
+    else if (c instanceof ChangePiece) {
+      ids.add(((ChangePiece) c).getId());
+    }
+    else if (c instanceof RemovePiece) {
+      ids.add(((RemovePiece) c).getId());
+    }
+    for (Command sub : c.getSubCommands()) {
+      collect(sub, ids, pieces);
+    }
+  }
+
+  private synchronized void changed(List<String> ids, List<GamePiece> pieces) {
+    changedIds.addAll(ids);
+    for (GamePiece p : pieces) {
+      if (p != null) {
+        changedPieces.add(p);
+      }
+    }
+  }
+
+  /**
+   * Reports a piece that has been added, moved or changed here.
+   */
+  public static void pieceChanged(GamePiece p) {
+    if (p == null) {
+      return;
+    }
+    final List<GamePiece> pieces = new ArrayList<GamePiece>(1);
+    pieces.add(p);
+    synchronized (indexes) {
+      for (HindranceIndex index : indexes) {
+        index.changed(new ArrayList<String>(0), pieces);
+      }
+    }
+  }
+
+  /**
+   * Reports the selected pieces on the map, and the stacks they are in, that
+   * a key command may have changed, cloned or replaced.
+   */
+  public synchronized void selectionChanged() {
+    for (GamePiece p : KeyBuffer.getBuffer().asList()) {
+      if (p.getMap() == map) {
+        changedPieces.add(p.getParent() != null ? p.getParent() : p);
+      }
+    }
+  }
+
+  /**
+   * Drops the index; the whole map is scanned at the next update.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    hexes.clear();
+    changedPieces.clear();
+    changedIds.clear();
+    caslMap = null;
+    scanNeeded = true;
+  }
+
+  /**
+   * Brings the index up to date with the pieces on the map.
+   *
+   * @param caslMap the map to find the hexes of the counters in
+   * @return true if any hindrance has changed since the last update
+   */
+  public synchronized boolean update(GameMap caslMap) {
+    if (caslMap != this.caslMap) {
+      this.caslMap = caslMap;
+      scanNeeded = true;
+    }
+
+    if (scanNeeded) {
+      scanNeeded = false;
+      changedPieces.clear();
+      changedIds.clear();
+      entries.clear();
+      hexes.clear();
+      for (GamePiece p : map.getPieces()) {
+        check(p);
+      }
+      return true;
+    }
+
+    boolean changed = false;
+
+    // pieces a menu item may have changed
+    selectionChanged();
+
+    // counters that are gone or have changed
+    for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+      final Entry e = i.next();
+      if (!e.isCurrent(map)) {
+        i.remove();
+        removeFromHex(e);
+        changedPieces.add(e.piece);
+        changed = true;
+      }
+    }
+
+    for (String id : changedIds) {
+      final GamePiece p = GameModule.getGameModule().getGameState().getPieceForId(id);
+      if (p != null) {
+        changedPieces.add(p);
+      }
+    }
+    changedIds.clear();
+
+    // the changed pieces, and the others in their stacks
+    final Set<GamePiece> checked = new HashSet<GamePiece>();
+    for (GamePiece p : changedPieces) {
+      final GamePiece top = p.getParent() != null ? p.getParent() : p;
+      if (checked.add(top)) {
+        changed |= check(top);
+      }
+    }
+    changedPieces.clear();
+
+    return changed;
+  }
+
+  /**
+   * Returns the hexes holding hindrance counters.
+   */
+  public synchronized List<Hex> getHexes() {
+    return new ArrayList<Hex>(hexes.keySet());
+  }
+
+  /**
+   * Returns the types of the hindrance counters in a hex.
+   */
+  public synchronized int[] getTypes(Hex h) {
+    final List<Entry> l = hexes.get(h);
+    if (l == null) {
+      return new int[0];
+    }
+    final int[] t = new int[l.size()];
+    for (int i = 0; i < t.length; ++i) {
+      t[i] = l.get(i).type;
+    }
+    return t;
+  }
+
+  // returns true if a hindrance was added or removed
+  private boolean check(GamePiece p) {
+    if (p instanceof Stack) {
+      boolean changed = false;
+      for (PieceIterator pi = new PieceIterator(((Stack) p).getPiecesIterator()); pi.hasMoreElements();) {
+        changed |= checkPiece(pi.nextPiece());
+      }
+      return changed;
+    }
+    return checkPiece(p);
+  }
+
+  private boolean checkPiece(GamePiece p) {
+    final Entry old = entries.remove(p);
+    if (old != null) {
+      removeFromHex(old);
+    }
+
+    final Entry e = createEntry(p);
+    if (e != null) {
+      entries.put(p, e);
+      List<Entry> l = hexes.get(e.hex);
+      if (l == null) {
+        l = new ArrayList<Entry>(1);
+        hexes.put(e.hex, l);
+      }
+      l.add(e);
+      if (e.type == UNKNOWN && (old == null || old.type != UNKNOWN)) {
+        System.out.println("LOS WARNING: hindrance not handled for counter [" + e.name + "] at hex " + e.hex.getName());
+      }
+    }
+    return old != null ? !old.equals(e) : e != null;
+  }
+
+  private void removeFromHex(Entry e) {
+    final List<Entry> l = hexes.get(e.hex);
+    if (l != null) {
+      l.remove(e);
+      if (l.isEmpty()) {
+        hexes.remove(e.hex);
+      }
+    }
+  }
+
+  private Entry createEntry(GamePiece p) {
+    if (p.getMap() != map
+        || p.getProperty(ASLProperties.HINDRANCE) == null
+        || Boolean.TRUE.equals(p.getProperty(VASSAL.counters.Properties.INVISIBLE_TO_ME))) {
+      return null;
+    }
+
+    // determine what hex the piece is in
+    final Point pos = p.getPosition();
+    final Point pt = map.componentToMap(pos);
+    pt.x *= map.getZoom();
+    pt.y *= map.getZoom();
+    pt.translate(-map.getEdgeBuffer().width, -map.getEdgeBuffer().height);
+    if (!caslMap.onMap(pt.x, pt.y)) {
+      return null;
+    }
+    final Hex h = caslMap.gridToHex(pt.x, pt.y);
+
+    final String name = p.getName().trim();
+    int type = getType(name);
+    // vehicle hindrances
+    if (type == UNKNOWN && Decorator.getDecorator(p, TextInfo.class) != null) {
+      type = VEHICLE;
+    }
+    return new Entry(p, name, pos, h, type);
+  }
+
+  private static class Entry {
+    private final GamePiece piece;
+    private final String name;
+    private final Point position;
+    private final Hex hex;
+    private final int type;
+
+    private Entry(GamePiece piece, String name, Point position, Hex hex, int type) {
+      this.piece = piece;
+      this.name = name;
+      this.position = position;
+      this.hex = hex;
+      this.type = type;
+    }
+
+    // is the counter still where and what it was when indexed?
+    private boolean isCurrent(Map map) {
+      return piece.getMap() == map
+        && position.equals(piece.getPosition())
+        && piece.getProperty(ASLProperties.HINDRANCE) != null
+        && !Boolean.TRUE.equals(piece.getProperty(VASSAL.counters.Properties.INVISIBLE_TO_ME))
+        && name.equals(piece.getName().trim());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Entry)) {
+        return false;
+      }
+      final Entry e = (Entry) obj;
+      return piece == e.piece && hex == e.hex && type == e.type;
+    }
+
+    @Override
+    public int hashCode() {
+      return piece.hashCode() * 31 + type;
+    }
+  }
+}
@@ -20,11 +20,13 @@ package VASL.build.module.map.boardPicker;
 
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -34,9 +36,16 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
 import java.util.StringTokenizer;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+import VASL.build.module.map.ASLTileSlicer;
 import VASL.build.module.map.boardPicker.board.ASLHexGrid;
 import VASSAL.build.BadDataReport;
 import VASSAL.build.GameModule;
@@ -48,13 +57,13 @@ import VASSAL.tools.ErrorDialog;
 import VASSAL.tools.image.ImageIOException;
 import VASSAL.tools.image.ImageTileSource;
 import VASSAL.tools.image.ImageUtils;
+import VASSAL.tools.imageop.AbstractTileOpImpl;
 import VASSAL.tools.imageop.AbstractTiledOpImpl;
 import VASSAL.tools.imageop.ImageOp;
 import VASSAL.tools.imageop.Op;
 import VASSAL.tools.imageop.SourceOp;
 import VASSAL.tools.imageop.SourceOpBitmapImpl;
 import VASSAL.tools.imageop.SourceOpTiledBitmapImpl;
-import VASSAL.tools.imageop.SourceTileOpBitmapImpl;
 import VASSAL.tools.io.FileArchive;
 import VASSAL.tools.io.ZipArchive;
 
@@ -71,6 +80,9 @@ public class ASLBoard extends Board {
   private File boardFile;
   private ImageOp baseImageOp;
   private DataArchive boardArchive;
+  // the next mip level down from the one drawn, prefetched for zooming out
+  private ImageOp nextLevel;
+  private int nextLevelDepth = -1;
 
   public ASLBoard() {
     new ASLHexGrid(DEFAULT_HEX_HEIGHT, false).addTo(this);
@@ -204,12 +216,15 @@ public class ASLBoard extends Board {
     final ImageTileSource ts =
       GameModule.getGameModule().getImageTileSource();
 
+    // a board still being sliced may have only some of its tiles
     boolean tiled = false;
-    try {
-      tiled = ts.tileExists(imageFile, 0, 0, 1.0);
-    }
-    catch (ImageIOException e) {
-      // ignore, not tiled
+    if (boardArchive != null && ASLTileSlicer.getInstance().isSliced(boardFile)) {
+      try {
+        tiled = ts.tileExists(imageFile, 0, 0, 1.0);
+      }
+      catch (ImageIOException e) {
+        // ignore, not tiled
+      }
     }
 
     if (tiled) {
@@ -223,6 +238,9 @@ public class ASLBoard extends Board {
 
       baseImageOp = new SourceOpTiledBitmapImpl(imageFile, fa);
     }
+    else if (boardArchive != null) {
+      baseImageOp = new SourceOpBitmapImpl(imageFile, boardArchive);
+    }
     else {
       baseImageOp = Op.load(imageFile);
     }
@@ -232,6 +250,19 @@ public class ASLBoard extends Board {
     uncroppedSize = baseImageOp.getSize();
     fixedBoundaries = false;
     scaledImageOp = null;
+    nextLevel = null;
+    nextLevelDepth = -1;
+  }
+
+  /**
+   * Switches the board to its tiles once the tile slicer has finished
+   * with it.
+   */
+  public void tilesSliced() {
+    resetImage();
+    if (getMap() != null) {
+      getMap().repaint();
+    }
   }
 
   public static String archiveName(String s) {
@@ -333,6 +364,111 @@ public class ASLBoard extends Board {
     return p;
   }
 
+  @Override
+  public void drawRegion(Graphics g, Point location, Rectangle visibleRect, double zoom, Component obs) {
+    useMipLevels(zoom);
+    requestTiles(location, visibleRect, zoom);
+    super.drawRegion(g, location, visibleRect, zoom, obs);
+  }
+
+  /**
+   * Scales the board image from the nearest level of its mip pyramid when
+   * zoomed out far enough, and picks the next level down, whose tiles in
+   * view are built in the background.
+   */
+  protected void useMipLevels(double zoom) {
+    final ImageOp op = boardImageOp;
+    if (op == null) {
+      return;
+    }
+
+    // as Board.drawRegion scales it
+    final double scale = zoom * magnification;
+    final int depth = MipScaleOp.getDepth(op.getSize(), scale);
+    if (depth > 0 && (scaledImageOp == null || scaledImageOp.getScale() != scale)) {
+      scaledImageOp = new MipScaleOp(op, scale);
+    }
+
+    // the levels above it are built anyway, as each level is built from
+    // the tiles of the level above
+    final int next = MipScaleOp.getDepth(op.getSize(), scale / 2);
+    if (next == depth) {
+      nextLevel = null;
+      nextLevelDepth = -1;
+    }
+    else if (next != nextLevelDepth) {
+      nextLevel = MipScaleOp.getLevel(op, next);
+      nextLevelDepth = next;
+    }
+  }
+
+  /**
+   * Has the tiles of the board image in and around the visible part of the
+   * board rendered in the background, and then those of the next mip level
+   * down. Pending tiles are dropped when the board is scrolled out of view,
+   * scrolled or zoomed.
+   */
+  protected void requestTiles(Point location, Rectangle visibleRect, double zoom) {
+    if (boardImageOp == null) {
+      return;
+    }
+
+    final Rectangle b = bounds();
+    final Rectangle r = visibleRect.intersection(new Rectangle(
+      location.x,
+      location.y,
+      (int) Math.round(b.width * zoom),
+      (int) Math.round(b.height * zoom)
+    ));
+    if (r.isEmpty()) {
+      BoardTileRenderer.getInstance().cancel(this);
+      return;
+    }
+
+    // the visible region in the coordinates of the board image
+    final double scale = zoom * magnification;
+    final Rectangle region = new Rectangle(
+      (int) Math.floor((r.x - location.x) / scale),
+      (int) Math.floor((r.y - location.y) / scale),
+      (int) Math.ceil(r.width / scale) + 1,
+      (int) Math.ceil(r.height / scale) + 1
+    );
+    final Dimension size = boardImageOp.getSize();
+    if (reversed) {
+      region.x = size.width - region.x - region.width;
+      region.y = size.height - region.y - region.height;
+    }
+    region.setBounds(region.intersection(new Rectangle(size)));
+    if (region.isEmpty()) {
+      return;
+    }
+
+    // the tiles of the image painted: the board image, or its zoomed image
+    // when drawn from a mip level
+    final BoardTileRenderer renderer = BoardTileRenderer.getInstance();
+    if (scaledImageOp instanceof MipScaleOp && scaledImageOp.getScale() == scale) {
+      renderer.request(this, scaledImageOp, scaleRegion(region, scale, scaledImageOp.getSize()), 1.0);
+    }
+    else {
+      renderer.request(this, boardImageOp, region, scale);
+    }
+
+    final ImageOp level = nextLevel;
+    if (level != null) {
+      renderer.prefetch(this, level, scaleRegion(region, 1.0 / (1 << nextLevelDepth), level.getSize()));
+    }
+  }
+
+  // a region of the board image in the coordinates of the image scaled by
+  // scale, of the given size
+  private static Rectangle scaleRegion(Rectangle r, double scale, Dimension size) {
+    final int x0 = (int) Math.floor(r.x * scale);
+    final int y0 = (int) Math.floor(r.y * scale);
+    final int x1 = (int) Math.ceil((r.x + r.width) * scale);
+    final int y1 = (int) Math.ceil((r.y + r.height) * scale);
+    return new Rectangle(x0, y0, x1 - x0, y1 - y0).intersection(new Rectangle(size));
+  }
+
   public Point snapToVertex(Point p) {
     return globalCoordinates(((HexGrid) getGrid()).snapToHexVertex(localCoordinates(p)));
   }
@@ -357,15 +493,19 @@ public class ASLBoard extends Board {
   private class BoardOp extends AbstractTiledOpImpl implements SourceOp {
     private String boardState;
     private int hash;
+    private final ImageOp paletteOp;
+    private Boolean hasPalette;
+    private String cacheKey;
 
     private BoardOp() {
       boardState = ASLBoard.this.getState();
       hash = boardState.hashCode();
+      paletteOp = terrain == null || boardArchive == null ? null : new PaletteOp(boardState, terrain);
     }
 
     @Override
     protected ImageOp createTileOp(int tileX, int tileY) {
-      return new SourceTileOpBitmapImpl(this, tileX, tileY);
+      return new BoardTileOp(this, tileX, tileY);
     }
 
     public List<VASSAL.tools.opcache.Op<?>> getSources() {
@@ -378,39 +518,69 @@ public class ASLBoard extends Board {
         fixSize();
       }
 
-      final ImageOp base = boardArchive == null
-        ? baseImageOp : new SourceOpBitmapImpl(imageFile, boardArchive);
-
-    	if (terrain == null && overlays.isEmpty() &&
-          cropBounds.width < 0 && cropBounds.height < 0)
-      {
-    	  return base.getImage();
+    	if (isPlain()) {
+    	  return baseImageOp.getImage();
     	}
 
     	final BufferedImage im =
     	  ImageUtils.createCompatibleTranslucentImage(size.width, size.height);
 
       final Graphics2D g = (Graphics2D) im.getGraphics();
+      final boolean recolored = paint(g, new Rectangle(size));
+      g.dispose();
+
+      if (terrain != null && !recolored) {
+        terrain.transform(im);
+      }
+      return im;
+    }
+
+    // is the board image just the base image?
+    private boolean isPlain() {
+      return terrain == null && overlays.isEmpty() &&
+        cropBounds.width < 0 && cropBounds.height < 0;
+    }
+
+    /**
+     * Paints the part of the board image that lies within
+     * <code>region</code>, before SSR colors are applied. Only overlays
+     * intersecting the region are drawn.
+     *
+     * @return true if the SSR colors have already been applied
+     */
+    private boolean paint(Graphics2D g, Rectangle region) throws Exception {
+      g.clip(region);
+
       Rectangle visible = new Rectangle(cropBounds.getLocation(), ASLBoard.this.bounds().getSize());
       visible.width = (int) Math.round(visible.width / magnification);
       visible.height = (int) Math.round(visible.height / magnification);
-      g.drawImage(
-        base.getImage(null),
-        0,
-        0,
-        visible.width,
-        visible.height,
-        cropBounds.x,
-        cropBounds.y,
-        cropBounds.x + visible.width,
-        cropBounds.y + visible.height,
-        null
-      );
+
+      // with nothing to composite, use the image with its palette recolored
+      // rather than recoloring every pixel of the composite
+      if (paletteOp != null && overlays.isEmpty() &&
+          cropBounds.width < 0 && cropBounds.height < 0 && hasPalette())
+      {
+        g.drawImage(
+          paletteOp.getImage(),
+          0,
+          0,
+          visible.width,
+          visible.height,
+          0,
+          0,
+          visible.width,
+          visible.height,
+          null
+        );
+        return true;
+      }
+
+      paintBase(g, region);
 
       for (Enumeration e = ASLBoard.this.getOverlays(); e.hasMoreElements(); ) {
         Overlay o = (Overlay) e.nextElement();
         Rectangle r = visible.intersection(o.bounds());
-        if (!r.isEmpty()) {
+        if (!r.isEmpty() && region.intersects(r.x - visible.x, r.y - visible.y, r.width, r.height)) {
           int x = Math.max(visible.x - o.bounds().x, 0);
           int y = Math.max(visible.y - o.bounds().y, 0);
           g.drawImage(
@@ -428,42 +598,45 @@ public class ASLBoard extends Board {
 
         if (o.getTerrain() != getTerrain() && o.getTerrain() != null) {
           for (SSROverlay ssrOverlay : o.getTerrain().getOverlays()) {
-            if (ssrOverlay.getImage() != null) {
-              Rectangle oBounds = ssrOverlay.bounds();
-              if (o.getOrientation() == 'a') {
-                oBounds.translate(o.bounds().x, o.bounds().y);
-                r = visible.intersection(oBounds);
-                if (!r.isEmpty()) {
-                  int x = Math.max(visible.x - o.bounds().x, 0);
-                  int y = Math.max(visible.y - o.bounds().y, 0);
-                  g.drawImage(
-                    ssrOverlay.getImage(),
-                    r.x - visible.x,
-                    r.y - visible.y,
-                    r.x - visible.x + r.width,
-                    r.y - visible.y + r.height,
-                    x,
-                    y,
-                    x + r.width,
-                    y + r.height,
-                    null
-                  );
-                }
+            // copied, as every tile translates it
+            Rectangle oBounds = new Rectangle(ssrOverlay.bounds());
+            if (o.getOrientation() == 'a') {
+              oBounds.translate(o.bounds().x, o.bounds().y);
+              r = visible.intersection(oBounds);
+              if (!r.isEmpty() && region.intersects(r.x - visible.x, r.y - visible.y, r.width, r.height) &&
+                  ssrOverlay.getImage() != null) {
+                int x = Math.max(visible.x - o.bounds().x, 0);
+                int y = Math.max(visible.y - o.bounds().y, 0);
+                g.drawImage(
+                  ssrOverlay.getImage(),
+                  r.x - visible.x,
+                  r.y - visible.y,
+                  r.x - visible.x + r.width,
+                  r.y - visible.y + r.height,
+                  x,
+                  y,
+                  x + r.width,
+                  y + r.height,
+                  null
+                );
               }
-              else {
-                try {
-                  Point p1 = o.offset(o.getOrientation(), ASLBoard.this);
-                  Point p2 = o.offset('a', ASLBoard.this);
-                  Point p = new Point(
-                    p1.x + p2.x - oBounds.x + o.bounds().x - visible.x,
-                    p1.y + p2.y - oBounds.y + o.bounds().y - visible.y
-                  );
+            }
+            else {
+              try {
+                Point p1 = o.offset(o.getOrientation(), ASLBoard.this);
+                Point p2 = o.offset('a', ASLBoard.this);
+                Point p = new Point(
+                  p1.x + p2.x - oBounds.x + o.bounds().x - visible.x,
+                  p1.y + p2.y - oBounds.y + o.bounds().y - visible.y
+                );
+                if (region.intersects(p.x - oBounds.width, p.y - oBounds.height, oBounds.width, oBounds.height) &&
+                    ssrOverlay.getRotatedImage() != null) {
                   g.drawImage(
-                    ssrOverlay.getImage(),
-                    p.x,
-                    p.y,
+                    ssrOverlay.getRotatedImage(),
                     p.x - oBounds.width,
                     p.y - oBounds.height,
+                    p.x,
+                    p.y,
                     0,
                     0,
                     oBounds.width,
@@ -471,21 +644,96 @@ public class ASLBoard extends Board {
                     null
                   );
                 }
-                catch (BoardException e1) {
-                  e1.printStackTrace();
-                }
+              }
+              catch (BoardException e1) {
+                e1.printStackTrace();
               }
             }
           }
         }
       }
+      return false;
+    }
 
-      g.dispose();
+    // draws the tiles of the base image that lie under region, so a sliced
+    // board is never decoded whole
+    private void paintBase(Graphics2D g, Rectangle region) throws Exception {
+      final Rectangle r = new Rectangle(region);
+      r.translate(cropBounds.x, cropBounds.y);
+      r.setBounds(r.intersection(new Rectangle(uncroppedSize)));
+      if (r.isEmpty()) {
+        return;
+      }
 
-      if (terrain != null) {
-        terrain.transform(im);
+      final int tw = baseImageOp.getTileWidth();
+      final int th = baseImageOp.getTileHeight();
+      for (Point t : baseImageOp.getTileIndices(r)) {
+        g.drawImage(
+          baseImageOp.getTileOp(t.x, t.y).getImage(),
+          t.x * tw - cropBounds.x,
+          t.y * th - cropBounds.y,
+          null
+        );
+      }
+    }
+
+    // identifies the board image across sessions: the module, whose colors
+    // and SSR rules it is recolored with, and every archive it is drawn from
+    private synchronized String getCacheKey() {
+      if (cacheKey == null) {
+        final GameModule g = GameModule.getGameModule();
+        final StringBuilder key = new StringBuilder();
+        key.append(g.getGameName()).append('\t')
+           .append(g.getGameVersion()).append('\t')
+           .append(boardState).append('\t')
+           .append(version).append('\t')
+           .append(magnification).append('\t');
+        appendFile(key, boardFile);
+        for (Overlay o : overlays) {
+          appendFile(key, o.getFile());
+        }
+        cacheKey = key.toString();
+      }
+      return cacheKey;
+    }
+
+    private void appendFile(StringBuilder key, File f) {
+      if (f != null) {
+        key.append(f.getName()).append('\t')
+           .append(f.length()).append('\t')
+           .append(f.lastModified());
+      }
+      key.append('\t');
+    }
+
+    // does the board image have a palette? Only its header is read.
+    private synchronized boolean hasPalette() {
+      if (hasPalette == null) {
+        hasPalette = readHasPalette();
+      }
+      return hasPalette;
+    }
+
+    private boolean readHasPalette() {
+      try (InputStream in = boardArchive.getInputStream(imageFile);
+           ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        if (!readers.hasNext()) {
+          return false;
+        }
+        final ImageReader reader = readers.next();
+        try {
+          reader.setInput(iis, true, true);
+          final ImageTypeSpecifier type = reader.getRawImageType(0);
+          return type != null && type.getColorModel() instanceof IndexColorModel;
+        }
+        finally {
+          reader.dispose();
+        }
+      }
+      catch (IOException e) {
+        return false;
       }
-      return im;
     }
 
     @Override
@@ -520,6 +768,140 @@ public class ASLBoard extends Board {
     }
   }
 
+  /**
+   * The uncropped board image with its palette recolored for the SSRs.
+   * Being an op, it is held by the op cache rather than by the board, and
+   * shared by the tiles of every equal board.
+   */
+  private class PaletteOp extends AbstractTiledOpImpl {
+    private final String boardState;
+    private final SSRFilter terrain;
+    private final int hash;
+
+    private PaletteOp(String boardState, SSRFilter terrain) {
+      this.boardState = boardState;
+      this.terrain = terrain;
+      hash = boardState.hashCode() * 31 + 1;
+    }
+
+    public List<VASSAL.tools.opcache.Op<?>> getSources() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public BufferedImage eval() throws Exception {
+      try (InputStream in = boardArchive.getInputStream(imageFile)) {
+        final BufferedImage image = ImageIO.read(in);
+        final BufferedImage recolored = image == null ? null : terrain.transformPalette(image);
+        if (recolored == null) {
+          throw new IOException(imageFile + " has no palette");
+        }
+        return recolored;
+      }
+    }
+
+    @Override
+    protected void fixSize() {
+      size = new Dimension(uncroppedSize);
+      tileSize = new Dimension(256, 256);
+      numXTiles = (int) Math.ceil((double) size.width / tileSize.width);
+      numYTiles = (int) Math.ceil((double) size.height / tileSize.height);
+      tiles = new ImageOp[numXTiles * numYTiles];
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof PaletteOp && boardState.equals(((PaletteOp) obj).boardState);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * A single tile of the board image. Each tile composites and recolors only
+   * its own region, so only the tiles in view are ever built.
+   */
+  private class BoardTileOp extends AbstractTileOpImpl {
+    private final BoardOp op;
+    private final Rectangle region;
+    private final int hash;
+
+    private BoardTileOp(BoardOp op, int tileX, int tileY) {
+      this.op = op;
+
+      final int x0 = tileX * op.getTileWidth();
+      final int y0 = tileY * op.getTileHeight();
+      region = new Rectangle(
+        x0,
+        y0,
+        Math.min(op.getTileWidth(), op.getWidth() - x0),
+        Math.min(op.getTileHeight(), op.getHeight() - y0)
+      );
+      size = region.getSize();
+      hash = (op.hashCode() * 31 + tileX) * 31 + tileY;
+    }
+
+    public List<VASSAL.tools.opcache.Op<?>> getSources() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public BufferedImage eval() throws Exception {
+      if (op.isPlain()) {
+        final BufferedImage im =
+          ImageUtils.createCompatibleTranslucentImage(region.width, region.height);
+        final Graphics2D g = im.createGraphics();
+        g.translate(-region.x, -region.y);
+        op.paintBase(g, region);
+        g.dispose();
+        return im;
+      }
+
+      // rendered in an earlier session?
+      final String key = op.getCacheKey() + '\t' +
+        region.x + ',' + region.y + ',' + region.width + ',' + region.height;
+      final BufferedImage cached = BoardTileCache.getInstance().get(key);
+      if (cached != null) {
+        return cached;
+      }
+
+      final BufferedImage im =
+        ImageUtils.createCompatibleTranslucentImage(region.width, region.height);
+      final Graphics2D g = (Graphics2D) im.getGraphics();
+      g.translate(-region.x, -region.y);
+      final boolean recolored = op.paint(g, region);
+      g.dispose();
+
+      if (terrain != null && !recolored) {
+        terrain.transform(im);
+      }
+
+      BoardTileCache.getInstance().put(key, im);
+      return im;
+    }
+
+    @Override
+    protected void fixSize() {
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof BoardTileOp)) {
+        return false;
+      }
+      final BoardTileOp op = (BoardTileOp) obj;
+      return region.equals(op.region) && this.op.equals(op.op);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
   public DataArchive getBoardArchive() {
     return boardArchive;
   }
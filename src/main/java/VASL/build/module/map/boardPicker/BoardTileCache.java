@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package VASL.build.module.map.boardPicker;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import VASL.build.module.map.ASLBoardPicker;
+
+/**
+ * A size-bounded disk cache of rendered board tiles, so that boards with
+ * the same overlays and SSRs need not be composited and recolored again in
+ * a later session.
+ * <p>
+ * Tiles are stored as PNG files named after a digest of their key, in the
+ * <code>ssrtiles</code> folder of the board picker's cache directory. Reading
+ * a tile marks it as recently used; when the cache grows beyond its limit the
+ * least recently used tiles are deleted.
+ */
+public class BoardTileCache {
+  // default size limit
+  private static final long MAX_SIZE = 512L << 20;
+
+  // changes whenever the way tiles are rendered changes
+  private static final String FORMAT = "1";
+
+  private static final String SUFFIX = ".png";
+
+  private static BoardTileCache instance;
+
+  private final File dir;
+  private final long maxSize;
+  private final ExecutorService writer;
+
+  // bytes in the cache, counted on the first write (writer thread only)
+  private long size = -1;
+
+  public static synchronized BoardTileCache getInstance() {
+    if (instance == null) {
+      instance = new BoardTileCache(new File(ASLBoardPicker.getCacheDir(), "ssrtiles"), MAX_SIZE);
+    }
+    return instance;
+  }
+
+  public BoardTileCache(File dir, long maxSize) {
+    this.dir = dir;
+    this.maxSize = maxSize;
+
+    writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        final Thread t = new Thread(r, "Board tile cache writer");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Returns the cached tile, or null if there is none.
+   */
+  public BufferedImage get(String key) {
+    final File f = getFile(key);
+    if (!f.isFile()) {
+      return null;
+    }
+
+    try {
+      final BufferedImage image = ImageIO.read(f);
+      if (image != null) {
+        f.setLastModified(System.currentTimeMillis());
+      }
+      return image;
+    }
+    catch (IOException e) {
+      f.delete();
+      return null;
+    }
+  }
+
+  /**
+   * Stores a tile in the background. The image must not be changed
+   * afterwards.
+   */
+  public void put(final String key, final BufferedImage image) {
+    writer.execute(new Runnable() {
+      public void run() {
+        write(key, image);
+      }
+    });
+  }
+
+  private void write(String key, BufferedImage image) {
+    final File f = getFile(key);
+    if (f.exists()) {
+      return;
+    }
+
+    // write to a temporary file so that readers never see part of a tile
+    dir.mkdirs();
+    final File tmp = new File(dir, f.getName() + ".tmp");
+    try {
+      if (!ImageIO.write(image, "png", tmp) || !tmp.renameTo(f)) {
+        tmp.delete();
+        return;
+      }
+    }
+    catch (IOException e) {
+      tmp.delete();
+      return;
+    }
+
+    if (size < 0) {
+      size = 0;
+      for (File t : listTiles()) {
+        size += t.length();
+      }
+    }
+    else {
+      size += f.length();
+    }
+
+    if (size > maxSize) {
+      evict();
+    }
+  }
+
+  // deletes the least recently used tiles down to three quarters of the limit
+  private void evict() {
+    final File[] tiles = listTiles();
+    final long[] used = new long[tiles.length];
+    final Integer[] order = new Integer[tiles.length];
+    for (int i = 0; i < tiles.length; ++i) {
+      used[i] = tiles[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Long.compare(used[a], used[b]);
+      }
+    });
+
+    final long target = maxSize / 4 * 3;
+    for (int i = 0; i < order.length && size > target; ++i) {
+      final File t = tiles[order[i]];
+      final long length = t.length();
+      if (t.delete()) {
+        size -= length;
+      }
+    }
+  }
+
+  private File[] listTiles() {
+    final File[] tiles = dir.listFiles(new FileFilter() {
+      public boolean accept(File f) {
+        return f.getName().endsWith(SUFFIX);
+      }
+    });
+    return tiles == null ? new File[0] : tiles;
+  }
+
+  private File getFile(String key) {
+    return new File(dir, digest(FORMAT + '\t' + key) + SUFFIX);
+  }
+
+  private static String digest(String key) {
+    try {
+      final byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+      final StringBuilder sb = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      // every JVM has SHA-1
+      throw new IllegalStateException(e);
+    }
+  }
+}
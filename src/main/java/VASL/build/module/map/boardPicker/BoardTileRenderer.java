@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package VASL.build.module.map.boardPicker;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import VASSAL.tools.imageop.ImageOp;
+
+/**
+ * Renders board image tiles in the background, one thread per CPU, so that
+ * the tiles of all boards in and around the viewport are composited
+ * concurrently before they are painted.
+ * <p>
+ * Tiles are rendered nearest the viewport first. Each requester (a board)
+ * has at most one outstanding request and one prefetch; a request for a
+ * different region or image cancels the tiles still pending for the
+ * previous one.
+ */
+public class BoardTileRenderer {
+  private static final BoardTileRenderer instance = new BoardTileRenderer();
+
+  // tiles rendered around the requested region, in tiles
+  private static final int MARGIN = 1;
+
+  // ranks prefetched tiles after all requested ones
+  private static final int PREFETCH_RING = Integer.MAX_VALUE;
+
+  private final ThreadPoolExecutor executor;
+  private final Map<Object, Request> requests = new WeakHashMap<Object, Request>();
+  private final Map<Object, Request> prefetches = new WeakHashMap<Object, Request>();
+  private long sequence;
+
+  public static BoardTileRenderer getInstance() {
+    return instance;
+  }
+
+  private BoardTileRenderer() {
+    final int threads = Runtime.getRuntime().availableProcessors();
+    executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+      new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+          final Thread t = new Thread(r, "Board tile renderer " + count.incrementAndGet());
+          t.setDaemon(true);
+          t.setPriority(Thread.NORM_PRIORITY - 1);
+          return t;
+        }
+      });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Renders the tiles of <code>op</code> that intersect <code>region</code>,
+   * and those next to them, replacing any earlier request by
+   * <code>key</code>.
+   *
+   * @param key the requester
+   * @param op the tiled image to render
+   * @param region the visible part of the image, in image coordinates
+   * @param scale screen pixels per image pixel, to rank tiles of different
+   * requesters by their distance on screen
+   */
+  public synchronized void request(Object key, ImageOp op, Rectangle region, double scale) {
+    final Request old = requests.get(key);
+    if (old != null && old.op == op && old.region.equals(region) && old.scale == scale) {
+      return;
+    }
+    cancel(requests, key);
+
+    final Request request = new Request(op, new Rectangle(region), scale);
+    requests.put(key, request);
+
+    final int tw = op.getTileWidth();
+    final int th = op.getTileHeight();
+    final Point[] visible = op.getTileIndices(region);
+    if (visible.length == 0) {
+      return;
+    }
+
+    // the visible tiles and a margin around them
+    int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+    for (Point p : visible) {
+      minX = Math.min(minX, p.x);
+      minY = Math.min(minY, p.y);
+      maxX = Math.max(maxX, p.x);
+      maxY = Math.max(maxY, p.y);
+    }
+
+    final double cx = region.getCenterX();
+    final double cy = region.getCenterY();
+    for (int x = Math.max(0, minX - MARGIN); x <= Math.min(op.getNumXTiles() - 1, maxX + MARGIN); ++x) {
+      for (int y = Math.max(0, minY - MARGIN); y <= Math.min(op.getNumYTiles() - 1, maxY + MARGIN); ++y) {
+        final int ring = Math.max(
+          Math.max(minX - x, x - maxX),
+          Math.max(minY - y, y - maxY)
+        );
+        final double distance = Math.hypot((x + 0.5) * tw - cx, (y + 0.5) * th - cy) * scale;
+        executor.getQueue().add(new TileTask(request, x, y, Math.max(ring, 0), distance, sequence++));
+      }
+    }
+    startWorkers();
+  }
+
+  /**
+   * Renders the tiles of <code>op</code> that intersect <code>region</code>
+   * after all requested tiles, e.g. the tiles in view at a neighbouring zoom
+   * level, replacing any earlier prefetch by <code>key</code>.
+   *
+   * @param key the requester
+   * @param op the tiled image to render
+   * @param region the visible part of the image, in image coordinates
+   */
+  public synchronized void prefetch(Object key, ImageOp op, Rectangle region) {
+    final Request old = prefetches.get(key);
+    if (old != null && old.op.equals(op) && old.region.equals(region)) {
+      return;
+    }
+    cancel(prefetches, key);
+
+    final Request request = new Request(op, new Rectangle(region), 0);
+    prefetches.put(key, request);
+
+    final int tw = op.getTileWidth();
+    final int th = op.getTileHeight();
+    final double cx = region.getCenterX();
+    final double cy = region.getCenterY();
+    for (Point p : op.getTileIndices(region)) {
+      final double distance = Math.hypot((p.x + 0.5) * tw - cx, (p.y + 0.5) * th - cy);
+      executor.getQueue().add(new TileTask(request, p.x, p.y, PREFETCH_RING, distance, sequence++));
+    }
+    startWorkers();
+  }
+
+  /**
+   * Drops the tiles still pending for <code>key</code>.
+   */
+  public synchronized void cancel(Object key) {
+    cancel(requests, key);
+    cancel(prefetches, key);
+  }
+
+  private void cancel(Map<Object, Request> pending, Object key) {
+    final Request old = pending.remove(key);
+    if (old == null) {
+      return;
+    }
+    old.cancelled = true;
+    for (Iterator<Runnable> i = executor.getQueue().iterator(); i.hasNext(); ) {
+      if (((TileTask) i.next()).request == old) {
+        i.remove();
+      }
+    }
+  }
+
+  /*
+   * Tasks are queued before the workers are started, rather than passed to
+   * execute, which would run them on new workers in the order they come
+   * after the idle workers have timed out.
+   */
+  private void startWorkers() {
+    executor.prestartAllCoreThreads();
+  }
+
+  private static class Request {
+    private final ImageOp op;
+    private final Rectangle region;
+    private final double scale;
+    private volatile boolean cancelled;
+
+    private Request(ImageOp op, Rectangle region, double scale) {
+      this.op = op;
+      this.region = region;
+      this.scale = scale;
+    }
+  }
+
+  private static class TileTask implements Runnable, Comparable<TileTask> {
+    private final Request request;
+    private final int tileX;
+    private final int tileY;
+    private final int ring;
+    private final double distance;
+    private final long sequence;
+
+    private TileTask(Request request, int tileX, int tileY, int ring, double distance, long sequence) {
+      this.request = request;
+      this.tileX = tileX;
+      this.tileY = tileY;
+      this.ring = ring;
+      this.distance = distance;
+      this.sequence = sequence;
+    }
+
+    // visible tiles first, then by distance from the center of the view
+    public int compareTo(TileTask t) {
+      if (ring != t.ring) {
+        return ring < t.ring ? -1 : 1;
+      }
+      if (distance != t.distance) {
+        return distance < t.distance ? -1 : 1;
+      }
+      return Long.compare(sequence, t.sequence);
+    }
+
+    public void run() {
+      if (request.cancelled) {
+        return;
+      }
+      try {
+        // the image cache keeps the tile for painting
+        request.op.getTileOp(tileX, tileY).getImage();
+      }
+      catch (RuntimeException e) {
+        // errors are reported when the tile is painted
+      }
+    }
+  }
+}
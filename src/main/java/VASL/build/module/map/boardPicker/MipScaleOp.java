@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package VASL.build.module.map.boardPicker;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import VASSAL.tools.image.ImageUtils;
+import VASSAL.tools.imageop.AbstractTileOpImpl;
+import VASSAL.tools.imageop.AbstractTiledOpImpl;
+import VASSAL.tools.imageop.ImageOp;
+import VASSAL.tools.imageop.ScaleOp;
+
+/**
+ * Scales an image down by way of a mip pyramid: the image halved
+ * repeatedly, each level built from the one above it. A zoom picks the
+ * smallest level that is at least as large as the zoomed image, so each
+ * tile only needs a final scale of between one half and one.
+ * <p>
+ * Levels are image ops of their own, so the op cache keeps them for every
+ * zoom that uses them. Every tile, of a level or of the scaled image, is
+ * built from only the tiles of the image above it that lie under it, so
+ * only the tiles in view are ever built at any level.
+ */
+public class MipScaleOp extends AbstractTiledOpImpl implements ScaleOp {
+  // levels below this many pixels across are not worth building
+  private static final int MIN_LEVEL_SIZE = 64;
+
+  private static final RenderingHints HINTS = new RenderingHints(
+    RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+  static {
+    HINTS.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+  }
+
+  private final ImageOp sop;
+  private final ImageOp level;
+  private final double scale;
+  private final double residual;
+  private final int hash;
+
+  /**
+   * @param sop the full size image
+   * @param scale the zoom, below one half
+   */
+  public MipScaleOp(ImageOp sop, double scale) {
+    this.sop = sop;
+    this.scale = scale;
+
+    final int depth = getDepth(sop.getSize(), scale);
+    level = getLevel(sop, depth);
+    residual = scale * (1 << depth);
+    hash = sop.hashCode() * 31 + Double.valueOf(scale).hashCode();
+  }
+
+  /**
+   * Returns how many times the image can be halved and still be at least
+   * as large as when scaled by <code>scale</code>.
+   */
+  public static int getDepth(Dimension size, double scale) {
+    int depth = 0;
+    int w = Math.max(size.width, size.height);
+    while (scale * (2 << depth) <= 1.0 && w / 2 >= MIN_LEVEL_SIZE) {
+      ++depth;
+      w /= 2;
+    }
+    return depth;
+  }
+
+  /**
+   * Returns the image halved <code>depth</code> times.
+   */
+  public static ImageOp getLevel(ImageOp sop, int depth) {
+    ImageOp op = sop;
+    for (int i = 0; i < depth; ++i) {
+      op = new HalfOp(op);
+    }
+    return op;
+  }
+
+  public List<VASSAL.tools.opcache.Op<?>> getSources() {
+    return Collections.<VASSAL.tools.opcache.Op<?>>singletonList(level);
+  }
+
+  @Override
+  public BufferedImage eval() throws Exception {
+    if (size == null) {
+      fixSize();
+    }
+    return draw(level, new Rectangle(size), residual);
+  }
+
+  @Override
+  protected void fixSize() {
+    final Dimension s = sop.getSize();
+    size = new Dimension(
+      Math.max((int) Math.round(s.width * scale), 1),
+      Math.max((int) Math.round(s.height * scale), 1)
+    );
+    tileSize = new Dimension(256, 256);
+    numXTiles = (int) Math.ceil((double) size.width / tileSize.width);
+    numYTiles = (int) Math.ceil((double) size.height / tileSize.height);
+    tiles = new ImageOp[numXTiles * numYTiles];
+  }
+
+  @Override
+  protected ImageOp createTileOp(int tileX, int tileY) {
+    return new TileOp(this, tileX, tileY);
+  }
+
+  public double getScale() {
+    return scale;
+  }
+
+  public RenderingHints getHints() {
+    return HINTS;
+  }
+
+  // the part of sop that lies under region when scaled by scale, with a
+  // pixel to spare on each side for filtering unless each pixel of region
+  // averages a whole block of source pixels, as when halving
+  private static Rectangle getSourceRegion(ImageOp sop, Rectangle region, double scale) {
+    final int pad = 1 / scale == Math.rint(1 / scale) ? 0 : 1;
+    final int x0 = (int) Math.floor(region.x / scale) - pad;
+    final int y0 = (int) Math.floor(region.y / scale) - pad;
+    final int x1 = (int) Math.ceil((region.x + region.width) / scale) + pad;
+    final int y1 = (int) Math.ceil((region.y + region.height) / scale) + pad;
+    return new Rectangle(x0, y0, x1 - x0, y1 - y0).intersection(new Rectangle(sop.getSize()));
+  }
+
+  // the tiles of sop that lie under region when scaled by scale
+  private static List<VASSAL.tools.opcache.Op<?>> getSourceTiles(ImageOp sop, Rectangle region, double scale) {
+    final List<VASSAL.tools.opcache.Op<?>> tiles = new ArrayList<VASSAL.tools.opcache.Op<?>>();
+    for (Point t : sop.getTileIndices(getSourceRegion(sop, region, scale))) {
+      tiles.add(sop.getTileOp(t.x, t.y));
+    }
+    return tiles;
+  }
+
+  // draws the part of sop scaled by scale that lies within region, from
+  // only the tiles of sop under it
+  private static BufferedImage draw(ImageOp sop, Rectangle region, double scale) throws Exception {
+    final Rectangle r = getSourceRegion(sop, region, scale);
+
+    // the tiles are joined first, so that filtering leaves no seams
+    final BufferedImage src =
+      ImageUtils.createCompatibleTranslucentImage(Math.max(r.width, 1), Math.max(r.height, 1));
+    Graphics2D g = src.createGraphics();
+    final int tw = sop.getTileWidth();
+    final int th = sop.getTileHeight();
+    for (Point t : sop.getTileIndices(r)) {
+      g.drawImage(sop.getTileOp(t.x, t.y).getImage(), t.x * tw - r.x, t.y * th - r.y, null);
+    }
+    g.dispose();
+
+    final BufferedImage im =
+      ImageUtils.createCompatibleTranslucentImage(region.width, region.height);
+    g = im.createGraphics();
+    g.setRenderingHints(HINTS);
+    g.translate(-region.x, -region.y);
+    g.scale(scale, scale);
+    g.drawImage(src, r.x, r.y, null);
+    g.dispose();
+    return im;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof MipScaleOp)) {
+      return false;
+    }
+    final MipScaleOp op = (MipScaleOp) obj;
+    return scale == op.scale && sop.equals(op.sop);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  /**
+   * A tile of the scaled image, drawn from the tiles of its level under it.
+   */
+  private static class TileOp extends AbstractTileOpImpl {
+    private final ImageOp level;
+    private final double residual;
+    private final Rectangle region;
+    private final int hash;
+
+    private TileOp(MipScaleOp op, int tileX, int tileY) {
+      level = op.level;
+      residual = op.residual;
+
+      final int x0 = tileX * op.getTileWidth();
+      final int y0 = tileY * op.getTileHeight();
+      region = new Rectangle(
+        x0,
+        y0,
+        Math.min(op.getTileWidth(), op.getWidth() - x0),
+        Math.min(op.getTileHeight(), op.getHeight() - y0)
+      );
+      size = region.getSize();
+      hash = (op.hashCode() * 31 + tileX) * 31 + tileY;
+    }
+
+    public List<VASSAL.tools.opcache.Op<?>> getSources() {
+      return getSourceTiles(level, region, residual);
+    }
+
+    @Override
+    public BufferedImage eval() throws Exception {
+      return draw(level, region, residual);
+    }
+
+    @Override
+    protected void fixSize() {
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof TileOp)) {
+        return false;
+      }
+      final TileOp op = (TileOp) obj;
+      return residual == op.residual && region.equals(op.region) && level.equals(op.level);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * An image at half the size of its source. Bilinear sampling at exactly
+   * one half averages each two by two block of source pixels.
+   */
+  private static class HalfOp extends AbstractTiledOpImpl {
+    private final ImageOp sop;
+    private final int hash;
+
+    private HalfOp(ImageOp sop) {
+      this.sop = sop;
+      hash = sop.hashCode() * 31 + 2;
+    }
+
+    public List<VASSAL.tools.opcache.Op<?>> getSources() {
+      return Collections.<VASSAL.tools.opcache.Op<?>>singletonList(sop);
+    }
+
+    @Override
+    public BufferedImage eval() throws Exception {
+      if (size == null) {
+        fixSize();
+      }
+      return draw(sop, new Rectangle(size), 0.5);
+    }
+
+    @Override
+    protected void fixSize() {
+      final Dimension s = sop.getSize();
+      size = new Dimension((s.width + 1) / 2, (s.height + 1) / 2);
+      tileSize = new Dimension(256, 256);
+      numXTiles = (int) Math.ceil((double) size.width / tileSize.width);
+      numYTiles = (int) Math.ceil((double) size.height / tileSize.height);
+      tiles = new ImageOp[numXTiles * numYTiles];
+    }
+
+    @Override
+    protected ImageOp createTileOp(int tileX, int tileY) {
+      return new HalfTileOp(this, tileX, tileY);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof HalfOp && sop.equals(((HalfOp) obj).sop);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * A tile of a level, drawn from the two by two tiles of the image above
+   * it that lie under it.
+   */
+  private static class HalfTileOp extends AbstractTileOpImpl {
+    private final HalfOp op;
+    private final Rectangle region;
+    private final int hash;
+
+    private HalfTileOp(HalfOp op, int tileX, int tileY) {
+      this.op = op;
+
+      final int x0 = tileX * op.getTileWidth();
+      final int y0 = tileY * op.getTileHeight();
+      region = new Rectangle(
+        x0,
+        y0,
+        Math.min(op.getTileWidth(), op.getWidth() - x0),
+        Math.min(op.getTileHeight(), op.getHeight() - y0)
+      );
+      size = region.getSize();
+      hash = (op.hashCode() * 31 + tileX) * 31 + tileY;
+    }
+
+    public List<VASSAL.tools.opcache.Op<?>> getSources() {
+      return getSourceTiles(op.sop, region, 0.5);
+    }
+
+    @Override
+    public BufferedImage eval() throws Exception {
+      return draw(op.sop, region, 0.5);
+    }
+
+    @Override
+    protected void fixSize() {
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof HalfTileOp)) {
+        return false;
+      }
+      final HalfTileOp t = (HalfTileOp) obj;
+      return region.equals(t.region) && op.equals(t.op);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
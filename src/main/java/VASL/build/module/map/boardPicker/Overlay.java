@@ -40,6 +40,7 @@ import VASSAL.tools.imageop.Op;
 public class Overlay implements Cloneable {
   protected String name = "", version = "0";
   protected Image image;
+  protected Image rotatedImage;
   protected File overlayFile;
   public String hex1 = "", hex2 = "";
   private String origins;
@@ -65,7 +66,7 @@ public class Overlay implements Cloneable {
     }
     this.board = board;
     overlayFile = new File(overlayDir, archiveName());
-    archive = new DataArchive(overlayFile.getPath(), "");
+    archive = OverlayCache.getArchive(overlayFile);
     readData();
     try {
       setBounds();
@@ -121,13 +122,33 @@ public class Overlay implements Cloneable {
   }
 
   protected Image loadImage() {
-    Image im = null;
     char c = getOrientation();
     if (isSingleHex()) {
       c = 'a';
     }
 
-    return Op.load(fileName(name + c)).getImage();
+    try {
+      return OverlayCache.getImage(overlayFile, fileName(name + c));
+    }
+    catch (IOException e) {
+      return Op.load(fileName(name + c)).getImage();
+    }
+  }
+
+  /**
+   * The image rotated by 180 degrees, as drawn when the overlay that
+   * carries it is placed in an orientation other than 'a'
+   */
+  public Image getRotatedImage() {
+    if (rotatedImage == null) {
+      rotatedImage = loadRotatedImage();
+    }
+    return rotatedImage;
+  }
+
+  protected Image loadRotatedImage() {
+    Image im = getImage();
+    return im == null ? null : OverlayCache.rotate(im);
   }
 
   public String getName() {
@@ -176,7 +197,12 @@ public class Overlay implements Cloneable {
     char c = getOrientation();
     boundaries.setLocation(board.getGrid().getLocation(hex1));
     boundaries.translate(-offset(c, board).x, -offset(c, board).y);
-    boundaries.setSize(Op.load(fileName(name + c)).getSize());
+    try {
+      boundaries.setSize(OverlayCache.getSize(overlayFile, fileName(name + c)));
+    }
+    catch (IOException e) {
+      boundaries.setSize(Op.load(fileName(name + c)).getSize());
+    }
   }
 
   private String fileName(String name) {
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2026 by Brent Easton
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License (LGPL) as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, copies are available
+ * at http://www.opensource.org.
+ */
+package VASL.build.module.map.boardPicker;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Map;
+
+import VASSAL.tools.DataArchive;
+import VASSAL.tools.image.ImageUtils;
+
+/**
+ * Overlay archives, image sizes and decoded images shared by all boards.
+ * <p>
+ * Sizes are read from the image headers and kept for the session. Decoded
+ * images, and their copies rotated by 180 degrees for overlays placed in
+ * orientations other than 'a', are softly referenced so that they are shared
+ * while in use but can be reclaimed when memory runs low.
+ */
+public class OverlayCache {
+  private static final Map<String, DataArchive> archives = new HashMap<String, DataArchive>();
+  private static final Map<String, Dimension> sizes = new HashMap<String, Dimension>();
+  private static final Map<String, SoftReference<BufferedImage>> images =
+    new HashMap<String, SoftReference<BufferedImage>>();
+
+  private OverlayCache() {
+  }
+
+  /**
+   * Returns the archive of the overlay file, opening it on first use.
+   */
+  public static DataArchive getArchive(File file) throws IOException {
+    final String key = getKey(file, "");
+    synchronized (archives) {
+      DataArchive archive = archives.get(key);
+      if (archive == null) {
+        archive = new DataArchive(file.getPath(), "");
+        archives.put(key, archive);
+      }
+      return archive;
+    }
+  }
+
+  /**
+   * Returns the size of an image in the overlay file without decoding it.
+   */
+  public static Dimension getSize(File file, String name) throws IOException {
+    final String key = getKey(file, name);
+    synchronized (sizes) {
+      final Dimension size = sizes.get(key);
+      if (size != null) {
+        return new Dimension(size);
+      }
+    }
+
+    // an image that has been decoded already knows its size
+    final BufferedImage image = getCachedImage(key);
+    final Dimension size;
+    if (image != null) {
+      size = new Dimension(image.getWidth(), image.getHeight());
+    }
+    else {
+      try (InputStream in = getArchive(file).getInputStream(name)) {
+        size = ImageUtils.getImageSize(name, in);
+      }
+    }
+
+    synchronized (sizes) {
+      sizes.put(key, size);
+    }
+    return new Dimension(size);
+  }
+
+  /**
+   * Returns an image in the overlay file, decoding it once for all boards.
+   * The image must not be changed.
+   */
+  public static BufferedImage getImage(File file, String name) throws IOException {
+    final String key = getKey(file, name);
+    BufferedImage image = getCachedImage(key);
+    if (image == null) {
+      try (InputStream in = getArchive(file).getInputStream(name)) {
+        image = ImageUtils.getImage(name, in);
+      }
+      image = putImage(key, image);
+    }
+    return image;
+  }
+
+  /**
+   * Returns an image in the overlay file rotated by 180 degrees, as drawn
+   * for overlays in orientations other than 'a'. The image must not be
+   * changed.
+   */
+  public static BufferedImage getRotatedImage(File file, String name) throws IOException {
+    final String key = getKey(file, name) + "\t180";
+    BufferedImage rotated = getCachedImage(key);
+    if (rotated == null) {
+      rotated = putImage(key, rotate(getImage(file, name)));
+    }
+    return rotated;
+  }
+
+  /**
+   * Returns a copy of the image rotated by 180 degrees.
+   */
+  public static BufferedImage rotate(Image image) {
+    final int w = image.getWidth(null);
+    final int h = image.getHeight(null);
+    final BufferedImage rotated = ImageUtils.createCompatibleTranslucentImage(w, h);
+    final Graphics2D g = rotated.createGraphics();
+    g.drawImage(image, 0, 0, w, h, w, h, 0, 0, null);
+    g.dispose();
+    return rotated;
+  }
+
+  private static BufferedImage getCachedImage(String key) {
+    synchronized (images) {
+      final SoftReference<BufferedImage> ref = images.get(key);
+      return ref == null ? null : ref.get();
+    }
+  }
+
+  // keeps the first of two images decoded at the same time
+  private static BufferedImage putImage(String key, BufferedImage image) {
+    synchronized (images) {
+      final SoftReference<BufferedImage> ref = images.get(key);
+      final BufferedImage cached = ref == null ? null : ref.get();
+      if (cached != null) {
+        return cached;
+      }
+      images.put(key, new SoftReference<BufferedImage>(image));
+      return image;
+    }
+  }
+
+  // a replaced overlay file gets new entries
+  private static String getKey(File file, String name) {
+    return file.getAbsolutePath() + '\t' + file.lastModified() + '\t' + name;
+  }
+}
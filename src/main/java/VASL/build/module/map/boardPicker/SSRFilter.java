@@ -22,8 +22,12 @@ import java.awt.Component;
 import java.awt.Image;
 import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.FilteredImageSource;
+import java.awt.image.IndexColorModel;
 import java.awt.image.RGBImageFilter;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
@@ -31,8 +35,12 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.FileNotFoundException;
 import java.io.StreamTokenizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -52,7 +60,19 @@ public class SSRFilter extends RGBImageFilter {
    * The color entries are names of colors as defined in the color file * Example: * * WoodsToBrush * WoodsGreen=BrushL0 *
    * WoodsBlack=BrushL0
    */
+  // rule files and compiled mappings shared by all filters, see readAllRules
+  private static final Map<String, RuleFiles> boardRules = new HashMap<String, RuleFiles>();
+  private static final Map<String, Compiled> compiledRules = new LinkedHashMap<String, Compiled>(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<String, Compiled> eldest) {
+      return size() > MAX_COMPILED;
+    }
+  };
+  private static final int MAX_COMPILED = 64;
+  private static RuleFiles moduleRules;
+  private static DataArchive moduleArchive;
+
   private Map<Integer, Integer> mappings;
+  private volatile ColorTable colorTable = new ColorTable(new HashMap<Integer, Integer>());
   private String saveRules;
   private Map<String, Integer> colorValues;
   private List<SSROverlay> overlays;
@@ -100,12 +120,7 @@ public class SSRFilter extends RGBImageFilter {
     /*
      * * Maps the color to it's transformed value by going through * the rules. All rules are applied in sequence.
      */
-    int rval = rgb;
-    Integer mappedValue = mappings.get(rgb);
-    if (mappedValue != null) {
-      rval = mappedValue;
-    }
-    return rval;
+    return colorTable.get(rgb);
   }
 
   public String toString() {
@@ -113,6 +128,10 @@ public class SSRFilter extends RGBImageFilter {
   }
 
   private int parseRGB(String s) {
+    return parseRGB(s, colorValues);
+  }
+
+  private static int parseRGB(String s, Map<String, Integer> colorValues) {
     /*
      * * Calculate integer value from rr,gg,bb or 40a38f format
      */
@@ -155,52 +174,65 @@ public class SSRFilter extends RGBImageFilter {
       }
     }
 
-    mappings = new HashMap<Integer, Integer>();
-    colorValues = new HashMap<String, Integer>();
-    overlays = new Vector();
-
-    final DataArchive da = GameModule.getGameModule().getDataArchive();
+    final RuleFiles module = getModuleRules();
+    final RuleFiles boardFiles = getBoardRules();
 
     // Read board-specific colors last to override defaults
-    try (InputStream in = da.getInputStream("boardData/colors")) {
-      readColorValues(in);
-    }
-    catch (IOException ignore) {
-    }
+    colorValues = boardFiles.getColorValues(module);
 
-    try (InputStream in = archive.getInputStream("colors")) {
-      readColorValues(in);
-    }
-    catch (IOException ignore) {
+    // the mappings depend only on the colors and rules, not on the board
+    final String key = boardFiles.key + '\t' + rules;
+    Compiled compiled;
+    synchronized (compiledRules) {
+      compiled = compiledRules.get(key);
     }
+    if (compiled == null) {
+      mappings = new HashMap<Integer, Integer>();
 
-    // Read board-specific rules first to be applied before defaults
-    try (InputStream in = archive.getInputStream("colorSSR")) {
-      readColorRules(in, rules);
-    }
-    catch (IOException ignore) {
-    }
+      // Read board-specific rules first to be applied before defaults
+      applyColorRules(boardFiles.colorRules, rules);
+      applyColorRules(module.colorRules, rules);
 
-    try (InputStream in = da.getInputStream("boardData/colorSSR")) {
-      readColorRules(in, rules);
-    }
-    catch (IOException ignore) {
+      compiled = new Compiled(mappings);
+      synchronized (compiledRules) {
+        compiledRules.put(key, compiled);
+      }
     }
+    mappings = new HashMap<Integer, Integer>(compiled.mappings);
+    colorTable = compiled.table;
 
-    overlays.clear();
+    overlays = new Vector();
     // SSR Overlays are applied in reverse order to the order they're listed
     // in the overlaySSR file. Therefore, reading board-specific
     // overlay rules first will override defaults
-    try (InputStream in = archive.getInputStream("overlaySSR")) {
-      readOverlayRules(in);
-    }
-    catch (IOException ignore) {
-    }
+    applyOverlayRules(boardFiles.overlayRules);
+    applyOverlayRules(module.overlayRules);
+  }
 
-    try (InputStream in = da.getInputStream("boardData/overlaySSR")) {
-      readOverlayRules(in);
+  // the module files, read once per module
+  private static RuleFiles getModuleRules() {
+    final DataArchive da = GameModule.getGameModule().getDataArchive();
+    synchronized (compiledRules) {
+      if (moduleRules == null || moduleArchive != da) {
+        moduleRules = new RuleFiles("", da, "boardData/");
+        moduleArchive = da;
+        boardRules.clear();
+        compiledRules.clear();
+      }
+      return moduleRules;
     }
-    catch (IOException ignore) {
+  }
+
+  // the files of this board or overlay, read once per archive version
+  private RuleFiles getBoardRules() {
+    final String key = archiveFile.getAbsolutePath() + '\t' + archiveFile.length() + '\t' + archiveFile.lastModified();
+    synchronized (compiledRules) {
+      RuleFiles files = boardRules.get(key);
+      if (files == null) {
+        files = new RuleFiles(key, archive, "");
+        boardRules.put(key, files);
+      }
+      return files;
     }
   }
 
@@ -212,41 +244,36 @@ public class SSRFilter extends RGBImageFilter {
       return;
     }
 
-    BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-    StreamTokenizer st = new StreamTokenizer(reader);
-    st.resetSyntax();
-    st.wordChars((int) ' ', 0xff);
-    st.commentChar((int) '/');
-    st.whitespaceChars((int) ' ', (int) ' ');
-    st.whitespaceChars((int) '\n', (int) '\n');
-    st.whitespaceChars((int) '\t', (int) '\t');
-    st.slashSlashComments(true);
-    st.slashStarComments(true);
-    st.eolIsSignificant(false);
+    // the color values may be shared with other filters
+    colorValues = new HashMap<String, Integer>(colorValues);
     try {
-      for (String s = reader.readLine(); s != null; s = reader.readLine()) {
-        if (s.startsWith("/")) {
-          continue;
-        }
-        StringTokenizer st2 = new StringTokenizer(s);
-        if (st2.countTokens() < 2) {
-          continue;
-        }
-        String s1 = st2.nextToken();
-        int rgb = parseRGB(st2.nextToken());
-        if (rgb >= 0) {
-          colorValues.put(s1, rgb);
-        }
-        else {
-          System.err.println("Invalid color alias: " + s);
-        }
-      }
+      applyColorValues(readLines(in), colorValues);
     }
     catch (Exception e) {
       System.err.println("Caught " + e + " reading colors");
     }
   }
 
+  private static void applyColorValues(List<String> lines, Map<String, Integer> colorValues) {
+    for (String s : lines) {
+      if (s.startsWith("/")) {
+        continue;
+      }
+      StringTokenizer st2 = new StringTokenizer(s);
+      if (st2.countTokens() < 2) {
+        continue;
+      }
+      String s1 = st2.nextToken();
+      int rgb = parseRGB(st2.nextToken(), colorValues);
+      if (rgb >= 0) {
+        colorValues.put(s1, rgb);
+      }
+      else {
+        System.err.println("Invalid color alias: " + s);
+      }
+    }
+  }
+
   public void readColorRules(InputStream in, Vector rules) {
     /*
      * * Define the color transformations defined by each rule * as read in from input file
@@ -255,23 +282,14 @@ public class SSRFilter extends RGBImageFilter {
       return;
     }
 
-    StreamTokenizer st = new StreamTokenizer(new BufferedReader(new InputStreamReader(in)));
-    st.resetSyntax();
-    st.wordChars((int) ' ', 0xff);
-    st.commentChar((int) '/');
-    st.whitespaceChars((int) ' ', (int) ' ');
-    st.whitespaceChars((int) '\n', (int) '\n');
-    st.whitespaceChars((int) '\t', (int) '\t');
-    st.slashSlashComments(true);
-    st.slashStarComments(true);
-    st.eolIsSignificant(false);
+    applyColorRules(readTokens(in), rules);
+    colorTable = new ColorTable(mappings);
+  }
+
+  private void applyColorRules(List<String> tokens, Vector rules) {
     boolean inCategory = false; /* are we in a "selected" category */
     try {
-      while (st.nextToken() != StreamTokenizer.TT_EOF) {
-        String s = st.sval;
-        if (s == null) {
-          continue;
-        }
+      for (String s : tokens) {
         int n = s.indexOf('=');
         if (n < 0) {
           if (s.charAt(0) == '+') {
@@ -329,15 +347,24 @@ public class SSRFilter extends RGBImageFilter {
     }
 
     try {
-      BufferedReader file;
-      file = new BufferedReader(new InputStreamReader(in));
-      String s;
-      while ((s = file.readLine()) != null) {
+      applyOverlayRules(readLines(in));
+    }
+    catch (Exception e) {
+      System.err.println("Error opening rules file " + e);
+    }
+  }
+
+  private void applyOverlayRules(List<String> lines) {
+    try {
+      Iterator<String> file = lines.iterator();
+      while (file.hasNext()) {
+        String s = file.next();
         if (s.trim().length() == 0) {
           continue;
         }
         if (saveRules.indexOf(s.trim()) >= 0) {
-          while ((s = file.readLine()) != null) {
+          while (file.hasNext()) {
+            s = file.next();
             if (s.length() == 0) {
               break;
             }
@@ -369,12 +396,155 @@ public class SSRFilter extends RGBImageFilter {
     }
   }
 
+  private static List<String> readLines(InputStream in) throws IOException {
+    final List<String> lines = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+    for (String s = reader.readLine(); s != null; s = reader.readLine()) {
+      lines.add(s);
+    }
+    return lines;
+  }
+
+  // splits a rules file into its words, dropping comments
+  private static List<String> readTokens(InputStream in) {
+    final List<String> tokens = new ArrayList<String>();
+    StreamTokenizer st = new StreamTokenizer(new BufferedReader(new InputStreamReader(in)));
+    st.resetSyntax();
+    st.wordChars((int) ' ', 0xff);
+    st.commentChar((int) '/');
+    st.whitespaceChars((int) ' ', (int) ' ');
+    st.whitespaceChars((int) '\n', (int) '\n');
+    st.whitespaceChars((int) '\t', (int) '\t');
+    st.slashSlashComments(true);
+    st.slashStarComments(true);
+    st.eolIsSignificant(false);
+    try {
+      while (st.nextToken() != StreamTokenizer.TT_EOF) {
+        if (st.sval != null) {
+          tokens.add(st.sval);
+        }
+      }
+    }
+    catch (IOException e) {
+    }
+    return tokens;
+  }
+
+  /**
+   * The color and rule files of the module or of one board archive, read
+   * and split up once so that each filter only has to apply them.
+   */
+  private static final class RuleFiles {
+    private final String key;
+    private final List<String> colors;
+    private final List<String> colorRules;
+    private final List<String> overlayRules;
+
+    // the module colors overridden by these, built on first use
+    private Map<String, Integer> colorValues;
+
+    RuleFiles(String key, DataArchive archive, String prefix) {
+      this.key = key;
+
+      List<String> lines = Collections.emptyList();
+      try (InputStream in = archive.getInputStream(prefix + "colors")) {
+        lines = readLines(in);
+      }
+      catch (IOException ignore) {
+      }
+      colors = lines;
+
+      List<String> tokens = Collections.emptyList();
+      try (InputStream in = archive.getInputStream(prefix + "colorSSR")) {
+        tokens = readTokens(in);
+      }
+      catch (IOException ignore) {
+      }
+      colorRules = tokens;
+
+      lines = Collections.emptyList();
+      try (InputStream in = archive.getInputStream(prefix + "overlaySSR")) {
+        lines = readLines(in);
+      }
+      catch (IOException ignore) {
+      }
+      overlayRules = lines;
+    }
+
+    synchronized Map<String, Integer> getColorValues(RuleFiles module) {
+      if (colorValues == null) {
+        final Map<String, Integer> values = new HashMap<String, Integer>();
+        applyColorValues(module.colors, values);
+        applyColorValues(colors, values);
+        colorValues = values;
+      }
+      return colorValues;
+    }
+  }
+
+  // the color mappings for one board archive and list of rules
+  private static final class Compiled {
+    private final Map<Integer, Integer> mappings;
+    private final ColorTable table;
+
+    Compiled(Map<Integer, Integer> mappings) {
+      this.mappings = mappings;
+      table = new ColorTable(mappings);
+    }
+  }
+
   public Image recolor(Image oldImage, Component observer) {
     return Toolkit.getDefaultToolkit().createImage(new FilteredImageSource(oldImage.getSource(), this));
   }
 
   public void transform(BufferedImage image) {
-    if (!mappings.isEmpty()) {
+    final ColorTable table = colorTable;
+    if (table.isEmpty()) {
+      return;
+    }
+
+    // work on the pixels of int rasters directly
+    final int type = image.getType();
+    if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE) &&
+        image.getRaster().getDataBuffer() instanceof DataBufferInt &&
+        image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel) {
+      final WritableRaster raster = image.getRaster();
+      final int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+      final int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+      final int offset = raster.getDataBuffer().getOffset()
+        - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+      final boolean premultiplied = type == BufferedImage.TYPE_INT_ARGB_PRE;
+      final int w = image.getWidth();
+      final int h = image.getHeight();
+
+      // neighbouring pixels are mostly the same color
+      int last = w > 0 && h > 0 ? ~data[offset] : 0;
+      int lastValue = 0;
+      for (int y = 0; y < h; ++y) {
+        int i = offset + y * stride;
+        for (int x = 0; x < w; ++x, ++i) {
+          final int pixel = data[i];
+          if (pixel == last) {
+            data[i] = lastValue;
+            continue;
+          }
+          if (premultiplied && (pixel >>> 24) != 0xff) {
+            // transparent pixels stay transparent, translucent ones are rare
+            if ((pixel >>> 24) != 0) {
+              image.setRGB(x, y, filterRGB(x, y, image.getRGB(x, y)));
+            }
+            else {
+              data[i] = 0;
+            }
+            continue;
+          }
+          last = pixel;
+          lastValue = (pixel & 0xff000000) | table.get(pixel & 0xffffff);
+          data[i] = lastValue;
+        }
+      }
+    }
+    else {
       final int h = image.getHeight();
       final int[] row = new int[image.getWidth()];
       for (int y = 0; y < h; ++y) {
@@ -387,6 +557,101 @@ public class SSRFilter extends RGBImageFilter {
     }
   }
 
+  /**
+   * Recolors an indexed image by rewriting its palette, which costs one
+   * lookup per palette entry rather than per pixel. The returned image
+   * shares the raster of <code>image</code>.
+   *
+   * @return the recolored image, or null if <code>image</code> does not
+   * have an <code>IndexColorModel</code>
+   */
+  public BufferedImage transformPalette(BufferedImage image) {
+    if (!(image.getColorModel() instanceof IndexColorModel)) {
+      return null;
+    }
+    if (colorTable.isEmpty()) {
+      return image;
+    }
+
+    final IndexColorModel icm = (IndexColorModel) image.getColorModel();
+    final int[] palette = new int[icm.getMapSize()];
+    icm.getRGBs(palette);
+    for (int i = 0; i < palette.length; ++i) {
+      palette[i] = filterRGB(0, 0, palette[i]);
+    }
+
+    final IndexColorModel recolored = new IndexColorModel(
+      icm.getPixelSize(),
+      palette.length,
+      palette,
+      0,
+      icm.hasAlpha(),
+      icm.getTransparentPixel(),
+      image.getSampleModel().getTransferType()
+    );
+    return new BufferedImage(recolored, image.getRaster(), image.isAlphaPremultiplied(), null);
+  }
+
+  /**
+   * The color mappings compiled into an open addressing table of ints, to
+   * avoid boxing each pixel for a map lookup.
+   */
+  private static final class ColorTable {
+    private static final int EMPTY = -1;
+
+    private final int[] keys;
+    private final int[] values;
+    private final int shift;
+    private final int size;
+
+    ColorTable(Map<Integer, Integer> mappings) {
+      size = mappings.size();
+
+      // keep the table at most half full
+      int capacity = 4;
+      while (capacity < size * 2) {
+        capacity <<= 1;
+      }
+      shift = 32 - Integer.numberOfTrailingZeros(capacity);
+      keys = new int[capacity];
+      values = new int[capacity];
+      Arrays.fill(keys, EMPTY);
+
+      for (Map.Entry<Integer, Integer> e : mappings.entrySet()) {
+        int i = slot(e.getKey());
+        while (keys[i] != EMPTY) {
+          i = (i + 1) & (capacity - 1);
+        }
+        keys[i] = e.getKey();
+        values[i] = e.getValue();
+      }
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    private int slot(int rgb) {
+      return (rgb * 0x9E3779B9) >>> shift;
+    }
+
+    // returns the mapped color, or rgb itself if it is not mapped
+    int get(int rgb) {
+      if (size == 0) {
+        return rgb;
+      }
+      for (int i = slot(rgb); ; i = (i + 1) & (keys.length - 1)) {
+        final int key = keys[i];
+        if (key == rgb) {
+          return values[i];
+        }
+        if (key == EMPTY) {
+          return rgb;
+        }
+      }
+    }
+  }
+
   @Override
   public boolean equals(Object obj) {
     return obj instanceof SSRFilter && saveRules.equals(((SSRFilter) obj).saveRules);
@@ -18,12 +18,8 @@
  */
 package VASL.build.module.map.boardPicker;
 
-import VASSAL.tools.DataArchive;
-import VASSAL.tools.image.ImageUtils;
-
 import java.awt.*;
 import java.io.File;
-import java.io.InputStream;
 import java.io.IOException;
 import java.util.StringTokenizer;
 
@@ -45,18 +41,13 @@ public class SSROverlay extends Overlay {
                                            (position.indexOf(',') + 1)));
       overlayFile = archiveFile;
       try {
-        archive = new DataArchive(overlayFile.getPath(),"");
+        archive = OverlayCache.getArchive(overlayFile);
       }
       catch (IOException e) {
         throw new IllegalArgumentException("Unable to open "+overlayFile);
       }
 
-      Dimension size = null;
-      try (InputStream in = archive.getInputStream(name)) {
-        size = ImageUtils.getImageSize(name, in);
-      }
-
-      boundaries.setSize(size);
+      boundaries.setSize(OverlayCache.getSize(overlayFile, name));
 
       boundaries.setLocation(basePos);
     }
@@ -72,8 +63,20 @@ public class SSROverlay extends Overlay {
 
   protected Image loadImage() {
     Image im = null;
-    try (InputStream in = archive.getInputStream(name)) {
-      im = ImageUtils.getImage(name, in);
+    try {
+      im = OverlayCache.getImage(overlayFile, name);
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+
+    return im;
+  }
+
+  protected Image loadRotatedImage() {
+    Image im = null;
+    try {
+      im = OverlayCache.getRotatedImage(overlayFile, name);
     }
     catch (IOException e) {
       e.printStackTrace();
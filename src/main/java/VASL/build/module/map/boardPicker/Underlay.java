@@ -22,13 +22,15 @@ import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 import java.io.InputStream;
 import java.io.IOException;
-
-import javax.imageio.ImageIO;
-import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import VASSAL.build.GameModule;
 import VASSAL.tools.DataArchive;
@@ -39,6 +41,12 @@ import VASSAL.tools.image.ImageUtils;
  * colors turned transparent
  */
 public class Underlay extends SSROverlay {
+  // pattern pixels, shared by all boards
+  private static final Map<String, Pattern> patterns = new HashMap<String, Pattern>();
+  // finished underlays, shared by boards with the same image, crop and SSR
+  private static final Map<String, SoftReference<BufferedImage>> underlays =
+    new HashMap<String, SoftReference<BufferedImage>>();
+
   private int transparentList[];
   private String imageName;
   private DataArchive archive;
@@ -58,79 +66,214 @@ public class Underlay extends SSROverlay {
   }
 
   public Image loadImage() {
-    Image underlayImage = null;
+    final Pattern pattern = getPattern();
+    if (pattern == null) {
+      System.err.println("Underlay image " + imageName + " not found in " + archive.getName());
+      return new BufferedImage(1, 1, BufferedImage.TYPE_4BYTE_ABGR);
+    }
+
+    Point pos = board.getCropBounds().getLocation();
+    boundaries.setSize(board.bounds().getSize());
+    boundaries.setLocation(pos.x, pos.y);
 
-    try (InputStream in = GameModule.getGameModule().getDataArchive().getInputStream("boardData/" + imageName)) {
-      underlayImage = ImageUtils.getImage("boardData/" + imageName, in);
+    final String key = pattern.name + '\t' + Arrays.toString(transparentList) + '\t' +
+      board.getFile().getAbsolutePath() + '\t' + board.getFile().lastModified() + '\t' +
+      board.getBaseImageFileName() + '\t' + boundaries;
+    synchronized (underlays) {
+      final SoftReference<BufferedImage> ref = underlays.get(key);
+      if (ref != null && ref.get() != null) {
+        return ref.get();
+      }
+    }
+
+    BufferedImage base = toBufferedImage(board.getBaseImage());
+    BufferedImage replacement = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(
+        boundaries.width, boundaries.height, Transparency.BITMASK);
+    new HolePunch(transparentList).punch(base, pos, pattern, replacement);
+
+    synchronized (underlays) {
+      underlays.put(key, new SoftReference<BufferedImage>(replacement));
+    }
+    return replacement;
+  }
+
+  // the composite is particular to the board, so it is not shared
+  protected Image loadRotatedImage() {
+    Image im = getImage();
+    return im == null ? null : OverlayCache.rotate(im);
+  }
+
+  // the module's pattern, or else the board's own
+  private Pattern getPattern() {
+    final String moduleName = "boardData/" + imageName;
+    final String boardName = archive.getName() + '\t' + imageName;
+    synchronized (patterns) {
+      if (patterns.containsKey(moduleName)) {
+        return patterns.get(moduleName);
+      }
+      if (patterns.containsKey(boardName)) {
+        return patterns.get(boardName);
+      }
+    }
+
+    String name = moduleName;
+    Image image = null;
+    try (InputStream in = GameModule.getGameModule().getDataArchive().getInputStream(moduleName)) {
+      image = ImageUtils.getImage(moduleName, in);
     }
     catch (IOException ex) {
     }
 
-    if (underlayImage == null) {
+    if (image == null) {
+      name = boardName;
       try (InputStream in = archive.getInputStream(imageName)) {
-        underlayImage = ImageUtils.getImage(imageName, in);
+        image = ImageUtils.getImage(imageName, in);
       }
       catch (IOException ex) {
-        System.err.println("Underlay image " + imageName + " not found in " + archive.getName());
-        return new BufferedImage(1, 1, BufferedImage.TYPE_4BYTE_ABGR);
+        return null;
       }
     }
 
-    Point pos = new Point(0, 0);
-    pos = board.getCropBounds().getLocation();
-    boundaries.setSize(board.bounds().getSize());
-    Image boardBase = board.getBaseImage();
-    boundaries.setLocation(pos.x, pos.y);
-    BufferedImage base = new BufferedImage(boardBase.getWidth(null),boardBase.getHeight(null),BufferedImage.TYPE_INT_ARGB);
-    base.getGraphics().drawImage(boardBase, 0, 0, null);
-    new HolePunch(transparentList, 0).transform(base);
-    BufferedImage replacement = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration().createCompatibleImage(
-        boundaries.width, boundaries.height, Transparency.BITMASK);
-    Graphics2D g2 = replacement.createGraphics();
-    int w = underlayImage.getWidth(null);
-    int h = underlayImage.getHeight(null);
-    for (int x = 0; x < boundaries.width; x += w)
-      for (int y = 0; y < boundaries.height; y += h)
-        g2.drawImage(underlayImage, x, y, null);
-    g2.drawImage(base, -pos.x, -pos.y, null);
-    new HolePunch(new int[]{0}).transform(replacement);
-    return replacement;
+    final Pattern pattern = new Pattern(name, toBufferedImage(image));
+    synchronized (patterns) {
+      patterns.put(name, pattern);
+    }
+    return pattern;
+  }
+
+  private static BufferedImage toBufferedImage(Image image) {
+    if (image instanceof BufferedImage) {
+      return (BufferedImage) image;
+    }
+    BufferedImage b = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = b.createGraphics();
+    g.drawImage(image, 0, 0, null);
+    g.dispose();
+    return b;
+  }
+
+  // reads a row of pixels from the raster where it holds packed RGB ints
+  private static void getRow(BufferedImage image, int x, int y, int w, int row[]) {
+    final int type = image.getType();
+    if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+      image.getRaster().getDataElements(x, y, w, 1, row);
+    }
+    else {
+      image.getRGB(x, y, w, 1, row, 0, w);
+    }
+  }
+
+  // writes a row of ARGB pixels
+  private static void setRow(BufferedImage image, int y, int row[]) {
+    if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+      image.getRaster().setDataElements(0, y, row.length, 1, row);
+    }
+    else {
+      image.setRGB(0, y, row.length, 1, row, 0, row.length);
+    }
+  }
+
+  // the colors of a pattern image, with 0 where it is transparent
+  private static class Pattern {
+    final String name;
+    final int width;
+    final int height;
+    final int rgb[];
+
+    Pattern(String name, BufferedImage image) {
+      this.name = name;
+      width = image.getWidth();
+      height = image.getHeight();
+      rgb = new int[width * height];
+      image.getRGB(0, 0, width, height, rgb, 0, width);
+      for (int i = 0; i < rgb.length; ++i) {
+        rgb[i] = (rgb[i] >>> 24) == 0 ? 0 : rgb[i] & 0xffffff;
+      }
+    }
   }
 
   /**
    * Takes an image and turns a list of colors transparent
    */
   private static class HolePunch {
-    int transparent[]; /* List of colors to turn transparent (and red) */
-    int mask = -1; /* All other colors become this (unchanged if -1) */
+    private static final int EMPTY = -1;
+    private static final int TRANSPARENT = 0xff;
 
-    public HolePunch(int trans[], int mask) {
-      transparent = trans;
-      this.mask = mask;
-    }
+    /* Colors to turn transparent, hashed with open addressing */
+    private final int colors[];
+    private final int shift;
 
     public HolePunch(int trans[]) {
-      this(trans, -1);
+      int capacity = 4;
+      while (capacity < trans.length * 2) {
+        capacity <<= 1;
+      }
+      shift = 32 - Integer.numberOfTrailingZeros(capacity);
+      colors = new int[capacity];
+      Arrays.fill(colors, EMPTY);
+      for (int rgb : trans) {
+        int i = slot(rgb & 0xffffff);
+        while (colors[i] != EMPTY && colors[i] != (rgb & 0xffffff)) {
+          i = (i + 1) & (capacity - 1);
+        }
+        colors[i] = rgb & 0xffffff;
+      }
+    }
+
+    private int slot(int rgb) {
+      return (rgb * 0x9E3779B9) >>> shift;
     }
 
-    public int filterRGB(int x, int y, int rgb) {
-      rgb = 0xffffff & rgb;
-      for (int i = 0; i < transparent.length; ++i) {
-        if (rgb == transparent[i])
-          return 0xff;
+    public boolean contains(int rgb) {
+      for (int i = slot(rgb); ; i = (i + 1) & (colors.length - 1)) {
+        if (colors[i] == rgb) {
+          return true;
+        }
+        if (colors[i] == EMPTY) {
+          return false;
+        }
       }
-      return 0xff000000 | (mask >= 0 ? mask : rgb);
     }
 
-    public void transform(BufferedImage image) {
-      final int h = image.getHeight();
-      final int[] row = new int[image.getWidth()];
+    /**
+     * Fills <code>replacement</code> with the tiled pattern where the board
+     * image at <code>pos</code> has one of the colors, and leaves it
+     * transparent elsewhere. Black pattern pixels are transparent as well.
+     */
+    public void punch(BufferedImage base, Point pos, Pattern pattern, BufferedImage replacement) {
+      final int w = replacement.getWidth();
+      final int h = replacement.getHeight();
+
+      // the part of the replacement the board image covers
+      final Rectangle covered = new Rectangle(0, 0, w, h).intersection(
+        new Rectangle(-pos.x, -pos.y, base.getWidth(), base.getHeight()));
+
+      final int row[] = new int[w];
+      final int baseRow[] = new int[Math.max(covered.width, 0)];
       for (int y = 0; y < h; ++y) {
-        image.getRGB(0, y, row.length, 1, row, 0, row.length);
-        for (int x = 0; x < row.length; ++x) {
-          row[x] = filterRGB(x, y, row[x]);
+        final int p = (y % pattern.height) * pattern.width;
+        final boolean hasBase = y >= covered.y && y < covered.y + covered.height && covered.width > 0;
+        if (hasBase) {
+          getRow(base, covered.x + pos.x, y + pos.y, covered.width, baseRow);
+        }
+
+        // neighbouring pixels are mostly the same color
+        int last = ~0;
+        boolean lastHole = false;
+        for (int x = 0; x < w; ++x) {
+          boolean hole = true;
+          if (hasBase && x >= covered.x && x < covered.x + covered.width) {
+            final int rgb = baseRow[x - covered.x] & 0xffffff;
+            if (rgb != last) {
+              last = rgb;
+              lastHole = contains(rgb);
+            }
+            hole = lastHole;
+          }
+          final int color = hole ? pattern.rgb[p + x % pattern.width] : 0;
+          row[x] = color == 0 ? TRANSPARENT : 0xff000000 | color;
         }
-        image.setRGB(0, y, row.length, 1, row, 0, row.length);
+        setRow(replacement, y, row);
       }
     }
   }
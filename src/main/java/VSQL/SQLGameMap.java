@@ -20,6 +20,7 @@ package VSQL;
 
 import CASL.Map.GameMap;
 import CASL.Map.Hex;
+import CASL.Map.LOSResult;
 import CASL.Map.Terrain;
 
 
@@ -58,6 +59,18 @@ public class SQLGameMap extends GameMap {
 	  return gridToHex(x, y);
 	}
 
+	public LOSResult createLOSResult() {
+	  return new SQLLOSResult();
+	}
+
+	/*
+	 * The VSQL blind hexes depend on the kind of terrain, so only terrain no
+	 * higher than the lower of the source and target is passed over.
+	 */
+	protected int getClearHeight(int sourceElevation, int targetElevation, int rangeToSource, int rangeToTarget) {
+		return Math.min(sourceElevation, targetElevation);
+	}
+
 	/*
 	 * Replace Blind Hex calculations with VSQL rules.
 	 */
@@ -18,9 +18,6 @@
  */
 package VSQL;
 
-import java.awt.Point;
-import java.util.Iterator;
-
 import CASL.Map.Hex;
 import CASL.Map.LOSResult;
 
@@ -31,51 +28,14 @@ public class SQLLOSResult extends LOSResult {
 	 */
 	 public void addMapHindrance(Hex h, int x, int y){
 
-		 // point already in the extended border of a hindrance hex?
-		 Iterator<Hex> iter = mapHindranceHexes.iterator();
-		 boolean	found = false;
-		 Hex temp = null;
-		 while(iter.hasNext() && !found){
-
-			 temp = (Hex) iter.next();
-			 if(temp.getExtendedHexBorder().contains(x, y)){
-				 found = true;
-			 }
-			 // don't add if LOSis60Degree and the appropriate adjacent hex already has been added
-			 if (LOSis60Degree) {
-
-				 if (sourceExitHexspine == 0 || sourceExitHexspine == 3){
-
-					 if (h.getMap().getAdjacentHex(temp, 1) == h || h.getMap().getAdjacentHex(temp, 4) == h){
-
-						 found = true;
-					 }
-				 }
-				 else if (sourceExitHexspine == 1 || sourceExitHexspine == 4){
-
-					 if (h.getMap().getAdjacentHex(temp, 2) == h || h.getMap().getAdjacentHex(temp, 5) == h){
-
-						 found = true;
-					 }
-				 }
-			 }
-
-			 // don't add another hex having the same range to the target is already present
-			 if(sourceLocation.getHex().getMap().range(sourceLocation.getHex(), h) ==
-				sourceLocation.getHex().getMap().range(sourceLocation.getHex(), temp)){
-
-				 found = true;
-			 }
-		 }
-
 		 // add hex if necessary
-		 if(!found){
-			 mapHindranceHexes.add(h);
+		 if(!isMapHindrancePresent(h, x, y)){
+			 addMapHindranceHex(h);
 			  
 			 // set first hindrance point, if necesary
 			 if (firstHindranceAt == null){
 
-				 firstHindranceAt = new Point(x, y);
+				 setFirstHindranceAt(x, y);
 				 setBlocked(x,y, "LOS blocked by " + h.getTerrain().getName() + " (44.21)");
 			 }
 
@@ -24,6 +24,7 @@ import java.util.Iterator;
 import java.util.Vector;
 
 import VASL.build.module.map.ASLPieceMover;
+import VASL.build.module.map.HindranceIndex;
 import VASL.counters.ASLProperties;
 import VASL.counters.Concealable;
 import VASL.counters.Concealment;
@@ -130,6 +131,7 @@ public class VSQLPieceMover extends ASLPieceMover {
 
     while (it2.hasMoreElements()) {
       GamePiece piece = it2.nextPiece();
+      HindranceIndex.pieceChanged(piece);
       if (piece instanceof Stack) {
         processStack((Stack) piece);
       }
@@ -18,9 +18,22 @@
  */
 package VSQL;
 
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Polygon;
+import java.awt.event.MouseEvent;
+import java.util.concurrent.ExecutionException;
+
 import javax.swing.JCheckBox;
+import javax.swing.SwingWorker;
 
 import CASL.Map.GameMap;
+import CASL.Map.Hex;
+import CASL.Map.Location;
+import CASL.Map.Visibility;
+import CASL.Scenario.Scenario;
 import VASL.build.module.map.CASLThread;
 import VASSAL.build.Buildable;
 import VASSAL.build.GameModule;
@@ -45,6 +58,12 @@ public class VSQLThread extends CASLThread {
   public static final int STATE_ALL = 2;
   public static final int STATE_NONE = 3;
 
+  // "what this hex sees" shading, shown while the thread is Shift-dragged
+  protected static final Color BLOCKED_SHADE = new Color(0, 0, 0, 96);
+  protected static final Color HINDRANCE_SHADE = new Color(255, 0, 0, 48);
+  protected Visibility visibility;
+  private SwingWorker<Visibility, Void> visibilityWorker;
+
  
   public VSQLThread() {
     super();
@@ -106,16 +125,99 @@ public class VSQLThread extends CASLThread {
     return s;
   }
 
+  // Shift-click to shade the hexes the source location can see
+  public void mousePressed(MouseEvent e) {
+    clearVisibility();
+    super.mousePressed(e);
+    if (e.isShiftDown() && getSource() != null) {
+      showVisibility(getCASLMap(), getSource(), isUseAuxSourceLOSPoint(), getScenario());
+    }
+  }
+
   // Catch LOS key release and reset grid snap
   public void mouseReleased(java.awt.event.MouseEvent e) {
     if (!retainAfterRelease && e.getWhen() != lastRelease) {
       map.setPiecesVisible(true);
       state = STATE_OFF;
     }
+    clearVisibility();
     super.mouseReleased(e);
     setSnap();
   }
 
+  /*
+   * Check the LOS to every hex in the background, then repaint with the
+   * shading. The worker keeps the scenario it was given: the thread replaces
+   * its scenario when the hindrances change rather than changing it, and the
+   * map terrain is frozen, so a cancelled worker that is still running reads
+   * nothing that changes under it.
+   */
+  protected void showVisibility(final GameMap CASLMap, final Location source, final boolean useAux, final Scenario scenario) {
+    visibilityWorker = new SwingWorker<Visibility, Void>() {
+      protected Visibility doInBackground() throws Exception {
+        return CASLMap.getVisibility(source, useAux, -1, scenario);
+      }
+      protected void done() {
+        if (visibilityWorker != this || isCancelled()) {
+          return;
+        }
+        try {
+          visibility = get();
+          map.repaint();
+        }
+        catch (InterruptedException e) {
+          e.printStackTrace();
+        }
+        catch (ExecutionException e) {
+          e.printStackTrace();
+        }
+      }
+    };
+    visibilityWorker.execute();
+  }
+
+  protected void clearVisibility() {
+    if (visibilityWorker != null) {
+      visibilityWorker.cancel(false);
+      visibilityWorker = null;
+    }
+    if (visibility != null) {
+      visibility = null;
+      map.repaint();
+    }
+  }
+
+  public void draw(Graphics g, VASSAL.build.module.Map m) {
+    final Visibility v = visibility;
+    final GameMap CASLMap = getCASLMap();
+    if (v != null && CASLMap == v.getMap() && isVisible()) {
+      final double os_scale = ((Graphics2D) g).getDeviceConfiguration().getDefaultTransform().getScaleX();
+      for (int col = 0; col < CASLMap.getWidth(); col++) {
+        for (int row = 0; row < CASLMap.getHeight() + (col % 2); row++) {
+          final Hex h = CASLMap.getHex(col, row);
+          final int value = v.getValue(h);
+          if (value == Visibility.BLOCKED) {
+            g.setColor(BLOCKED_SHADE);
+          }
+          else if (value > 0) {
+            g.setColor(HINDRANCE_SHADE);
+          }
+          else {
+            continue;
+          }
+          final Polygon border = h.getHexBorder();
+          final Polygon shade = new Polygon();
+          for (int i = 0; i < border.npoints; i++) {
+            final Point p = mapCASLPointToScreen(new Point(border.xpoints[i], border.ypoints[i]), os_scale);
+            shade.addPoint(p.x, p.y);
+          }
+          g.fillPolygon(shade);
+        }
+      }
+    }
+    super.draw(g, m);
+  }
+
   /*
    * Set snap option - Centers only, or edges also
    */